@@ -5,8 +5,8 @@ import cambridge.model.Attribute;
 import cambridge.model.DynamicAttribute;
 import cambridge.model.Expression;
 import cambridge.runtime.ExpressionContext;
-import cambridge.runtime.Iter;
-import cambridge.runtime.Super;
+import cambridge.runtime.LoopFrame;
+import cambridge.runtime.LoopScope;
 import java.io.IOException;
 import java.io.Writer;
 
@@ -16,6 +16,8 @@ import java.io.Writer;
  * Time: 1:37:42 PM
  */
 public class FormTag extends DynamicTag {
+   private static final LoopScope scope = new LoopScope(Expressions.CURRENT_OBJECT, Expressions.PARENT_OBJECT, Expressions.ITER_OBJECT);
+
    public FormTag() {   
       hidden = true;
    }
@@ -46,30 +48,13 @@ public class FormTag extends DynamicTag {
          if (f instanceof Form) {
             Form form = (Form) f;
 
-            Object t = bindings.get(Expressions.CURRENT_OBJECT);
-            Super ts = (Super) bindings.get(Expressions.PARENT_OBJECT);
-            Iter iter = (Iter) bindings.get(Expressions.ITER_OBJECT);
-
-            Super s = null;
-
-            if (t != null) {
-               s = new Super(t, ts, iter);
-               bindings.put(Expressions.PARENT_OBJECT, s);
+            LoopFrame frame = scope.enter(bindings);
+            try {
+               scope.setCurrent(bindings, form);
+               super.execute(bindings, out);
+            } finally {
+               scope.exit(bindings, frame);
             }
-
-            bindings.put(Expressions.CURRENT_OBJECT, form);
-            super.execute(bindings, out);
-
-            if (t != null) {
-               bindings.put(Expressions.CURRENT_OBJECT, s.get());
-               bindings.put(Expressions.PARENT_OBJECT, s.getSuper());
-               bindings.put(Expressions.ITER_OBJECT, s.getIter());
-            } else {
-               bindings.put(Expressions.CURRENT_OBJECT, t);
-               bindings.put(Expressions.PARENT_OBJECT, ts);
-               bindings.put(Expressions.ITER_OBJECT, iter);
-            }
-
          }
 
       } catch (ExpressionEvaluationException e) {
@@ -18,10 +18,12 @@ import cambridge.model.AttributeKey;
 import cambridge.model.DynamicAttribute;
 import cambridge.parser.expressions.FunctionRunner;
 import cambridge.parser.expressions.IfFunction;
+import cambridge.parser.expressions.PureFunction;
 import cambridge.parser.expressions.ResourceBundleFunction;
 import cambridge.parser.expressions.StaticMethodCaller;
 import cambridge.runtime.Filter;
 import cambridge.runtime.LowerCaseFilter;
+import cambridge.runtime.NumberFormatFilter;
 import cambridge.runtime.SimpleDateFormatFilter;
 import cambridge.runtime.UpperCaseFilter;
 import cambridge.tags.DummyTag;
@@ -120,6 +122,20 @@ public class Cambridge {
         functions.put(name, runner);
     }
 
+    /**
+     * <p>Maps the provided function name to a function whose result only depends on
+     * its parameters. The results of pure functions are memoized while rendering the
+     * templates of the factories that turn it on, see
+     * {@link TemplateFactory#setMemoizePureFunctions(boolean)}.</p>
+     *
+     * @param name   Function name
+     * @param runner Function runner
+     * @see PureFunction
+     */
+    public void registerPureFunction(String name, FunctionRunner runner) {
+        functions.put(name, new PureFunction(runner));
+    }
+
     /**
      * FunctionRunners are classes that implement a function in Cambridge Template Engine
      * Expression Language.
@@ -408,6 +424,7 @@ public class Cambridge {
         registerFilter("lower", LowerCaseFilter.class);
         registerFilter("upper", UpperCaseFilter.class);
         registerFilter("dateformat", SimpleDateFormatFilter.class);
+        registerFilter("numberformat", NumberFormatFilter.class);
 
         bind(DefaultNamespaceURI, "if").to(IfBehavior.getProvider());
         bind(DefaultNamespaceURI, "elseif").to(ElseIfBehavior.getProvider());
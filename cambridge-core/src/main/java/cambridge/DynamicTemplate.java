@@ -2,12 +2,19 @@ package cambridge;
 
 import cambridge.model.Fragment;
 import cambridge.model.FragmentList;
+import cambridge.parser.expressions.FunctionResults;
+import cambridge.runtime.ByteWriter;
+import cambridge.runtime.EscapingMode;
+import cambridge.runtime.EscapingWriter;
 import cambridge.runtime.ExpressionContext;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.Map;
 
 /**
@@ -18,11 +25,40 @@ public class DynamicTemplate implements Template
 {
     private final FragmentList fragments;
     private final ExpressionContext context;
+    private final EscapingMode escapingMode;
+    private final Charset outputCharset;
+    private final boolean memoizePureFunctions;
 
     public DynamicTemplate(FragmentList fragments, ExpressionContext context)
+    {
+        this(fragments, context, EscapingMode.LEGACY, null, false);
+    }
+
+    /**
+     * @param fragments     Template fragments
+     * @param context       Template context
+     * @param escapingMode  How the output of the expressions is escaped
+     * @param outputCharset The charset of the output when rendering to a Writer, might be null
+     */
+    public DynamicTemplate(FragmentList fragments, ExpressionContext context, EscapingMode escapingMode, Charset outputCharset)
+    {
+        this(fragments, context, escapingMode, outputCharset, false);
+    }
+
+    /**
+     * @param fragments            Template fragments
+     * @param context              Template context
+     * @param escapingMode         How the output of the expressions is escaped
+     * @param outputCharset        The charset of the output when rendering to a Writer, might be null
+     * @param memoizePureFunctions Whether the results of pure functions are memoized while rendering
+     */
+    public DynamicTemplate(FragmentList fragments, ExpressionContext context, EscapingMode escapingMode, Charset outputCharset, boolean memoizePureFunctions)
     {
         this.fragments = fragments;
         this.context = context;
+        this.escapingMode = escapingMode;
+        this.outputCharset = outputCharset;
+        this.memoizePureFunctions = memoizePureFunctions;
     }
 
     public void setProperty(String name, Object property)
@@ -37,10 +73,23 @@ public class DynamicTemplate implements Template
 
     public void printTo(Writer out) throws IOException, TemplateEvaluationException
     {
-        for (Fragment f : fragments)
-        {
-            f.eval(context, out);
-        }
+        render(escaping(out));
+    }
+
+    public void printTo(OutputStream out, Charset charset) throws IOException, TemplateEvaluationException
+    {
+        ByteWriter writer = new ByteWriter(out, charset);
+        writer.setEscaper(escapingMode.getEscaper(charset));
+        render(writer);
+        writer.flush();
+    }
+
+    public void printTo(WritableByteChannel out, Charset charset) throws IOException, TemplateEvaluationException
+    {
+        ByteWriter writer = new ByteWriter(out, charset);
+        writer.setEscaper(escapingMode.getEscaper(charset));
+        render(writer);
+        writer.flush();
     }
 
     public void printBuffered(Writer out) throws IOException, TemplateEvaluationException
@@ -55,12 +104,48 @@ public class DynamicTemplate implements Template
             writer = new BufferedWriter(out);
         }
 
-        for (Fragment f : fragments)
+        render(escaping(writer));
+    }
+
+    private void render(Writer out) throws IOException, TemplateEvaluationException
+    {
+        if (!memoizePureFunctions)
+        {
+            for (Fragment f : fragments)
+            {
+                f.eval(context, out);
+            }
+            return;
+        }
+
+        FunctionResults previous = FunctionResults.begin();
+        try
+        {
+            for (Fragment f : fragments)
+            {
+                f.eval(context, out);
+            }
+        }
+        finally
         {
-            f.eval(context, writer);
+            FunctionResults.end(previous);
         }
     }
 
+    /**
+     * The escaper is resolved once per render and passed to the expressions with
+     * the writer. The legacy escaper is used when the writer carries none.
+     */
+    private Writer escaping(Writer out)
+    {
+        if (escapingMode == EscapingMode.LEGACY)
+        {
+            return out;
+        }
+
+        return new EscapingWriter(out, escapingMode.getEscaper(outputCharset));
+    }
+
     public String asString() throws TemplateEvaluationException
     {
         StringWriter writer = new StringWriter();
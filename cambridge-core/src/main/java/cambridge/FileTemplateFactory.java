@@ -2,6 +2,7 @@ package cambridge;
 
 import cambridge.model.FragmentList;
 import cambridge.model.TemplateDocument;
+import cambridge.runtime.ExpressionContext;
 
 import java.io.File;
 import java.util.HashSet;
@@ -41,7 +42,7 @@ class FileTemplateFactory extends TemplateFactory
     {
         checkForChanges();
 
-        return new DynamicTemplate(fragments, expressionLanguage.createNewContext());
+        return newTemplate(expressionLanguage.createNewContext());
     }
 
     @Override
@@ -49,7 +50,15 @@ class FileTemplateFactory extends TemplateFactory
     {
         checkForChanges();
 
-        return new DynamicTemplate(fragments, expressionLanguage.createNewContext(locale));
+        return newTemplate(expressionLanguage.createNewContext(locale));
+    }
+
+    @Override
+    public Template createTemplate(ExpressionContext context)
+    {
+        checkForChanges();
+
+        return newTemplate(context);
     }
 
     private void checkForChanges()
@@ -93,7 +102,7 @@ class FileTemplateFactory extends TemplateFactory
                 includes = l.getFiles(doc.getIncludes());
             }
 
-            fragments = doc.normalize();
+            setFragments(doc.normalize());
 
             lastReload = System.currentTimeMillis();
         }
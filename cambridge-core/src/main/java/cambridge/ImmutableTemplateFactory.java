@@ -19,12 +19,12 @@ class ImmutableTemplateFactory extends TemplateFactory
     @Override
     public Template createTemplate()
     {
-        return new DynamicTemplate(fragments, fragments.getExpressionLanguage().createNewContext());
+        return newTemplate(fragments.getExpressionLanguage().createNewContext());
     }
 
     @Override
     public Template createTemplate(Locale locale)
     {
-        return new DynamicTemplate(fragments, fragments.getExpressionLanguage().createNewContext(locale));
+        return newTemplate(fragments.getExpressionLanguage().createNewContext(locale));
     }
 }
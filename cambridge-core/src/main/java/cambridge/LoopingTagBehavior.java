@@ -3,7 +3,8 @@ package cambridge;
 import cambridge.model.TagNode;
 import cambridge.runtime.ExpressionContext;
 import cambridge.runtime.Iter;
-import cambridge.runtime.Super;
+import cambridge.runtime.LoopFrame;
+import cambridge.runtime.LoopScope;
 
 import java.io.IOException;
 import java.io.Writer;
@@ -22,29 +23,47 @@ public abstract class LoopingTagBehavior implements TagBehavior {
         this.col = col;
     }
 
-    public final void execute(ExpressionContext context, TagNode tag, Writer out) throws TemplateEvaluationException, IOException {
-        Object t = context.get(getCurrentObjectName());
-        Super ts = (Super) context.get(getParentObjectName());
-        Iter iter = (Iter) context.get(getIterObjectName());
+    private volatile LoopScope scope;
 
-        Super s = null;
+    public final void execute(ExpressionContext context, TagNode tag, Writer out) throws TemplateEvaluationException, IOException {
+        LoopScope s = getScope();
+        LoopFrame frame = s.enter(context);
+        try {
+            doExecute(context, tag, out);
+        } finally {
+            s.exit(context, frame);
+        }
+    }
 
-        if (t != null) {
-            s = new Super(t, ts, iter);
-            context.put(getParentObjectName(), s);
+    /**
+     * The scope is created on first use as the variable names may be
+     * provided by the sub classes.
+     *
+     * @return The scope managing the loop variables of this behavior
+     */
+    protected LoopScope getScope() {
+        LoopScope s = scope;
+        if (s == null) {
+            s = new LoopScope(getCurrentObjectName(), getParentObjectName(), getIterObjectName());
+            scope = s;
         }
+        return s;
+    }
 
-        doExecute(context, tag, out);
+    /**
+     * @param context Template context
+     * @return The iterator to be used by the loop that is being executed
+     */
+    protected Iter newIter(ExpressionContext context) {
+        return getScope().newIter(context);
+    }
 
-        if (t != null) {
-            context.put(getCurrentObjectName(), s.get());
-            context.put(getParentObjectName(), s.getSuper());
-            context.put(getIterObjectName(), s.getIter());
-        } else {
-            context.put(getCurrentObjectName(), t);
-            context.put(getParentObjectName(), ts);
-            context.put(getIterObjectName(), iter);
-        }
+    protected void setCurrentObject(ExpressionContext context, Object value) {
+        getScope().setCurrent(context, value);
+    }
+
+    protected void setIter(ExpressionContext context, Iter iter) {
+        getScope().setIter(context, iter);
     }
 
     protected abstract void doExecute(ExpressionContext context, TagNode tag, Writer out) throws TemplateEvaluationException, IOException;
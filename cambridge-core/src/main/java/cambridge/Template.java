@@ -3,7 +3,10 @@ package cambridge;
 import cambridge.runtime.ExpressionContext;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.Map;
 
 /**
@@ -47,6 +50,31 @@ public interface Template
      */
     public void printTo(Writer out) throws IOException, TemplateEvaluationException;
 
+    /**
+     * Renders the page writing the bytes encoded with the given charset to the given output
+     * stream. The static parts of the template are encoded once and written as bytes, only the
+     * dynamic output of the expressions gets encoded while rendering. The output is buffered
+     * and flushed at the end, the stream is not closed.
+     *
+     * @param out     The output stream to be used to output the template contents
+     * @param charset The charset of the output
+     * @throws IOException                 Might be thrown in case of an IO problem
+     * @throws TemplateEvaluationException This exception is thrown if something goes wrong in template rendering.
+     */
+    public void printTo(OutputStream out, Charset charset) throws IOException, TemplateEvaluationException;
+
+    /**
+     * Renders the page writing the bytes encoded with the given charset to the given channel.
+     * Works the same way as {@link #printTo(java.io.OutputStream, java.nio.charset.Charset)}.
+     * The channel is not closed.
+     *
+     * @param out     The channel to be used to output the template contents
+     * @param charset The charset of the output
+     * @throws IOException                 Might be thrown in case of an IO problem
+     * @throws TemplateEvaluationException This exception is thrown if something goes wrong in template rendering.
+     */
+    public void printTo(WritableByteChannel out, Charset charset) throws IOException, TemplateEvaluationException;
+
     /**
      * Renders the page writing to the given writer. Unlike {@link #printTo(java.io.Writer)} method,
      * this method creates a BufferedWriter that wraps the Writer that you pass in.
@@ -0,0 +1,15 @@
+package cambridge;
+
+/**
+ * Thrown when a template is loaded in compiled mode and the code generated for
+ * it could not be compiled, see {@link TemplateFactory#setCompiled(boolean)}
+ */
+public class TemplateCompilationException extends TemplateLoadingException {
+   public TemplateCompilationException(String message) {
+      super(message);
+   }
+
+   public TemplateCompilationException(String message, Throwable cause) {
+      super(message, cause);
+   }
+}
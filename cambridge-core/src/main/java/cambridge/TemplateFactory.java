@@ -1,8 +1,11 @@
 package cambridge;
 
 import cambridge.model.FragmentList;
+import cambridge.model.TemplateCompiler;
+import cambridge.runtime.EscapingMode;
 import cambridge.runtime.ExpressionContext;
 
+import java.nio.charset.Charset;
 import java.util.Locale;
 
 /**
@@ -12,16 +15,145 @@ import java.util.Locale;
  */
 public abstract class TemplateFactory
 {
-    protected FragmentList fragments;
+    protected volatile FragmentList fragments;
     protected final TemplateLoader loader;
 
+    private volatile boolean compiled;
+    private volatile FragmentList compiledFragments;
+
+    private volatile EscapingMode escapingMode = EscapingMode.LEGACY;
+    private volatile Charset outputCharset;
+    private volatile boolean memoizePureFunctions;
+
     public TemplateFactory(TemplateLoader loader, FragmentList fragments)
     {
         this.loader = loader;
         this.fragments = fragments;
     }
 
+    /**
+     * Turns the compiled mode on or off. In compiled mode the template is compiled
+     * into a generated class once, and the templates created by this factory run
+     * the generated code instead of interpreting the fragments. If the system java
+     * compiler is not available, the interpreter is used.
+     *
+     * @param compiled Whether the templates should be compiled
+     * @throws TemplateCompilationException If the template could not be compiled, the
+     *                                      factory is left in interpreted mode
+     * @see TemplateCompiler
+     */
+    public synchronized void setCompiled(boolean compiled)
+    {
+        compiledFragments = compiled ? TemplateCompiler.compile(fragments) : null;
+        this.compiled = compiled;
+    }
+
+    public boolean isCompiled()
+    {
+        return compiled;
+    }
+
+    /**
+     * Sets how the output of the expressions is escaped by the templates created by this
+     * factory. The default is {@link EscapingMode#LEGACY}.
+     *
+     * @param escapingMode Escaping mode
+     */
+    public void setEscapingMode(EscapingMode escapingMode)
+    {
+        this.escapingMode = escapingMode;
+    }
+
+    public EscapingMode getEscapingMode()
+    {
+        return escapingMode;
+    }
+
+    /**
+     * Sets the charset of the output when the templates are rendered to a Writer. The
+     * charset aware escaping uses it to decide which characters need to be escaped.
+     * When rendering to an OutputStream or a channel, the charset that is passed to
+     * the print method is used instead.
+     *
+     * @param outputCharset Output charset, null if all the characters can be represented
+     */
+    public void setOutputCharset(Charset outputCharset)
+    {
+        this.outputCharset = outputCharset;
+    }
+
+    public Charset getOutputCharset()
+    {
+        return outputCharset;
+    }
+
+    /**
+     * Turns the memoization of pure functions on or off for the templates created by this
+     * factory. When it is on, a pure function called with the same parameters more than once
+     * while rendering a template is executed once. The results are dropped when the render
+     * ends. It is off by default.
+     *
+     * @param memoizePureFunctions Whether the results of pure functions are memoized
+     * @see Cambridge#registerPureFunction
+     */
+    public void setMemoizePureFunctions(boolean memoizePureFunctions)
+    {
+        this.memoizePureFunctions = memoizePureFunctions;
+    }
+
+    public boolean isMemoizePureFunctions()
+    {
+        return memoizePureFunctions;
+    }
+
+    /**
+     * Creates a template that renders the fragments of this factory with the given context.
+     *
+     * @param context Template context
+     * @return A new template
+     */
+    protected Template newTemplate(ExpressionContext context)
+    {
+        return new DynamicTemplate(getFragments(), context, escapingMode, outputCharset, memoizePureFunctions);
+    }
+
+    /**
+     * Replaces the fragments of this factory, compiling them again if the
+     * factory is in compiled mode. Synchronized with {@link #setCompiled(boolean)}
+     * so that the compiled fragments are never built from replaced fragments.
+     */
+    protected synchronized void setFragments(FragmentList fragments)
+    {
+        if (compiled)
+        {
+            compiledFragments = TemplateCompiler.compile(fragments);
+        }
+        this.fragments = fragments;
+    }
+
+    /**
+     * @return The fragments that the created templates should render
+     */
+    protected FragmentList getFragments()
+    {
+        FragmentList c = compiledFragments;
+        return c != null ? c : fragments;
+    }
+
     public abstract Template createTemplate();
 
     public abstract Template createTemplate(Locale locale);
+
+    /**
+     * Creates a template that uses the given context instead of a new one. The context
+     * should be created by the expression language of this factory, or be compatible with
+     * it. The variables of the context are used as they are, without being copied.
+     *
+     * @param context Template context
+     * @return A new template
+     */
+    public Template createTemplate(ExpressionContext context)
+    {
+        return newTemplate(context);
+    }
 }
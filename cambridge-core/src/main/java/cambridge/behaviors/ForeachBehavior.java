@@ -92,8 +92,8 @@ public class ForeachBehavior extends LoopingTagBehavior {
     }
 
     private void iterateIterable(ExpressionContext context, TagNode tag, Writer out, Iterable<Object> o) throws IOException, TemplateEvaluationException {
-        Iter iter = new Iter();
-        context.put(getIterObjectName(), iter);
+        Iter iter = newIter(context);
+        setIter(context, iter);
         Iterator<?> it = o.iterator();
         while (it.hasNext()) {
         	Object o1 = it.next();
@@ -102,98 +102,98 @@ public class ForeachBehavior extends LoopingTagBehavior {
         		iter.setLast();
             }
 
-            context.put(getCurrentObjectName(), o1);
+            setCurrentObject(context, o1);
             tag.execute(context, out);
             iter.next();
         }
     }
 
     private void iterateArray(ExpressionContext context, TagNode tag, Writer out, Object[] o) throws IOException, TemplateEvaluationException {
-        Iter iter = new Iter();
-        context.put(getIterObjectName(), iter);
+        Iter iter = newIter(context);
+        setIter(context, iter);
         for (int i=0; i<o.length; i++) {
         	if (i == o.length-1)
         		iter.setLast();
 
-            context.put(getCurrentObjectName(), o[i]);
+            setCurrentObject(context, o[i]);
             tag.execute(context, out);
             iter.next();
         }
     }
 
     private void iterateInt(ExpressionContext context, TagNode tag, Writer out, int[] o) throws IOException, TemplateEvaluationException {
-        Iter iter = new Iter();
-        context.put(getIterObjectName(), iter);
+        Iter iter = newIter(context);
+        setIter(context, iter);
         for (int i=0; i<o.length; i++) {
         	if (i == o.length-1)
         		iter.setLast();
 
-            context.put(getCurrentObjectName(), o[i]);
+            setCurrentObject(context, o[i]);
             tag.execute(context, out);
             iter.next();
         }
     }
 
     private void iterateFloat(ExpressionContext context, TagNode tag, Writer out, float[] o) throws IOException, TemplateEvaluationException {
-        Iter iter = new Iter();
-        context.put(getIterObjectName(), iter);
+        Iter iter = newIter(context);
+        setIter(context, iter);
         for (int i=0; i<o.length; i++) {
         	if (i == o.length-1)
         		iter.setLast();
 
-            context.put(getCurrentObjectName(), o[i]);
+            setCurrentObject(context, o[i]);
             tag.execute(context, out);
             iter.next();
         }
     }
 
     private void iterateDouble(ExpressionContext context, TagNode tag, Writer out, double[] o) throws IOException, TemplateEvaluationException {
-        Iter iter = new Iter();
-        context.put(getIterObjectName(), iter);
+        Iter iter = newIter(context);
+        setIter(context, iter);
         for (int i=0; i<o.length; i++) {
         	if (i == o.length-1)
         		iter.setLast();
 
-            context.put(getCurrentObjectName(), o[i]);
+            setCurrentObject(context, o[i]);
             tag.execute(context, out);
             iter.next();
         }
     }
 
     private void iterateByte(ExpressionContext context, TagNode tag, Writer out, byte[] o) throws IOException, TemplateEvaluationException {
-        Iter iter = new Iter();
-        context.put(getIterObjectName(), iter);
+        Iter iter = newIter(context);
+        setIter(context, iter);
         for (int i=0; i<o.length; i++) {
         	if (i == o.length-1)
         		iter.setLast();
 
-            context.put(getCurrentObjectName(), o[i]);
+            setCurrentObject(context, o[i]);
             tag.execute(context, out);
             iter.next();
         }
     }
 
     private void iterateChar(ExpressionContext context, TagNode tag, Writer out, char[] o) throws IOException, TemplateEvaluationException {
-        Iter iter = new Iter();
-        context.put(getIterObjectName(), iter);
+        Iter iter = newIter(context);
+        setIter(context, iter);
         for (int i=0; i<o.length; i++) {
         	if (i == o.length-1)
         		iter.setLast();
 
-            context.put(getCurrentObjectName(), o[i]);
+            setCurrentObject(context, o[i]);
             tag.execute(context, out);
             iter.next();
         }
     }
 
     private void iterateBoolean(ExpressionContext context, TagNode tag, Writer out, boolean[] o) throws IOException, TemplateEvaluationException {
-        Iter iter = new Iter();
-        context.put(getIterObjectName(), iter);
+        Iter iter = newIter(context);
+        setIter(context, iter);
         for (int i=0; i<o.length; i++) {
         	if (i == o.length-1)
         		iter.setLast();
 
-            context.put(getCurrentObjectName(), o[i]);
+            setCurrentObject(context, o[i]);
             tag.execute(context, out);
             iter.next();
         }
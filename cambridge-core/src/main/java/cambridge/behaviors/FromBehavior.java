@@ -4,7 +4,6 @@ import cambridge.BehaviorInstantiationException;
 import cambridge.BehaviorProvider;
 import cambridge.ExpressionEvaluationException;
 import cambridge.ExpressionParsingException;
-import cambridge.Expressions;
 import cambridge.LoopingTagBehavior;
 import cambridge.TemplateEvaluationException;
 import cambridge.model.Attribute;
@@ -37,13 +36,13 @@ public class FromBehavior extends LoopingTagBehavior {
     @Override
     public void doExecute(ExpressionContext context, TagNode tag, Writer out) throws TemplateEvaluationException, IOException {
         try {
-            Iter iter = new Iter();
+            Iter iter = newIter(context);
             for (int i = from.asInt(context); i <= to.asInt(context); i++) {
             	if (i == to.asInt(context))
             		iter.setLast();
 
-                context.put(Expressions.CURRENT_OBJECT, i);
-                context.put(Expressions.ITER_OBJECT, iter);
+                setCurrentObject(context, i);
+                setIter(context, iter);
                 tag.execute(context, out);
                 iter.next();
             }
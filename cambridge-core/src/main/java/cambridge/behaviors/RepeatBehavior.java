@@ -4,7 +4,6 @@ import cambridge.BehaviorInstantiationException;
 import cambridge.BehaviorProvider;
 import cambridge.ExpressionEvaluationException;
 import cambridge.ExpressionParsingException;
-import cambridge.Expressions;
 import cambridge.LoopingTagBehavior;
 import cambridge.TemplateEvaluationException;
 import cambridge.model.Attribute;
@@ -35,15 +34,15 @@ public class RepeatBehavior extends LoopingTagBehavior {
     @Override
     public void doExecute(ExpressionContext context, TagNode tag, Writer out) throws TemplateEvaluationException, IOException {
         try {
-            Iter iter = new Iter();
+            Iter iter = newIter(context);
             int n = number.asInt(context);
             for (int i = 0; i != n; i++) {
             	if (i == n - 1) {
             		iter.setLast();
                 }
 
-                context.put(Expressions.CURRENT_OBJECT, i);
-                context.put(Expressions.ITER_OBJECT, iter);
+                setCurrentObject(context, i);
+                setIter(context, iter);
                 tag.execute(context, out);
                 iter.next();
             }
@@ -4,7 +4,6 @@ import cambridge.BehaviorInstantiationException;
 import cambridge.BehaviorProvider;
 import cambridge.ExpressionEvaluationException;
 import cambridge.ExpressionParsingException;
-import cambridge.Expressions;
 import cambridge.LoopingTagBehavior;
 import cambridge.TemplateEvaluationException;
 import cambridge.model.Attribute;
@@ -36,9 +35,9 @@ public class WhileBehavior extends LoopingTagBehavior {
     @Override
     public void doExecute(ExpressionContext context, TagNode tag, Writer out) throws TemplateEvaluationException, IOException {
         try {
-            Iter iter = new Iter();
+            Iter iter = newIter(context);
             while (expression.asBoolean(context)) {
-                context.put(Expressions.ITER_OBJECT, iter);
+                setIter(context, iter);
                 tag.execute(context, out);
                 iter.next();
             }
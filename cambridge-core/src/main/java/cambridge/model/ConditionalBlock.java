@@ -14,7 +14,7 @@ import java.util.ArrayList;
  */
 public class ConditionalBlock implements Fragment {
 
-   private static class Condition {
+   static class Condition {
       final Expression expression;
       final TagNode tag;
 
@@ -1,18 +1,16 @@
 package cambridge.model;
 
-import cambridge.Cambridge;
 import cambridge.ExpressionEvaluationException;
 import cambridge.ExpressionParsingException;
 import cambridge.TemplateEvaluationException;
-import cambridge.runtime.EscapeFilter;
 import cambridge.runtime.ExpressionContext;
-import cambridge.runtime.Filter;
+import cambridge.runtime.FilterPipeline;
+import cambridge.runtime.HtmlEscaper;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Locale;
 
 /**
  * ExpressionNodes are nodes within the documents that are
@@ -23,7 +21,7 @@ public class ExpressionNode extends TemplateNode implements AttributeFragment {
     boolean raw;
     Expression expression;
 
-    ArrayList<Filter> filters;
+    FilterPipeline filters;
 
     public ExpressionNode(String value, Expression expression) throws ExpressionParsingException {
         this(value, expression, false);
@@ -36,30 +34,7 @@ public class ExpressionNode extends TemplateNode implements AttributeFragment {
     }
 
     public void setFilters(ArrayList<String> f) {
-        filters = new ArrayList<Filter>();
-        for (String s : f) {
-            String name;
-            String params;
-
-            int i = s.indexOf(':');
-            if (i != -1) {
-                name = s.substring(0, i);
-                params = s.substring(i + 1).trim();
-            } else {
-                name = s;
-                params = null;
-            }
-
-            Filter filter = Cambridge.getInstance().getFilter(name, getBeginLine(), getBeginColumn());
-            if (filter != null) {
-                filter.init(params);
-                filters.add(filter);
-            }
-        }
-
-        if (filters.size() == 0) {
-            filters = null;
-        }
+        filters = FilterPipeline.create(f, getBeginLine(), getBeginColumn());
     }
 
     public String getSource() {
@@ -99,11 +74,12 @@ public class ExpressionNode extends TemplateNode implements AttributeFragment {
         try {
             Object value = expression.eval(context);
             if (value != null) {
-                String str = applyFilters(value, context.getLocale());
-                if (raw) {
-                    out.write(str);
+                if (filters != null) {
+                    filters.write(value, context.getLocale(), raw ? null : HtmlEscaper.get(out), out);
+                } else if (raw) {
+                    out.write(value.toString());
                 } else {
-                    out.write(EscapeFilter.doFilter(str));
+                    HtmlEscaper.get(out).escape(value, out);
                 }
             }
         } catch (ExpressionEvaluationException e) {
@@ -119,19 +95,4 @@ public class ExpressionNode extends TemplateNode implements AttributeFragment {
     public String toString() {
         return getSource();
     }
-
-    private String applyFilters(Object o, Locale locale) {
-        if (filters == null) return o.toString();
-        Object val = o;
-        for (int i = 0; i < filters.size(); i++) {
-            Filter f = filters.get(i);
-            if (i == 0) {
-                val = f.doFilter(o, locale);
-            } else {
-                val = f.doFilter(val, locale);
-            }
-        }
-
-        return val.toString();
-    }
 }
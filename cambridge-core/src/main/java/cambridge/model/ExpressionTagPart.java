@@ -1,13 +1,12 @@
 package cambridge.model;
 
-import cambridge.Cambridge;
 import cambridge.ExpressionEvaluationException;
 import cambridge.ExpressionParsingException;
 import cambridge.TemplateEvaluationException;
 import cambridge.runtime.DefaultTemplateBindings;
-import cambridge.runtime.EscapeFilter;
 import cambridge.runtime.ExpressionContext;
-import cambridge.runtime.Filter;
+import cambridge.runtime.FilterPipeline;
+import cambridge.runtime.HtmlEscaper;
 
 import java.io.IOException;
 import java.io.Writer;
@@ -24,33 +23,10 @@ public class ExpressionTagPart implements TagPart, Fragment {
     private final int line;
     private final int col;
 
-    ArrayList<Filter> filters;
+    FilterPipeline filters;
 
     public void setFilters(ArrayList<String> f) {
-        filters = new ArrayList<Filter>();
-        for (String s : f) {
-            String name;
-            String params;
-
-            int i = s.indexOf(':');
-            if (i != -1) {
-                name = s.substring(0, i);
-                params = s.substring(i + 1).trim();
-            } else {
-                name = s;
-                params = null;
-            }
-
-            Filter filter = Cambridge.getInstance().getFilter(name, line, col);
-            if (filter != null) {
-                filter.init(params);
-                filters.add(filter);
-            }
-        }
-
-        if (filters.size() == 0) {
-            filters = null;
-        }
+        filters = FilterPipeline.create(f, line, col);
     }
 
     public ExpressionTagPart(String textContent, Expression expression, boolean raw, int line, int col) throws ExpressionParsingException {
@@ -73,15 +49,13 @@ public class ExpressionTagPart implements TagPart, Fragment {
         try {
             Object value = expression.eval(context);
             if (value != null) {
-                Locale locale = (Locale) context.get(DefaultTemplateBindings.LocaleVariable);
-                if (locale == null) {
-                    locale = Locale.getDefault();
-                }
-                String str = applyFilters(value, locale);
-                if (raw) {
-                    out.write(str);
+                if (filters != null) {
+                    Locale locale = (Locale) context.get(DefaultTemplateBindings.LocaleVariable);
+                    filters.write(value, locale, raw ? null : HtmlEscaper.get(out), out);
+                } else if (raw) {
+                    out.write(value.toString());
                 } else {
-                    out.write(EscapeFilter.doFilter(str));
+                    HtmlEscaper.get(out).escape(value, out);
                 }
             }
         } catch (ExpressionEvaluationException e) {
@@ -95,21 +69,6 @@ public class ExpressionTagPart implements TagPart, Fragment {
     public void pack() {
     }
 
-    private String applyFilters(Object o, Locale locale) {
-        if (filters == null) return o.toString();
-        Object val = o;
-        for (int i = 0; i < filters.size(); i++) {
-            Filter f = filters.get(i);
-            if (i == 0) {
-                val = f.doFilter(o, locale);
-            } else {
-                val = f.doFilter(val, locale);
-            }
-        }
-
-        return val.toString();
-    }
-
     @Override
     public int getLine() {
         return line;
@@ -1,9 +1,11 @@
 package cambridge.model;
 
+import cambridge.runtime.ByteWriter;
 import cambridge.runtime.ExpressionContext;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.charset.Charset;
 
 /**
  * @author Erdinc Yilmazel
@@ -14,6 +16,28 @@ public class StaticFragment implements AttributeFragment {
    StringBuffer contents;
    private String packedContents;
    private boolean packed;
+   /**
+    * Maximum number of charsets that the encoded contents are cached for
+    */
+   private static final int MaxCachedCharsets = 4;
+
+   private static final EncodedContents[] NoEncodedContents = new EncodedContents[0];
+
+   /**
+    * The contents encoded with the charsets used so far. The array is replaced,
+    * never modified, so it can be read without locking.
+    */
+   private volatile EncodedContents[] encoded = NoEncodedContents;
+
+   private static class EncodedContents {
+      final Charset charset;
+      final byte[] bytes;
+
+      EncodedContents(Charset charset, byte[] bytes) {
+         this.charset = charset;
+         this.bytes = bytes;
+      }
+   }
 
    public StaticFragment(String text) {
       contents = new StringBuffer(text);
@@ -38,7 +62,39 @@ public class StaticFragment implements AttributeFragment {
    }
 
    public void eval(ExpressionContext context, Writer out) throws IOException {
-      out.write(packedContents);
+      if (out instanceof ByteWriter) {
+         ByteWriter writer = (ByteWriter) out;
+         writer.writeBytes(getBytes(writer.getCharset()));
+      } else {
+         out.write(packedContents);
+      }
+   }
+
+   /**
+    * Returns the contents of this fragment encoded with the given charset. The
+    * encoded contents are cached for a few charsets, so the same static text is
+    * not encoded again on every render, even if the template is rendered with
+    * different charsets.
+    *
+    * @param charset Output charset
+    * @return Encoded contents
+    */
+   public byte[] getBytes(Charset charset) {
+      EncodedContents[] entries = encoded;
+      for (EncodedContents e : entries) {
+         if (e.charset == charset || e.charset.equals(charset)) {
+            return e.bytes;
+         }
+      }
+
+      byte[] bytes = toString().getBytes(charset);
+      if (entries.length < MaxCachedCharsets) {
+         EncodedContents[] newEntries = new EncodedContents[entries.length + 1];
+         System.arraycopy(entries, 0, newEntries, 0, entries.length);
+         newEntries[entries.length] = new EncodedContents(charset, bytes);
+         encoded = newEntries;
+      }
+      return bytes;
    }
 
    public void pack() {
@@ -19,6 +19,7 @@ import cambridge.behaviors.IfBehavior;
 import cambridge.runtime.ExpressionContext;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -58,6 +59,9 @@ public class TagNode extends TemplateNode implements Fragment, Tag, ModifyableTa
    protected boolean hidden;
    private boolean indented = true;
 
+   private StaticFragment openTag;
+   private StaticFragment closeTag;
+
    public TagNode() {
    }
 
@@ -644,7 +648,31 @@ public class TagNode extends TemplateNode implements Fragment, Tag, ModifyableTa
       }
    }
 
+   /**
+    * Renders the static parts of a dynamic tag, the open tag (when it contains no
+    * expressions) and the close tag, into static fragments once, so that
+    * they are not built again and can be written pre-encoded on every render.
+    */
    public void pack() {
+      if (!dynamic) {
+         return;
+      }
+
+      if (isStatic(tagParts)) {
+         StringWriter w = new StringWriter();
+         try {
+            writeOpenTag(null, w, tagParts);
+            openTag = new StaticFragment(w.toString());
+            openTag.pack();
+         } catch (IOException e) {
+            openTag = null;
+         }
+      }
+
+      if (!hidden && closeText != null) {
+         closeTag = new StaticFragment(closeText);
+         closeTag.pack();
+      }
    }
 
    public ArrayList<TagPart> getTagParts() {
@@ -728,6 +756,26 @@ public class TagNode extends TemplateNode implements Fragment, Tag, ModifyableTa
          tag = this;
       }
 
+      if (tag == this && openTag != null) {
+         openTag.eval(context, out);
+      } else {
+         writeOpenTag(context, out, tag.getTagParts());
+      }
+
+      if (tag.getFragments() != null) {
+         for (Fragment f : tag.getFragments()) {
+            f.eval(context, out);
+         }
+      }
+
+      if (closeTag != null) {
+         closeTag.eval(context, out);
+      } else if (!hidden && closeText != null) {
+         out.write(closeText);
+      }
+   }
+
+   private void writeOpenTag(ExpressionContext context, Writer out, ArrayList<TagPart> parts) throws IOException, TemplateEvaluationException {
       if (indented) {
          out.write(indent);
       }
@@ -739,9 +787,9 @@ public class TagNode extends TemplateNode implements Fragment, Tag, ModifyableTa
             out.write(":");
          }
          out.write(tagName);
-         if (tag.getTagParts() != null) {
+         if (parts != null) {
             boolean whiteSpace = false;
-            for (TagPart t : tag.getTagParts()) {
+            for (TagPart t : parts) {
                if (t instanceof ExpressionTagPart) {
                   ((ExpressionTagPart) t).eval(context, out);
                } else {
@@ -775,7 +823,7 @@ public class TagNode extends TemplateNode implements Fragment, Tag, ModifyableTa
 
                         for (AttributeFragment af : a.getFragments()) {
                            if (af instanceof StaticFragment) {
-                              out.write(((StaticFragment) af).contents.toString());
+                              out.write(af.toString());
                            } else if (af instanceof ExpressionNode) {
                               ExpressionNode ex = (ExpressionNode) af;
                               ex.eval(context, out);
@@ -795,16 +843,25 @@ public class TagNode extends TemplateNode implements Fragment, Tag, ModifyableTa
 
          out.write(tagEndText);
       }
+   }
 
-      if (tag.getFragments() != null) {
-         for (Fragment f : tag.getFragments()) {
-            f.eval(context, out);
+   private static boolean isStatic(ArrayList<TagPart> parts) {
+      if (parts != null) {
+         for (TagPart t : parts) {
+            if (t instanceof ExpressionTagPart) {
+               return false;
+            }
+            if (t instanceof ComplexAttribute) {
+               for (AttributeFragment af : ((ComplexAttribute) t).getFragments()) {
+                  if (!(af instanceof StaticFragment)) {
+                     return false;
+                  }
+               }
+            }
          }
       }
 
-      if (!hidden && closeText != null) {
-         out.write(closeText);
-      }
+      return true;
    }
 
    @Override
@@ -866,6 +923,14 @@ public class TagNode extends TemplateNode implements Fragment, Tag, ModifyableTa
       return this;
    }
 
+   LoopingTagBehavior getLooping() {
+      return looping;
+   }
+
+   boolean hasModifyingBehaviors() {
+      return modifyingBehaviors != null;
+   }
+
    public ConditionalTagBehavior getConditionalBehavior() {
       return conditionalBehavior;
    }
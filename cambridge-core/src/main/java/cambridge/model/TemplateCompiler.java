@@ -0,0 +1,405 @@
+package cambridge.model;
+
+import cambridge.LoopingTagBehavior;
+import cambridge.TemplateCompilationException;
+import cambridge.behaviors.ConditionalTagBehavior;
+import cambridge.runtime.JavaCompilationException;
+import cambridge.runtime.JavaSourceCompiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles a normalized template into a generated Java class.
+ *
+ * <p>The generated class is a single {@link Fragment} that writes the static text
+ * of the template as merged static fragments, evaluates the expressions through
+ * direct calls and turns conditional and looping tags into plain branches and
+ * calls to the looping behaviors. The tag flags like hidden or indented are resolved
+ * once at compile time instead of on every render.</p>
+ *
+ * <p>Fragments that can not be compiled, like tags with modifying behaviors or
+ * custom {@link TagNode} subclasses, are kept as they are and called from the
+ * generated code. If the system java compiler is not available, for instance when
+ * running on a JRE, {@link #compile(FragmentList)} returns the supplied fragments
+ * and the template is interpreted as usual. A template whose generated source can
+ * not be compiled is reported with a {@link TemplateCompilationException}.</p>
+ */
+public class TemplateCompiler {
+   private static final String PackageName = "cambridge.compiled";
+   private static final AtomicInteger counter = new AtomicInteger();
+
+   /**
+    * Maximum number of statements generated in one method. Keeps the generated
+    * methods small enough to be compiled and inlined by the JIT.
+    */
+   private static final int MaxStatementsPerMethod = 64;
+
+   private final String className;
+   private final StringBuilder fields = new StringBuilder();
+   private final StringBuilder init = new StringBuilder();
+   private final StringBuilder methods = new StringBuilder();
+   private final ArrayList<Object> resources = new ArrayList<Object>();
+   private final HashMap<Object, String> fieldNames = new HashMap<Object, String>();
+
+   private int methodCount;
+
+   private TemplateCompiler(String className) {
+      this.className = className;
+   }
+
+   /**
+    * Compiles the given fragments. The returned list contains a single compiled
+    * fragment, or is the supplied list itself if the system java compiler is not
+    * available.
+    *
+    * @param fragments Normalized template fragments
+    * @return Compiled fragments or the supplied fragments
+    * @throws TemplateCompilationException If the generated source could not be compiled
+    */
+   public static FragmentList compile(FragmentList fragments) {
+      if (!JavaSourceCompiler.isAvailable()) {
+         return fragments;
+      }
+
+      String className = "Template" + counter.incrementAndGet();
+      TemplateCompiler compiler = new TemplateCompiler(className);
+      String source = compiler.generate(fragments);
+
+      try {
+         Class<?> c = JavaSourceCompiler.compile(PackageName + "." + className, source, TemplateCompiler.class.getClassLoader(), null);
+         Fragment compiled = (Fragment) c.getConstructor(Object[].class).newInstance(new Object[]{compiler.resources.toArray()});
+
+         FragmentList list = new FragmentList(fragments.getExpressionLanguage());
+         list.add(compiled);
+         return list;
+      } catch (JavaCompilationException e) {
+         throw new TemplateCompilationException(e.getMessage(), e);
+      } catch (Exception e) {
+         throw new TemplateCompilationException("Could not create the compiled template " + className, e);
+      }
+   }
+
+   String generate(List<Fragment> fragments) {
+      ArrayList<String> statements = new ArrayList<String>();
+      StringBuilder text = new StringBuilder();
+      compileFragments(fragments, statements, text);
+      flush(statements, text);
+      String main = block(statements);
+
+      StringBuilder s = new StringBuilder();
+      s.append("package ").append(PackageName).append(";\n\n");
+      s.append("import cambridge.*;\n");
+      s.append("import cambridge.behaviors.*;\n");
+      s.append("import cambridge.model.*;\n");
+      s.append("import cambridge.runtime.ExpressionContext;\n");
+      s.append("import java.io.IOException;\n");
+      s.append("import java.io.Writer;\n\n");
+      s.append("public final class ").append(className).append(" implements Fragment {\n");
+      s.append(fields);
+      s.append("\n   public ").append(className).append("(Object[] r) {\n");
+      s.append(init);
+      s.append("   }\n\n");
+      s.append("   public void eval(ExpressionContext context, Writer out) throws IOException, TemplateEvaluationException {\n");
+      if (main != null) {
+         s.append("      ").append(main).append("(context, out);\n");
+      }
+      s.append("   }\n\n");
+      s.append("   public void pack() {\n   }\n");
+      s.append(methods);
+      s.append("}\n");
+
+      return s.toString();
+   }
+
+   private void compileFragments(List<Fragment> fragments, ArrayList<String> statements, StringBuilder text) {
+      if (fragments == null) {
+         return;
+      }
+
+      for (Fragment f : fragments) {
+         compileFragment(f, statements, text);
+      }
+   }
+
+   private void compileFragment(Fragment f, ArrayList<String> statements, StringBuilder text) {
+      if (f instanceof StaticFragment) {
+         text.append(f.toString());
+      } else if (f instanceof ExpressionNode) {
+         flush(statements, text);
+         statements.add(field(f, "ExpressionNode") + ".eval(context, out);");
+      } else if (f instanceof ExpressionTagPart) {
+         flush(statements, text);
+         statements.add(field(f, "ExpressionTagPart") + ".eval(context, out);");
+      } else if (f instanceof ConditionalBlock) {
+         flush(statements, text);
+         statements.add(compileConditionalBlock((ConditionalBlock) f) + "(context, out);");
+      } else if (f.getClass() == TagNode.class && !((TagNode) f).hasModifyingBehaviors()) {
+         TagNode tag = (TagNode) f;
+         if (tag.isDynamic()) {
+            flush(statements, text);
+            statements.add(compileTag(tag) + "(context, out);");
+         } else {
+            compileFragments(tag.getFragments(), statements, text);
+         }
+      } else {
+         flush(statements, text);
+         statements.add(field(f, "Fragment") + ".eval(context, out);");
+      }
+   }
+
+   private String compileConditionalBlock(ConditionalBlock block) {
+      StringBuilder b = new StringBuilder();
+      if (block.firstCondition != null) {
+         b.append("      try {\n");
+         appendBranch(b, block.firstCondition);
+         if (block.alternateConditions != null) {
+            for (ConditionalBlock.Condition c : block.alternateConditions) {
+               appendBranch(b, c);
+            }
+         }
+         if (block.defaultCondition != null) {
+            b.append("         ").append(call(block.defaultCondition)).append("\n");
+         }
+         b.append("      } catch (ExpressionEvaluationException e) {\n");
+         b.append("         e.printStackTrace();\n");
+         b.append("      }\n");
+      }
+
+      return method(b.toString());
+   }
+
+   private void appendBranch(StringBuilder b, ConditionalBlock.Condition c) {
+      b.append("         if (").append(field(c.expression, "cambridge.model.Expression")).append(".asBoolean(context)) {\n");
+      b.append("            ").append(call(c.tag)).append("\n");
+      b.append("            return;\n");
+      b.append("         }\n");
+   }
+
+   /**
+    * Compiles a single fragment as one statement.
+    */
+   private String call(Fragment f) {
+      ArrayList<String> statements = new ArrayList<String>();
+      StringBuilder text = new StringBuilder();
+      compileFragment(f, statements, text);
+      flush(statements, text);
+      if (statements.size() == 0) {
+         return "";
+      }
+      if (statements.size() == 1) {
+         return statements.get(0);
+      }
+      return block(statements) + "(context, out);";
+   }
+
+   private String compileTag(TagNode tag) {
+      String body = compileTagBody(tag);
+      LoopingTagBehavior looping = tag.getLooping();
+      ConditionalTagBehavior conditional = tag.getConditionalBehavior();
+
+      StringBuilder b = new StringBuilder();
+      if (conditional != null) {
+         b.append("      try {\n");
+         b.append("         if (!").append(field(conditional, "ConditionalTagBehavior")).append(".conditionMet(context)) {\n");
+         b.append("            return;\n");
+         b.append("         }\n");
+         b.append("      } catch (ExpressionEvaluationException e) {\n");
+         b.append("         throw new TemplateEvaluationException(e, \"Could not execute the expression: \" + e.getMessage() + \"")
+            .append(", on line: ").append(tag.getBeginLine()).append(", column: ").append(tag.getBeginColumn()).append("\", ")
+            .append(tag.getBeginLine()).append(", ").append(tag.getBeginColumn()).append(", ").append(JavaSourceCompiler.literal(tag.getTagName())).append(");\n");
+         b.append("      }\n");
+      }
+
+      if (looping == null) {
+         if (body != null) {
+            b.append("      ").append(body).append("(context, out);\n");
+         }
+      } else {
+         b.append("      ").append(field(looping, "LoopingTagBehavior")).append(".execute(context, ").append(loopBody(tag, body)).append(", out);\n");
+      }
+
+      return method(b.toString());
+   }
+
+   /**
+    * Generates the equivalent of {@link TagNode#execute} for the given tag.
+    */
+   private String compileTagBody(TagNode tag) {
+      ArrayList<String> statements = new ArrayList<String>();
+      StringBuilder text = new StringBuilder();
+
+      if (tag.isIndented()) {
+         text.append(tag.getIndent());
+      }
+
+      if (!tag.isHidden()) {
+         text.append("<");
+         if (tag.getNameSpace() != null) {
+            text.append(tag.getNameSpace()).append(":");
+         }
+         text.append(tag.getTagName());
+
+         if (tag.getTagParts() != null) {
+            boolean whiteSpace = false;
+            for (TagPart t : tag.getTagParts()) {
+               if (t instanceof ExpressionTagPart) {
+                  compileFragment((ExpressionTagPart) t, statements, text);
+               } else {
+                  if (t.preserveWhitespace()) {
+                     if (!t.isWhiteSpace()) {
+                        if (!whiteSpace) {
+                           text.append(" ");
+                        }
+                        whiteSpace = false;
+                     } else {
+                        whiteSpace = true;
+                     }
+                  }
+
+                  if (t instanceof Attribute) {
+                     if (t instanceof SimpleAttribute) {
+                        text.append(t.getTextContent());
+                     } else if (t instanceof ComplexAttribute) {
+                        ComplexAttribute a = (ComplexAttribute) t;
+                        if (a.attributeNameSpace != null) {
+                           text.append(a.attributeNameSpace).append(":");
+                        }
+
+                        text.append(a.attributeName).append("=");
+                        char q = a.getQuote();
+                        if (q != 0) {
+                           text.append(q);
+                        }
+
+                        for (AttributeFragment af : a.getFragments()) {
+                           if (af instanceof StaticFragment || af instanceof ExpressionNode) {
+                              compileFragment(af, statements, text);
+                           }
+                        }
+
+                        if (q != 0) {
+                           text.append(q);
+                        }
+                     }
+                  } else {
+                     text.append(t.getTextContent());
+                  }
+               }
+            }
+         }
+
+         text.append(tag.getTagEndText());
+      }
+
+      compileFragments(tag.getFragments(), statements, text);
+
+      if (!tag.isHidden() && tag.getCloseText() != null) {
+         text.append(tag.getCloseText());
+      }
+
+      flush(statements, text);
+      return block(statements);
+   }
+
+   /**
+    * Looping behaviors call {@link TagNode#execute} for each iteration, so
+    * the compiled body is passed to them as a TagNode subclass.
+    */
+   private String loopBody(TagNode tag, String body) {
+      String name = "b" + resources.size();
+      resources.add(null);
+      String bodyClass = "Body" + name;
+
+      StringBuilder b = new StringBuilder();
+      b.append("\n   final class ").append(bodyClass).append(" extends TagNode {\n");
+      b.append("      public void execute(ExpressionContext context, Writer out) throws IOException, TemplateEvaluationException {\n");
+      if (body != null) {
+         b.append("         ").append(body).append("(context, out);\n");
+      }
+      b.append("      }\n");
+      b.append("   }\n");
+      methods.append(b);
+
+      fields.append("   private final ").append(bodyClass).append(" ").append(name).append(";\n");
+      init.append("      ").append(name).append(" = new ").append(bodyClass).append("();\n");
+      init.append("      ").append(name).append(".setTagName(").append(JavaSourceCompiler.literal(tag.getTagName())).append(");\n");
+      if (tag.getNameSpace() != null) {
+         init.append("      ").append(name).append(".setNameSpace(").append(JavaSourceCompiler.literal(tag.getNameSpace())).append(");\n");
+      }
+      init.append("      ").append(name).append(".setBeginLine(").append(tag.getBeginLine()).append(");\n");
+      init.append("      ").append(name).append(".setBeginColumn(").append(tag.getBeginColumn()).append(");\n");
+
+      return name;
+   }
+
+   private void flush(ArrayList<String> statements, StringBuilder text) {
+      if (text.length() == 0) {
+         return;
+      }
+
+      StaticFragment f = new StaticFragment(text.toString());
+      f.pack();
+      text.setLength(0);
+
+      statements.add(field(f, "StaticFragment") + ".eval(context, out);");
+   }
+
+   /**
+    * Writes the statements into one or more chained methods and returns the
+    * name of the first method, or null if there are no statements.
+    */
+   private String block(List<String> statements) {
+      if (statements.size() == 0) {
+         return null;
+      }
+
+      int chunks = (statements.size() + MaxStatementsPerMethod - 1) / MaxStatementsPerMethod;
+      String[] names = new String[chunks];
+      for (int i = 0; i < chunks; i++) {
+         names[i] = "m" + methodCount++;
+      }
+
+      for (int i = 0; i < chunks; i++) {
+         StringBuilder b = new StringBuilder();
+         int end = Math.min(statements.size(), (i + 1) * MaxStatementsPerMethod);
+         for (int j = i * MaxStatementsPerMethod; j < end; j++) {
+            b.append("      ").append(statements.get(j)).append("\n");
+         }
+         if (i + 1 < chunks) {
+            b.append("      ").append(names[i + 1]).append("(context, out);\n");
+         }
+         appendMethod(names[i], b.toString());
+      }
+
+      return names[0];
+   }
+
+   private String method(String body) {
+      String name = "m" + methodCount++;
+      appendMethod(name, body);
+      return name;
+   }
+
+   private void appendMethod(String name, String body) {
+      methods.append("\n   final void ").append(name).append("(ExpressionContext context, Writer out) throws IOException, TemplateEvaluationException {\n");
+      methods.append(body);
+      methods.append("   }\n");
+   }
+
+   private String field(Object o, String type) {
+      String name = fieldNames.get(o);
+      if (name == null) {
+         int index = resources.size();
+         name = "r" + index;
+         resources.add(o);
+         fieldNames.put(o, name);
+         fields.append("   private final ").append(type).append(" ").append(name).append(";\n");
+         init.append("      ").append(name).append(" = (").append(type).append(") r[").append(index).append("];\n");
+      }
+
+      return name;
+   }
+}
@@ -0,0 +1,83 @@
+package cambridge.parser;
+
+import cambridge.model.Expression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread safe cache of parsed expressions keyed by their source text.
+ * When the cache is full the least recently used expression is evicted.
+ *
+ * <p>Expression languages use this cache to parse each distinct expression once,
+ * no matter how many templates or template factories contain it. The cached
+ * expressions are not evaluated, a language that keeps state in its expressions,
+ * like inline caches, hands out a copy of the cached expression.</p>
+ */
+public class ExpressionCache {
+   public static final int DefaultMaxSize = 4096;
+
+   private final int maxSize;
+   private final LinkedHashMap<String, Expression> expressions;
+
+   public ExpressionCache() {
+      this(DefaultMaxSize);
+   }
+
+   /**
+    * @param maxSize Maximum number of expressions to keep, 0 disables caching
+    */
+   public ExpressionCache(int maxSize) {
+      if (maxSize < 0) {
+         throw new IllegalArgumentException("Invalid cache size " + maxSize);
+      }
+
+      this.maxSize = maxSize;
+      expressions = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+            return size() > ExpressionCache.this.maxSize;
+         }
+      };
+   }
+
+   public int getMaxSize() {
+      return maxSize;
+   }
+
+   /**
+    * @param source Expression source
+    * @return The cached expression or null if the source is not in the cache
+    */
+   public Expression get(String source) {
+      if (maxSize == 0) {
+         return null;
+      }
+
+      synchronized (expressions) {
+         return expressions.get(source);
+      }
+   }
+
+   public void put(String source, Expression expression) {
+      if (maxSize == 0) {
+         return;
+      }
+
+      synchronized (expressions) {
+         expressions.put(source, expression);
+      }
+   }
+
+   public int size() {
+      synchronized (expressions) {
+         return expressions.size();
+      }
+   }
+
+   public void clear() {
+      synchronized (expressions) {
+         expressions.clear();
+      }
+   }
+}
@@ -274,7 +274,7 @@ public class TemplateTokenizer extends Tokenizer {
             c = nextChar();
          }
 
-         if (filter.length() != 0 && filters.size() == 0) {
+         if (filter.length() != 0) {
             filters.add(filter.toString());
          }
 
@@ -0,0 +1,408 @@
+package cambridge.parser.expressions;
+
+import cambridge.runtime.ExpressionContext;
+import cambridge.runtime.LoopFrame;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An ExpressionContext that keeps the variables in an array indexed by the
+ * slots assigned by {@link VariableSlots}. Cambridge expressions resolve the
+ * slots of the variables they use when they are parsed, and access the
+ * variables by index instead of looking them up by name.
+ *
+ * <p>The variables can still be accessed by name. Names that were not given a
+ * slot by a template are kept in a map, the context never assigns new slots
+ * itself. The array only grows up to the highest slot that is set during the
+ * render. The map returned by {@link #asMap()} is a live view of the context
+ * for the expression languages that need a Map.</p>
+ */
+public class ArrayExpressionContext implements ExpressionContext
+{
+    /**
+     * Marks a variable that is defined with a null value
+     */
+    private static final Object Null = new Object();
+
+    private static final Object[] NoValues = new Object[0];
+
+    private final Locale locale;
+    private Object[] values;
+    private HashMap<String, Object> overflow;
+    private Map<String, Object> map;
+    private LoopFrame rootFrame;
+    private LoopFrame loopFrame;
+
+    public ArrayExpressionContext()
+    {
+        this(null);
+    }
+
+    public ArrayExpressionContext(Locale locale)
+    {
+        this.locale = locale;
+        values = NoValues;
+    }
+
+    public Object get(int slot)
+    {
+        Object value = slot < values.length ? values[slot] : null;
+        if (value == null)
+        {
+            // The variable may have been put before its name got a slot
+            return overflow == null ? null : overflow.get(VariableSlots.getName(slot));
+        }
+
+        return value == Null ? null : value;
+    }
+
+    public Object put(int slot, Object value)
+    {
+        if (slot >= values.length)
+        {
+            Object[] v = new Object[Math.max(slot + 1, Math.min(Math.max(8, values.length * 2), VariableSlots.size()))];
+            System.arraycopy(values, 0, v, 0, values.length);
+            values = v;
+        }
+
+        Object old = values[slot];
+        values[slot] = value == null ? Null : value;
+        if (old == null)
+        {
+            return overflow == null ? null : overflow.remove(VariableSlots.getName(slot));
+        }
+
+        return old == Null ? null : old;
+    }
+
+    public Object remove(int slot)
+    {
+        Object old = slot < values.length ? values[slot] : null;
+        if (old == null)
+        {
+            return overflow == null ? null : overflow.remove(VariableSlots.getName(slot));
+        }
+
+        values[slot] = null;
+        return old == Null ? null : old;
+    }
+
+    public boolean has(int slot)
+    {
+        if (slot < values.length && values[slot] != null)
+        {
+            return true;
+        }
+
+        return overflow != null && overflow.containsKey(VariableSlots.getName(slot));
+    }
+
+    /**
+     * Enters a new loop, returning the frame of the loop. The frames are reused
+     * by the loops at the same depth.
+     *
+     * @return Frame of the new loop
+     */
+    public LoopFrame enterLoop()
+    {
+        if (loopFrame != null)
+        {
+            loopFrame = loopFrame.getInner();
+        }
+        else
+        {
+            if (rootFrame == null)
+            {
+                rootFrame = new LoopFrame();
+            }
+            loopFrame = rootFrame;
+        }
+
+        return loopFrame;
+    }
+
+    /**
+     * Exits the current loop
+     */
+    public void exitLoop()
+    {
+        loopFrame = loopFrame.getOuter();
+    }
+
+    /**
+     * @return Frame of the loop that is being executed, null if there is none
+     */
+    public LoopFrame getLoopFrame()
+    {
+        return loopFrame;
+    }
+
+    @Override
+    public Object get(String name)
+    {
+        int slot = VariableSlots.findSlot(name);
+        if (slot != -1)
+        {
+            return get(slot);
+        }
+
+        return overflow == null ? null : overflow.get(name);
+    }
+
+    @Override
+    public Object put(String name, Object value)
+    {
+        int slot = VariableSlots.findSlot(name);
+        if (slot != -1)
+        {
+            return put(slot, value);
+        }
+
+        if (overflow == null)
+        {
+            overflow = new HashMap<String, Object>();
+        }
+
+        return overflow.put(name, value);
+    }
+
+    @Override
+    public Object remove(String name)
+    {
+        int slot = VariableSlots.findSlot(name);
+        if (slot != -1)
+        {
+            return remove(slot);
+        }
+
+        return overflow == null ? null : overflow.remove(name);
+    }
+
+    @Override
+    public void setVariables(Map<String, Object> variables)
+    {
+        for (Map.Entry<String, Object> e : variables.entrySet())
+        {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        return locale;
+    }
+
+    @Override
+    public boolean has(String name)
+    {
+        int slot = VariableSlots.findSlot(name);
+        if (slot != -1)
+        {
+            return has(slot);
+        }
+
+        return overflow != null && overflow.containsKey(name);
+    }
+
+    @Override
+    public Map<String, Object> asMap()
+    {
+        if (map == null)
+        {
+            map = new MapView();
+        }
+
+        return map;
+    }
+
+    private class MapView extends AbstractMap<String, Object>
+    {
+        private final Set<Map.Entry<String, Object>> entrySet = new AbstractSet<Map.Entry<String, Object>>()
+        {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size()
+            {
+                int size = overflow == null ? 0 : overflow.size();
+                for (Object value : values)
+                {
+                    if (value != null)
+                    {
+                        size++;
+                    }
+                }
+                return size;
+            }
+        };
+
+        @Override
+        public Object get(Object key)
+        {
+            return key instanceof String ? ArrayExpressionContext.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return key instanceof String && has((String) key);
+        }
+
+        @Override
+        public Object put(String key, Object value)
+        {
+            return ArrayExpressionContext.this.put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key)
+        {
+            return key instanceof String ? ArrayExpressionContext.this.remove((String) key) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet()
+        {
+            return entrySet;
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>>
+    {
+        private int next = -1;
+        private int current = -1;
+        private Iterator<Map.Entry<String, Object>> overflowIterator;
+
+        EntryIterator()
+        {
+            advance();
+        }
+
+        private void advance()
+        {
+            do
+            {
+                next++;
+            }
+            while (next < values.length && values[next] == null);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (next < values.length)
+            {
+                return true;
+            }
+
+            if (overflowIterator == null && overflow != null)
+            {
+                overflowIterator = overflow.entrySet().iterator();
+            }
+
+            return overflowIterator != null && overflowIterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            if (next < values.length)
+            {
+                current = next;
+                advance();
+                return new SlotEntry(current);
+            }
+
+            current = -1;
+            return overflowIterator.next();
+        }
+
+        @Override
+        public void remove()
+        {
+            if (current != -1)
+            {
+                values[current] = null;
+                current = -1;
+            }
+            else if (overflowIterator != null)
+            {
+                overflowIterator.remove();
+            }
+            else
+            {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private class SlotEntry implements Map.Entry<String, Object>
+    {
+        private final int slot;
+
+        SlotEntry(int slot)
+        {
+            this.slot = slot;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return VariableSlots.getName(slot);
+        }
+
+        @Override
+        public Object getValue()
+        {
+            return get(slot);
+        }
+
+        @Override
+        public Object setValue(Object value)
+        {
+            return put(slot, value);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+            {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object value = getValue();
+            return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -6,85 +6,195 @@ import cambridge.runtime.ExpressionContext;
 
 /**
  * An CambridgeExpression with two operands
+ *
+ * <p>The operands of the arithmetic operators are evaluated only once. The types
+ * of literals and of the expressions built from them are resolved when the
+ * expression is created, other operands are evaluated to objects and their types
+ * are determined from the values. The operations are then carried out on
+ * primitive values.</p>
  */
 public class BooleanExpression implements CambridgeExpression {
    private final Operator operator;
    private final CambridgeExpression left;
    private final CambridgeExpression right;
 
+   /**
+    * Types of the operands that can be determined without evaluating them,
+    * null if the type depends on the value
+    */
+   private final Type leftType;
+   private final Type rightType;
+
+   /**
+    * Type of this expression if it can be determined without evaluating it
+    */
+   private final Type staticType;
+
    public BooleanExpression(Operator operator, CambridgeExpression left, CambridgeExpression right) {
       this.operator = operator;
       this.left = left;
       this.right = right;
+
+      leftType = staticTypeOf(left);
+      rightType = staticTypeOf(right);
+
+      if (!isArithmetic()) {
+         staticType = operatorType();
+      } else if (leftType != null && rightType != null) {
+         staticType = arithmeticType(leftType, rightType);
+      } else {
+         staticType = null;
+      }
    }
 
-   public Type getType(ExpressionContext context) throws ExpressionEvaluationException {
+   BooleanExpression copy() {
+      return new BooleanExpression(operator, CambridgeExpressionLanguage.copy(left), CambridgeExpressionLanguage.copy(right));
+   }
+
+   Operator getOperator() {
+      return operator;
+   }
+
+   CambridgeExpression getLeft() {
+      return left;
+   }
+
+   CambridgeExpression getRight() {
+      return right;
+   }
+
+   /**
+    * @param e An expression
+    * @return The type of the expression if it can be determined without evaluating it
+    */
+   static Type staticTypeOf(CambridgeExpression e) {
+      if (e instanceof BooleanExpression) {
+         return ((BooleanExpression) e).staticType;
+      }
+      if (e instanceof IntLiteral) {
+         return Type.Int;
+      }
+      if (e instanceof LongLiteral) {
+         return Type.Long;
+      }
+      if (e instanceof FloatLiteral) {
+         return Type.Float;
+      }
+      if (e instanceof DoubleLiteral) {
+         return Type.Double;
+      }
+      if (e instanceof StringLiteral) {
+         return Type.String;
+      }
+      if (e instanceof BooleanLiteral) {
+         return Type.Boolean;
+      }
+      if (e instanceof NullLiteral) {
+         return Type.Null;
+      }
+      if (e instanceof ListExpression || e instanceof MapExpression) {
+         return Type.Object;
+      }
+      if (e instanceof UnaryExpression) {
+         try {
+            // The type of an unary expression only depends on its operator
+            return e.getType(null);
+         } catch (ExpressionEvaluationException ex) {
+            return null;
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * @return true if the expression is a literal
+    */
+   static boolean isLiteral(CambridgeExpression e) {
+      return e instanceof IntLiteral || e instanceof LongLiteral || e instanceof FloatLiteral
+         || e instanceof DoubleLiteral || e instanceof StringLiteral || e instanceof BooleanLiteral
+         || e instanceof NullLiteral;
+   }
+
+   private static Type typeOf(Object o) {
+      if (o instanceof Boolean) {
+         return Type.Boolean;
+      }
+      if (o instanceof Integer) {
+         return Type.Int;
+      }
+      if (o instanceof Long) {
+         return Type.Long;
+      }
+      if (o instanceof Float) {
+         return Type.Float;
+      }
+      if (o instanceof Double) {
+         return Type.Double;
+      }
+      if (o instanceof String) {
+         return Type.String;
+      }
+      return o == null ? Type.Null : Type.Object;
+   }
+
+   boolean isArithmetic() {
+      return operator == Operator.Plus || operator == Operator.Minus || operator == Operator.Times || operator == Operator.Divide;
+   }
+
+   private Type operatorType() {
       switch (operator) {
-         case And:
-            return Type.Int;
          case ConditionalAnd:
-            return Type.Boolean;
          case ConditionalOr:
-            return Type.Boolean;
          case Equal:
-            return Type.Boolean;
+         case NotEqual:
          case GT:
-            return Type.Boolean;
          case GTE:
-            return Type.Boolean;
          case LT:
-            return Type.Boolean;
          case LTE:
+         case Not:
             return Type.Boolean;
          case Mod:
             return Type.Double;
-         case Not:
-            return Type.Boolean;
-         case NotEqual:
-            return Type.Boolean;
+         case And:
          case Or:
-            return Type.Int;
+         case XOr:
          case SHIFT_LEFT:
-            return Type.Int;
          case SHIFT_RIGHT:
-            return Type.Int;
-         case Tilde:
-            return Type.Int;
          case U_SHIFT_RIGHT:
+         case Tilde:
             return Type.Int;
-         case XOr:
-            return Type.Int;
-         case Divide:
-         case Minus:
-         case Times:
-            Type lt = left.getType(context);
-            Type rt = right.getType(context);
-            if (lt == Type.Double || rt == Type.Double) {
-               return Type.Double;
-            }
-            if (lt == Type.Float || rt == Type.Float) {
-               return Type.Float;
-            }
-            return Type.Int;
-         case Plus:
-            lt = left.getType(context);
-            rt = right.getType(context);
-            if (lt == Type.String || rt == Type.String) {
-               return Type.String;
-            }
-            if (lt == Type.Double || rt == Type.Double) {
-               return Type.Double;
-            }
-            if (lt == Type.Float || rt == Type.Float) {
-               return Type.Float;
-            }
-            return Type.Int;
-
       }
 
       return Type.Null;
    }
 
+   Type arithmeticType(Type lt, Type rt) {
+      if (operator == Operator.Plus && (lt == Type.String || rt == Type.String)) {
+         return Type.String;
+      }
+      if (lt == Type.Double || rt == Type.Double) {
+         return Type.Double;
+      }
+      if (lt == Type.Float || rt == Type.Float) {
+         return Type.Float;
+      }
+      if (lt == Type.Long || rt == Type.Long) {
+         return Type.Long;
+      }
+      return Type.Int;
+   }
+
+   public Type getType(ExpressionContext context) throws ExpressionEvaluationException {
+      if (staticType != null) {
+         return staticType;
+      }
+
+      Type lt = leftType == null ? left.getType(context) : leftType;
+      Type rt = rightType == null ? right.getType(context) : rightType;
+      return arithmeticType(lt, rt);
+   }
+
    public Object eval(ExpressionContext context) throws ExpressionEvaluationException {
       switch (operator) {
          case And:
@@ -94,7 +204,7 @@ public class BooleanExpression implements CambridgeExpression {
          case ConditionalOr:
             return left.asBoolean(context) || right.asBoolean(context);
          case Equal:
-            return left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context));
+            return areEqual(context);
          case GT:
             return left.asDouble(context) > right.asDouble(context);
          case GTE:
@@ -106,7 +216,7 @@ public class BooleanExpression implements CambridgeExpression {
          case Mod:
             return left.asDouble(context) % right.asDouble(context);
          case NotEqual:
-            return !(left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context)));
+            return !areEqual(context);
          case Or:
             return left.asInt(context) | right.asInt(context);
          case SHIFT_LEFT:
@@ -114,48 +224,14 @@ public class BooleanExpression implements CambridgeExpression {
          case SHIFT_RIGHT:
             return left.asInt(context) >> right.asInt(context);
          case U_SHIFT_RIGHT:
-            return left.asInt(context) >> right.asInt(context);
+            return left.asInt(context) >>> right.asInt(context);
          case XOr:
             return left.asInt(context) ^ right.asInt(context);
          case Plus:
-            Type t = getType(context);
-            if (t == Type.String) {
-               return left.asString(context) + right.asString(context);
-            }
-            if (t == Type.Double) {
-               return left.asDouble(context) + right.asDouble(context);
-            }
-            if (t == Type.Float) {
-               return left.asFloat(context) + right.asFloat(context);
-            }
-            return left.asInt(context) + right.asInt(context);
          case Minus:
-            t = getType(context);
-            if (t == Type.Double) {
-               return left.asDouble(context) - right.asDouble(context);
-            }
-            if (t == Type.Float) {
-               return left.asFloat(context) - right.asFloat(context);
-            }
-            return left.asInt(context) - right.asInt(context);
          case Divide:
-            t = getType(context);
-            if (t == Type.Double) {
-               return left.asDouble(context) / right.asDouble(context);
-            }
-            if (t == Type.Float) {
-               return left.asFloat(context) / right.asFloat(context);
-            }
-            return left.asInt(context) / right.asInt(context);
          case Times:
-            t = getType(context);
-            if (t == Type.Double) {
-               return left.asDouble(context) * right.asDouble(context);
-            }
-            if (t == Type.Float) {
-               return left.asFloat(context) * right.asFloat(context);
-            }
-            return left.asInt(context) * right.asInt(context);
+            return arithmetic(leftValue(context), rightValue(context), context);
       }
 
       return null;
@@ -190,58 +266,44 @@ public class BooleanExpression implements CambridgeExpression {
          case SHIFT_RIGHT:
             return (left.asInt(context) >> right.asInt(context)) != 0;
          case U_SHIFT_RIGHT:
-            return (left.asInt(context) >> right.asInt(context)) != 0;
+            return (left.asInt(context) >>> right.asInt(context)) != 0;
          case XOr:
             return (left.asInt(context) ^ right.asInt(context)) != 0;
          case Plus:
-            Type t = getType(context);
-            if (t == Type.String) {
-               return !(left.asString(context) + right.asString(context)).equals("");
-            }
-            if (t == Type.Double) {
-               return (left.asDouble(context) + right.asDouble(context)) != 0;
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) + right.asFloat(context)) != 0;
-            }
-            return (left.asInt(context) + right.asInt(context)) != 0;
          case Minus:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (left.asDouble(context) - right.asDouble(context)) != 0;
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) - right.asFloat(context)) != 0;
-            }
-            return (left.asInt(context) - right.asInt(context)) != 0;
          case Divide:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (left.asDouble(context) / right.asDouble(context)) != 0;
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) / right.asFloat(context)) != 0;
-            }
-            return (left.asInt(context) / right.asInt(context)) != 0;
          case Times:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (left.asDouble(context) * right.asDouble(context)) != 0;
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) * right.asFloat(context)) != 0;
-            }
-            return (left.asInt(context) * right.asInt(context)) != 0;
+            return arithmeticAsBoolean(leftValue(context), rightValue(context), context);
       }
 
       return false;
    }
 
+   /**
+    * Numbers of different classes are compared by their values, other objects
+    * with equals
+    */
    private boolean areEqual(ExpressionContext context) throws ExpressionEvaluationException {
-      Object l = left.eval(context);
-      Object r = right.eval(context);
+      return areEqual(left.eval(context), right.eval(context));
+   }
 
-      return l == null && r == null || !(l == null || r == null) && l.equals(r);
+   static boolean areEqual(Object l, Object r) {
+      if (l == null || r == null) {
+         return l == r;
+      }
+
+      if (l instanceof Number && r instanceof Number && l.getClass() != r.getClass()) {
+         Type lt = typeOf(l);
+         Type rt = typeOf(r);
+         if ((lt == Type.Int || lt == Type.Long) && (rt == Type.Int || rt == Type.Long)) {
+            return ((Number) l).longValue() == ((Number) r).longValue();
+         }
+         if (lt != Type.Object && rt != Type.Object) {
+            return ((Number) l).doubleValue() == ((Number) r).doubleValue();
+         }
+      }
+
+      return l.equals(r);
    }
 
    public int asInt(ExpressionContext context) throws ExpressionEvaluationException {
@@ -253,7 +315,7 @@ public class BooleanExpression implements CambridgeExpression {
          case ConditionalOr:
             return (left.asBoolean(context) || right.asBoolean(context)) ? 1 : 0;
          case Equal:
-            return (left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context))) ? 1 : 0;
+            return areEqual(context) ? 1 : 0;
          case GT:
             return (left.asDouble(context) > right.asDouble(context)) ? 1 : 0;
          case GTE:
@@ -265,7 +327,7 @@ public class BooleanExpression implements CambridgeExpression {
          case Mod:
             return (int) (left.asDouble(context) % right.asDouble(context));
          case NotEqual:
-            return (left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context))) ? 0 : 1;
+            return areEqual(context) ? 0 : 1;
          case Or:
             return left.asInt(context) | right.asInt(context);
          case SHIFT_LEFT:
@@ -273,48 +335,14 @@ public class BooleanExpression implements CambridgeExpression {
          case SHIFT_RIGHT:
             return left.asInt(context) >> right.asInt(context);
          case U_SHIFT_RIGHT:
-            return left.asInt(context) >> right.asInt(context);
+            return left.asInt(context) >>> right.asInt(context);
          case XOr:
             return left.asInt(context) ^ right.asInt(context);
          case Plus:
-            Type t = getType(context);
-            if (t == Type.String) {
-               return Integer.parseInt(left.asString(context) + right.asString(context));
-            }
-            if (t == Type.Double) {
-               return (int) (left.asDouble(context) + right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (int) (left.asFloat(context) + right.asFloat(context));
-            }
-            return left.asInt(context) + right.asInt(context);
          case Minus:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (int) (left.asDouble(context) - right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (int) (left.asFloat(context) - right.asFloat(context));
-            }
-            return left.asInt(context) - right.asInt(context);
          case Divide:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (int) (left.asDouble(context) / right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (int) (left.asFloat(context) / right.asFloat(context));
-            }
-            return left.asInt(context) / right.asInt(context);
          case Times:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (int) (left.asDouble(context) * right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (int) (left.asFloat(context) * right.asFloat(context));
-            }
-            return left.asInt(context) * right.asInt(context);
+            return arithmeticAsInt(leftValue(context), rightValue(context), context);
       }
 
       return 0;
@@ -322,304 +350,229 @@ public class BooleanExpression implements CambridgeExpression {
 
    public float asFloat(ExpressionContext context) throws ExpressionEvaluationException {
       switch (operator) {
-         case And:
-            return left.asInt(context) & right.asInt(context);
-         case ConditionalAnd:
-            return (left.asBoolean(context) && right.asBoolean(context)) ? 1 : 0;
-         case ConditionalOr:
-            return (left.asBoolean(context) || right.asBoolean(context)) ? 1 : 0;
-         case Equal:
-            return (left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context))) ? 1 : 0;
-         case GT:
-            return (left.asDouble(context) > right.asDouble(context)) ? 1 : 0;
-         case GTE:
-            return (left.asDouble(context) >= right.asDouble(context)) ? 1 : 0;
-         case LT:
-            return (left.asDouble(context) < right.asDouble(context)) ? 1 : 0;
-         case LTE:
-            return (left.asDouble(context) <= right.asDouble(context)) ? 1 : 0;
          case Mod:
             return (float) (left.asDouble(context) % right.asDouble(context));
-         case NotEqual:
-            return (left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context))) ? 0 : 1;
-         case Or:
-            return left.asInt(context) | right.asInt(context);
-         case SHIFT_LEFT:
-            return left.asInt(context) << right.asInt(context);
-         case SHIFT_RIGHT:
-            return left.asInt(context) >> right.asInt(context);
-         case U_SHIFT_RIGHT:
-            return left.asInt(context) >> right.asInt(context);
-         case XOr:
-            return left.asInt(context) ^ right.asInt(context);
          case Plus:
-            Type t = getType(context);
-            if (t == Type.String) {
-               return Integer.parseInt(left.asString(context) + right.asString(context));
-            }
-            if (t == Type.Double) {
-               return (float) (left.asDouble(context) + right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) + right.asFloat(context));
-            }
-            return left.asInt(context) + right.asInt(context);
          case Minus:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (float) (left.asDouble(context) - right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) - right.asFloat(context));
-            }
-            return left.asInt(context) - right.asInt(context);
          case Divide:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (float) (left.asDouble(context) / right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) / right.asFloat(context));
-            }
-            return left.asInt(context) / right.asInt(context);
          case Times:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (float) (left.asDouble(context) * right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) * right.asFloat(context));
-            }
-            return left.asInt(context) * right.asInt(context);
+            return (float) arithmeticAsDouble(leftValue(context), rightValue(context), context);
       }
 
-      return 0;
+      return asInt(context);
    }
 
    public double asDouble(ExpressionContext context) throws ExpressionEvaluationException {
       switch (operator) {
-         case And:
-            return left.asInt(context) & right.asInt(context);
-         case ConditionalAnd:
-            return (left.asBoolean(context) && right.asBoolean(context)) ? 1 : 0;
-         case ConditionalOr:
-            return (left.asBoolean(context) || right.asBoolean(context)) ? 1 : 0;
-         case Equal:
-            return (left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context))) ? 1 : 0;
-         case GT:
-            return (left.asDouble(context) > right.asDouble(context)) ? 1 : 0;
-         case GTE:
-            return (left.asDouble(context) >= right.asDouble(context)) ? 1 : 0;
-         case LT:
-            return (left.asDouble(context) < right.asDouble(context)) ? 1 : 0;
-         case LTE:
-            return (left.asDouble(context) <= right.asDouble(context)) ? 1 : 0;
          case Mod:
             return left.asDouble(context) % right.asDouble(context);
-         case NotEqual:
-            return (left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context))) ? 0 : 1;
-         case Or:
-            return left.asInt(context) | right.asInt(context);
-         case SHIFT_LEFT:
-            return left.asInt(context) << right.asInt(context);
-         case SHIFT_RIGHT:
-            return left.asInt(context) >> right.asInt(context);
-         case U_SHIFT_RIGHT:
-            return left.asInt(context) >> right.asInt(context);
-         case XOr:
-            return left.asInt(context) ^ right.asInt(context);
          case Plus:
-            Type t = getType(context);
-            if (t == Type.String) {
-               return Integer.parseInt(left.asString(context) + right.asString(context));
-            }
-            if (t == Type.Double) {
-               return (left.asDouble(context) + right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) + right.asFloat(context));
-            }
-            return left.asInt(context) + right.asInt(context);
          case Minus:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (left.asDouble(context) - right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) - right.asFloat(context));
-            }
-            return left.asInt(context) - right.asInt(context);
          case Divide:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (left.asDouble(context) / right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) / right.asFloat(context));
-            }
-            return left.asInt(context) / right.asInt(context);
          case Times:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (left.asDouble(context) * right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (left.asFloat(context) * right.asFloat(context));
-            }
-            return left.asInt(context) * right.asInt(context);
+            return arithmeticAsDouble(leftValue(context), rightValue(context), context);
       }
 
-      return 0;
+      return asInt(context);
    }
 
    public long asLong(ExpressionContext context) throws ExpressionEvaluationException {
       switch (operator) {
-         case And:
-            return left.asInt(context) & right.asInt(context);
-         case ConditionalAnd:
-            return (left.asBoolean(context) && right.asBoolean(context)) ? 1 : 0;
-         case ConditionalOr:
-            return (left.asBoolean(context) || right.asBoolean(context)) ? 1 : 0;
-         case Equal:
-            return (left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context))) ? 1 : 0;
-         case GT:
-            return (left.asDouble(context) > right.asDouble(context)) ? 1 : 0;
-         case GTE:
-            return (left.asDouble(context) >= right.asDouble(context)) ? 1 : 0;
-         case LT:
-            return (left.asDouble(context) < right.asDouble(context)) ? 1 : 0;
-         case LTE:
-            return (left.asDouble(context) <= right.asDouble(context)) ? 1 : 0;
          case Mod:
             return (long) (left.asDouble(context) % right.asDouble(context));
-         case NotEqual:
-            return (left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context))) ? 0 : 1;
-         case Or:
-            return left.asInt(context) | right.asInt(context);
-         case SHIFT_LEFT:
-            return left.asInt(context) << right.asInt(context);
-         case SHIFT_RIGHT:
-            return left.asInt(context) >> right.asInt(context);
-         case U_SHIFT_RIGHT:
-            return left.asInt(context) >> right.asInt(context);
-         case XOr:
-            return left.asInt(context) ^ right.asInt(context);
          case Plus:
-            Type t = getType(context);
-            if (t == Type.String) {
-               return Integer.parseInt(left.asString(context) + right.asString(context));
-            }
-            if (t == Type.Double) {
-               return (long) (left.asDouble(context) + right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (long) (left.asFloat(context) + right.asFloat(context));
-            }
-            return left.asInt(context) + right.asInt(context);
          case Minus:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (long) (left.asDouble(context) - right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (long) (left.asFloat(context) - right.asFloat(context));
-            }
-            return left.asInt(context) - right.asInt(context);
          case Divide:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (long) (left.asDouble(context) / right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (long) (left.asFloat(context) / right.asFloat(context));
-            }
-            return left.asInt(context) / right.asInt(context);
          case Times:
-            t = getType(context);
-            if (t == Type.Double) {
-               return (long) (left.asDouble(context) * right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return (long) (left.asFloat(context) * right.asFloat(context));
-            }
-            return left.asInt(context) * right.asInt(context);
+            return arithmeticAsLong(leftValue(context), rightValue(context), context);
       }
-      return 0;
+
+      return asInt(context);
    }
 
    public String asString(ExpressionContext context) throws ExpressionEvaluationException {
+      return String.valueOf(eval(context));
+   }
+
+   /*
+    * Arithmetic operations. The operands with a static type are converted with
+    * their asX methods, the others are evaluated once and converted from their
+    * values. The values of the operands without a static type are passed in, so
+    * that compiled code which has already evaluated them can complete the
+    * operation without evaluating them again.
+    */
+
+   private Object leftValue(ExpressionContext context) throws ExpressionEvaluationException {
+      return leftType == null ? left.eval(context) : null;
+   }
+
+   private Object rightValue(ExpressionContext context) throws ExpressionEvaluationException {
+      return rightType == null ? right.eval(context) : null;
+   }
+
+   boolean arithmeticAsBoolean(Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      if (operator == Operator.Plus && staticType != Type.Int && staticType != Type.Long && staticType != Type.Float && staticType != Type.Double) {
+         Object o = arithmetic(l, r, context);
+         if (o instanceof String) {
+            return !o.equals("");
+         }
+         return ((Number) o).doubleValue() != 0;
+      }
+      return arithmeticAsDouble(l, r, context) != 0;
+   }
+
+   Object arithmetic(Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      switch (resultType(l, r)) {
+         case String:
+            return stringValue(left, leftType, l, context) + stringValue(right, rightType, r, context);
+         case Double:
+            return apply(doubleValue(left, leftType, l, context), doubleValue(right, rightType, r, context));
+         case Float:
+            return apply(floatValue(left, leftType, l, context), floatValue(right, rightType, r, context));
+         case Long:
+            return apply(longValue(left, leftType, l, context), longValue(right, rightType, r, context));
+         default:
+            return apply(intValue(left, leftType, l, context), intValue(right, rightType, r, context));
+      }
+   }
+
+   int arithmeticAsInt(Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      switch (resultType(l, r)) {
+         case String:
+            return Integer.parseInt(stringValue(left, leftType, l, context) + stringValue(right, rightType, r, context));
+         case Double:
+            return (int) apply(doubleValue(left, leftType, l, context), doubleValue(right, rightType, r, context));
+         case Float:
+            return (int) apply(floatValue(left, leftType, l, context), floatValue(right, rightType, r, context));
+         case Long:
+            return (int) apply(longValue(left, leftType, l, context), longValue(right, rightType, r, context));
+         default:
+            return apply(intValue(left, leftType, l, context), intValue(right, rightType, r, context));
+      }
+   }
+
+   long arithmeticAsLong(Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      switch (resultType(l, r)) {
+         case String:
+            return Integer.parseInt(stringValue(left, leftType, l, context) + stringValue(right, rightType, r, context));
+         case Double:
+            return (long) apply(doubleValue(left, leftType, l, context), doubleValue(right, rightType, r, context));
+         case Float:
+            return (long) apply(floatValue(left, leftType, l, context), floatValue(right, rightType, r, context));
+         case Long:
+            return apply(longValue(left, leftType, l, context), longValue(right, rightType, r, context));
+         default:
+            return apply(intValue(left, leftType, l, context), intValue(right, rightType, r, context));
+      }
+   }
+
+   double arithmeticAsDouble(Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      switch (resultType(l, r)) {
+         case String:
+            return Integer.parseInt(stringValue(left, leftType, l, context) + stringValue(right, rightType, r, context));
+         case Double:
+            return apply(doubleValue(left, leftType, l, context), doubleValue(right, rightType, r, context));
+         case Float:
+            return apply(floatValue(left, leftType, l, context), floatValue(right, rightType, r, context));
+         case Long:
+            return apply(longValue(left, leftType, l, context), longValue(right, rightType, r, context));
+         default:
+            return apply(intValue(left, leftType, l, context), intValue(right, rightType, r, context));
+      }
+   }
+
+   private Type resultType(Object l, Object r) {
+      if (staticType != null) {
+         return staticType;
+      }
+
+      return arithmeticType(leftType == null ? typeOf(l) : leftType, rightType == null ? typeOf(r) : rightType);
+   }
+
+   private int apply(int l, int r) {
       switch (operator) {
-         case And:
-            return "" + (left.asInt(context) & right.asInt(context));
-         case ConditionalAnd:
-            return "" + (left.asBoolean(context) && right.asBoolean(context));
-         case ConditionalOr:
-            return "" + (left.asBoolean(context) || right.asBoolean(context));
-         case Equal:
-            return "" + (left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context)));
-         case GT:
-            return "" + (left.asDouble(context) > right.asDouble(context));
-         case GTE:
-            return "" + (left.asDouble(context) >= right.asDouble(context));
-         case LT:
-            return "" + (left.asDouble(context) < right.asDouble(context));
-         case LTE:
-            return "" + (left.asDouble(context) <= right.asDouble(context));
-         case Mod:
-            return "" + (left.asDouble(context) % right.asDouble(context));
-         case NotEqual:
-            return "" + (!(left == null && right == null || !(left == null || right == null) && left.eval(context).equals(right.eval(context))));
-         case Or:
-            return "" + (left.asInt(context) | right.asInt(context));
-         case SHIFT_LEFT:
-            return "" + (left.asInt(context) << right.asInt(context));
-         case SHIFT_RIGHT:
-            return "" + (left.asInt(context) >> right.asInt(context));
-         case U_SHIFT_RIGHT:
-            return "" + (left.asInt(context) >> right.asInt(context));
-         case XOr:
-            return "" + (left.asInt(context) ^ right.asInt(context));
          case Plus:
-            Type t = getType(context);
-            if (t == Type.String) {
-               return left.asString(context) + right.asString(context);
-            }
-            if (t == Type.Double) {
-               return "" + (left.asDouble(context) + right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return "" + (left.asFloat(context) + right.asFloat(context));
-            }
-            return "" + (left.asInt(context) + right.asInt(context));
+            return l + r;
          case Minus:
-            t = getType(context);
-            if (t == Type.Double) {
-               return "" + (left.asDouble(context) - right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return "" + (left.asFloat(context) - right.asFloat(context));
-            }
-            return "" + (left.asInt(context) - right.asInt(context));
-         case Divide:
-            t = getType(context);
-            if (t == Type.Double) {
-               return "" + (left.asDouble(context) / right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return "" + (left.asFloat(context) / right.asFloat(context));
-            }
-            return "" + (left.asInt(context) / right.asInt(context));
+            return l - r;
          case Times:
-            t = getType(context);
-            if (t == Type.Double) {
-               return "" + (left.asDouble(context) * right.asDouble(context));
-            }
-            if (t == Type.Float) {
-               return "" + (left.asFloat(context) * right.asFloat(context));
-            }
-            return "" + (left.asInt(context) * right.asInt(context));
+            return l * r;
+         default:
+            return l / r;
       }
+   }
 
-      return null;
+   private long apply(long l, long r) {
+      switch (operator) {
+         case Plus:
+            return l + r;
+         case Minus:
+            return l - r;
+         case Times:
+            return l * r;
+         default:
+            return l / r;
+      }
+   }
+
+   private float apply(float l, float r) {
+      switch (operator) {
+         case Plus:
+            return l + r;
+         case Minus:
+            return l - r;
+         case Times:
+            return l * r;
+         default:
+            return l / r;
+      }
+   }
+
+   private double apply(double l, double r) {
+      switch (operator) {
+         case Plus:
+            return l + r;
+         case Minus:
+            return l - r;
+         case Times:
+            return l * r;
+         default:
+            return l / r;
+      }
+   }
+
+   private static int intValue(CambridgeExpression e, Type type, Object value, ExpressionContext context) throws ExpressionEvaluationException {
+      if (type != null) {
+         return e.asInt(context);
+      }
+      return value instanceof Number ? ((Number) value).intValue() : 0;
+   }
+
+   private static long longValue(CambridgeExpression e, Type type, Object value, ExpressionContext context) throws ExpressionEvaluationException {
+      if (type != null) {
+         return e.asLong(context);
+      }
+      return value instanceof Number ? ((Number) value).longValue() : 0;
+   }
+
+   private static float floatValue(CambridgeExpression e, Type type, Object value, ExpressionContext context) throws ExpressionEvaluationException {
+      if (type != null) {
+         return e.asFloat(context);
+      }
+      return value instanceof Number ? ((Number) value).floatValue() : 0;
+   }
+
+   private static double doubleValue(CambridgeExpression e, Type type, Object value, ExpressionContext context) throws ExpressionEvaluationException {
+      if (type != null) {
+         return e.asDouble(context);
+      }
+      return value instanceof Number ? ((Number) value).doubleValue() : 0;
+   }
+
+   private static String stringValue(CambridgeExpression e, Type type, Object value, ExpressionContext context) throws ExpressionEvaluationException {
+      if (type != null) {
+         return e.asString(context);
+      }
+      return String.valueOf(value);
    }
 }
@@ -3,7 +3,9 @@ package cambridge.parser.expressions;
 import cambridge.ExpressionLanguage;
 import cambridge.ExpressionParsingException;
 import cambridge.model.Expression;
+import cambridge.parser.ExpressionCache;
 import cambridge.runtime.ExpressionContext;
+import cambridge.runtime.JavaSourceCompiler;
 import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
@@ -16,7 +18,128 @@ import java.util.Locale;
  * @since 1/31/11
  */
 public class CambridgeExpressionLanguage implements ExpressionLanguage {
+   private final ExpressionCache cache;
+   private volatile int compileThreshold;
+   private volatile CompilationErrorHandler compilationErrorHandler;
+
+   public CambridgeExpressionLanguage() {
+      this(ExpressionCache.DefaultMaxSize);
+   }
+
+   /**
+    * @param cacheSize Maximum number of parsed expressions to keep in the cache
+    *                  of this expression language, 0 disables the cache
+    */
+   public CambridgeExpressionLanguage(int cacheSize) {
+      cache = new ExpressionCache(cacheSize);
+   }
+
+   /**
+    * @return The cache of parsed expressions, shared by all the templates that
+    *         use this expression language
+    */
+   public ExpressionCache getExpressionCache() {
+      return cache;
+   }
+
+   /**
+    * @return The number of evaluations after which an expression is compiled, 0 if
+    *         expressions are never compiled
+    */
+   public int getCompileThreshold() {
+      return compileThreshold;
+   }
+
+   /**
+    * Sets the number of evaluations after which the expressions parsed by this
+    * expression language are compiled to Java classes specialized for the types
+    * observed while interpreting them. Expressions are interpreted only by
+    * default. Compiling requires the system Java compiler at runtime. The
+    * expressions are compiled on a background thread, and interpreted until
+    * they have been compiled.
+    *
+    * @param compileThreshold Number of evaluations, 0 to disable compilation
+    */
+   public void setCompileThreshold(int compileThreshold) {
+      this.compileThreshold = compileThreshold;
+      cache.clear();
+   }
+
+   public CompilationErrorHandler getCompilationErrorHandler() {
+      return compilationErrorHandler;
+   }
+
+   /**
+    * Sets the handler that is notified of the expressions that could not be
+    * compiled. Such expressions keep being interpreted.
+    *
+    * @param compilationErrorHandler The handler, null to ignore the errors
+    */
+   public void setCompilationErrorHandler(CompilationErrorHandler compilationErrorHandler) {
+      this.compilationErrorHandler = compilationErrorHandler;
+   }
+
+   void compilationFailed(String expression, Exception e) {
+      CompilationErrorHandler handler = compilationErrorHandler;
+      if (handler != null) {
+         handler.compilationFailed(expression, e);
+      }
+   }
+
+   /**
+    * Parses the expression, or copies the cached parse result of the same source.
+    * Every call returns a new expression, so that the inline caches and the
+    * compiled code of each occurrence are specialized for the values it sees.
+    */
    public Expression parse(String expressionString, int line, int column) throws ExpressionParsingException {
+      CambridgeExpression parsed = (CambridgeExpression) cache.get(expressionString);
+      if (parsed == null) {
+         parsed = parseExpression(expressionString, line, column);
+         cache.put(expressionString, parsed);
+      }
+
+      CambridgeExpression e = copy(parsed);
+      int threshold = compileThreshold;
+      if (threshold > 0 && ExpressionCompiler.isCompilable(e) && JavaSourceCompiler.isAvailable()) {
+         return new TieredExpression(e, expressionString, this, threshold);
+      }
+
+      return e;
+   }
+
+   private CambridgeExpression parseExpression(String expressionString, int line, int column) throws ExpressionParsingException {
+      CambridgeExpression e = SimplePathParser.parse(expressionString);
+      if (e == null) {
+         e = parseWithAntlr(expressionString, line, column);
+      }
+
+      return e;
+   }
+
+   /**
+    * @return A copy of the expression which shares nothing that changes while the
+    *         expressions are evaluated, like the inline caches of the properties.
+    *         Literals and other immutable expressions are not copied.
+    */
+   static CambridgeExpression copy(CambridgeExpression e) {
+      if (e instanceof VarExpression) {
+         return ((VarExpression) e).copy();
+      } else if (e instanceof BooleanExpression) {
+         return ((BooleanExpression) e).copy();
+      } else if (e instanceof UnaryExpression) {
+         return ((UnaryExpression) e).copy();
+      } else if (e instanceof FunctionExpression) {
+         return ((FunctionExpression) e).copy();
+      } else if (e instanceof ListExpression) {
+         return ((ListExpression) e).copy();
+      } else if (e instanceof MapExpression) {
+         return ((MapExpression) e).copy();
+      }
+
+      return e;
+   }
+
+   private CambridgeExpression parseWithAntlr(String expressionString, int line, int column) throws ExpressionParsingException {
       try {
          ANTLRStringStream stream = new ANTLRStringStream(expressionString);
          ExpressionLexer lexer = new ExpressionLexer(stream);
@@ -31,6 +154,8 @@ public class CambridgeExpressionLanguage implements ExpressionLanguage {
          return e;
       } catch (RecognitionException e) {
          throw new CambridgeExpressionParsingException(line, column, expressionString, e);
+      } catch (FunctionCallException e) {
+         throw new CambridgeExpressionParsingException(line, column, expressionString, e);
       }
    }
 
@@ -41,12 +166,12 @@ public class CambridgeExpressionLanguage implements ExpressionLanguage {
     @Override
     public ExpressionContext createNewContext(Locale locale)
     {
-        return new MapExpressionContext(locale);
+        return new ArrayExpressionContext(locale);
     }
 
     @Override
     public ExpressionContext createNewContext()
     {
-        return new MapExpressionContext(null);
+        return new ArrayExpressionContext(null);
     }
 }
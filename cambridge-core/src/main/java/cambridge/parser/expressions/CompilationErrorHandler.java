@@ -0,0 +1,16 @@
+package cambridge.parser.expressions;
+
+/**
+ * Receives the errors of the expressions that could not be compiled, see
+ * {@link CambridgeExpressionLanguage#setCompileThreshold(int)}. Expressions
+ * that could not be compiled keep being interpreted.
+ */
+public interface CompilationErrorHandler {
+   /**
+    * Called on the compiler thread when an expression could not be compiled
+    *
+    * @param expression The expression
+    * @param e          The cause of the failure
+    */
+   void compilationFailed(String expression, Exception e);
+}
@@ -0,0 +1,131 @@
+package cambridge.parser.expressions;
+
+import cambridge.ExpressionEvaluationException;
+import cambridge.model.Expression;
+import cambridge.runtime.ExpressionContext;
+import cambridge.runtime.PropertyAccessException;
+
+/**
+ * Base class of the expressions generated by the expression compiler. The
+ * generated code is specialized for the classes observed while the expression
+ * was interpreted. When it meets anything else it finishes the evaluation with
+ * the interpreter from the point it has reached, without evaluating anything
+ * twice, and calls {@link #invalidate()} so that the expression is profiled
+ * again before it is recompiled.
+ *
+ * <p>The static methods are used by the generated code and follow the semantics
+ * of the interpreted expressions.</p>
+ */
+public abstract class CompiledExpression implements Expression {
+   private volatile boolean invalidated;
+
+   /**
+    * Called by the generated code when an assumption made at compile time does
+    * not hold anymore
+    */
+   protected final void invalidate() {
+      invalidated = true;
+   }
+
+   /**
+    * @return true if the compiled code has met a type it was not specialized for
+    */
+   final boolean isInvalidated() {
+      return invalidated;
+   }
+
+   protected static ExpressionEvaluationException wrap(Exception e) {
+      return new ExpressionEvaluationException(e);
+   }
+
+   protected static Object getVariable(ExpressionContext context, int slot, String name) throws ExpressionEvaluationException {
+      if (slot != -1 && context instanceof ArrayExpressionContext) {
+         return ((ArrayExpressionContext) context).get(slot);
+      }
+      return context.get(name);
+   }
+
+   protected static Object getProperty(Object property, Object object) throws PropertyAccessException {
+      return ((IdentifierVarProperty) property).get(object);
+   }
+
+   protected static Object getIndexed(Object property, Object object, ExpressionContext context) throws ExpressionEvaluationException {
+      return VarExpression.getIndexed((MapVarProperty) property, object, context);
+   }
+
+   /**
+    * Continues the evaluation of a variable expression with the interpreter
+    */
+   protected static Object resume(Object var, int index, Object object, ExpressionContext context) throws ExpressionEvaluationException {
+      return ((VarExpression) var).evalFrom(index, object, context);
+   }
+
+   protected static Object arithmetic(Object e, Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      return ((BooleanExpression) e).arithmetic(l, r, context);
+   }
+
+   protected static boolean arithmeticAsBoolean(Object e, Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      return ((BooleanExpression) e).arithmeticAsBoolean(l, r, context);
+   }
+
+   protected static int arithmeticAsInt(Object e, Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      return ((BooleanExpression) e).arithmeticAsInt(l, r, context);
+   }
+
+   protected static long arithmeticAsLong(Object e, Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      return ((BooleanExpression) e).arithmeticAsLong(l, r, context);
+   }
+
+   protected static float arithmeticAsFloat(Object e, Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      return (float) ((BooleanExpression) e).arithmeticAsDouble(l, r, context);
+   }
+
+   protected static double arithmeticAsDouble(Object e, Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      return ((BooleanExpression) e).arithmeticAsDouble(l, r, context);
+   }
+
+   protected static String arithmeticAsString(Object e, Object l, Object r, ExpressionContext context) throws ExpressionEvaluationException {
+      return String.valueOf(((BooleanExpression) e).arithmetic(l, r, context));
+   }
+
+   /**
+    * Converts the value of a variable expression to a string like
+    * {@link VarExpression#asString(ExpressionContext)} does
+    */
+   protected static String stringOf(Object o) {
+      return o.toString();
+   }
+
+   protected static boolean areEqual(Object l, Object r) {
+      return BooleanExpression.areEqual(l, r);
+   }
+
+   protected static boolean toBoolean(Object o) {
+      if (o instanceof Boolean) {
+         return (Boolean) o;
+      }
+      if (o instanceof Number) {
+         return ((Number) o).intValue() != 0;
+      }
+      if (o instanceof String) {
+         return !"".equals(o);
+      }
+      return o != null;
+   }
+
+   protected static int toInt(Object o) {
+      return o instanceof Number ? ((Number) o).intValue() : 0;
+   }
+
+   protected static long toLong(Object o) {
+      return o instanceof Number ? ((Number) o).longValue() : 0;
+   }
+
+   protected static float toFloat(Object o) {
+      return o instanceof Number ? ((Number) o).floatValue() : 0;
+   }
+
+   protected static double toDouble(Object o) {
+      return o instanceof Number ? ((Number) o).doubleValue() : 0;
+   }
+}
@@ -0,0 +1,854 @@
+package cambridge.parser.expressions;
+
+import cambridge.ExpressionEvaluationException;
+import cambridge.runtime.JavaCompilationException;
+import cambridge.runtime.JavaSourceCompiler;
+import cambridge.runtime.PropertyAccessor;
+import cambridge.runtime.Super;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles an expression tree into a generated {@link CompiledExpression}.
+ *
+ * <p>The generated code is specialized with the types observed while the expression
+ * was interpreted. A property which has only seen objects of one class is read with
+ * a direct call to its getter after checking the class of the object, and the type
+ * of the getter is used to carry out arithmetic on primitive values. The checks are
+ * made on values that have already been evaluated, so when one fails the generated
+ * code hands these values to the interpreter, which completes the evaluation without
+ * calling any getter or function a second time. Property steps which have seen
+ * several classes use the inline caches of the interpreter, and the nodes that can
+ * not be compiled, like function calls, are called from the generated code.</p>
+ *
+ * <p>Each instance generates the source of one expression. The sources are compiled
+ * by the {@link cambridge.runtime.BackgroundCompiler}.</p>
+ */
+final class ExpressionCompiler {
+   private static final String PackageName = "cambridge.compiled";
+   private static final AtomicInteger counter = new AtomicInteger();
+
+   private enum Kind {
+      Int("int", "Int"),
+      Long("long", "Long"),
+      Float("float", "Float"),
+      Double("double", "Double"),
+      Boolean("boolean", "Boolean"),
+      String("String", "String"),
+      Object("Object", "Object");
+
+      final String javaType;
+      final String suffix;
+
+      Kind(String javaType, String suffix) {
+         this.javaType = javaType;
+         this.suffix = suffix;
+      }
+
+      boolean isNumber() {
+         return this == Int || this == Long || this == Float || this == Double;
+      }
+   }
+
+   /**
+    * A piece of generated code and the kind of its value
+    */
+   private static final class Code {
+      final String code;
+      final Kind kind;
+
+      Code(String code, Kind kind) {
+         this.code = code;
+         this.kind = kind;
+      }
+   }
+
+   private final String className;
+   private final ClassLoader loader;
+   private final StringBuilder fields = new StringBuilder();
+   private final StringBuilder init = new StringBuilder();
+   private final StringBuilder methods = new StringBuilder();
+   private final ArrayList<Object> resources = new ArrayList<Object>();
+   private final IdentityHashMap<Object, String> fieldNames = new IdentityHashMap<Object, String>();
+   private final IdentityHashMap<CambridgeExpression, String[]> methodNames = new IdentityHashMap<CambridgeExpression, String[]>();
+   private final IdentityHashMap<IdentifierVarProperty, IdentifierVarProperty.CacheEntry> observed = new IdentityHashMap<IdentifierVarProperty, IdentifierVarProperty.CacheEntry>();
+   private final LinkedHashSet<Class<?>> referenced = new LinkedHashSet<Class<?>>();
+
+   private int methodCount;
+
+   /**
+    * @param loader Class loader the compiled expression will be loaded by
+    */
+   ExpressionCompiler(ClassLoader loader) {
+      this.className = "Expression" + counter.incrementAndGet();
+      this.loader = loader;
+   }
+
+   /**
+    * @param e An expression
+    * @return true if compiling the expression can make it faster
+    */
+   static boolean isCompilable(CambridgeExpression e) {
+      if (e instanceof BooleanExpression || e instanceof UnaryExpression) {
+         return true;
+      }
+
+      return e instanceof VarExpression && ((VarExpression) e).getProperties() != null;
+   }
+
+   /**
+    * @return Fully qualified name of the generated class
+    */
+   String getClassName() {
+      return PackageName + "." + className;
+   }
+
+   /**
+    * @return Classes referenced by the generated source, available once the source
+    *         has been generated
+    */
+   Collection<Class<?>> getReferencedClasses() {
+      return referenced;
+   }
+
+   /**
+    * Creates the compiled expression from the class compiled from the generated source
+    */
+   CompiledExpression newInstance(Class<?> c) throws JavaCompilationException {
+      try {
+         return (CompiledExpression) c.getConstructor(Object[].class).newInstance(new Object[]{resources.toArray()});
+      } catch (Exception e) {
+         throw new JavaCompilationException("Could not create " + c.getName(), e);
+      }
+   }
+
+   /**
+    * Generates the source of the compiled expression
+    *
+    * @param e The expression
+    * @return Java source of the compiled expression class
+    * @throws ExpressionEvaluationException If a literal in the expression could not be evaluated
+    */
+   String generate(CambridgeExpression e) throws ExpressionEvaluationException {
+      StringBuilder body = new StringBuilder();
+      appendMethod(body, "Object", "eval", compile(e, Kind.Object));
+      appendMethod(body, "boolean", "asBoolean", compile(e, Kind.Boolean));
+      appendMethod(body, "int", "asInt", compile(e, Kind.Int));
+      appendMethod(body, "float", "asFloat", compile(e, Kind.Float));
+      appendMethod(body, "double", "asDouble", compile(e, Kind.Double));
+      appendMethod(body, "long", "asLong", compile(e, Kind.Long));
+      appendMethod(body, "String", "asString", compile(e, Kind.String));
+
+      StringBuilder s = new StringBuilder();
+      s.append("package ").append(PackageName).append(";\n\n");
+      s.append("import cambridge.ExpressionEvaluationException;\n");
+      s.append("import cambridge.parser.expressions.CambridgeExpression;\n");
+      s.append("import cambridge.parser.expressions.CompiledExpression;\n");
+      s.append("import cambridge.runtime.ExpressionContext;\n");
+      s.append("import cambridge.runtime.PropertyAccessor;\n\n");
+      s.append("public final class ").append(className).append(" extends CompiledExpression {\n");
+      s.append(fields);
+      s.append("\n   public ").append(className).append("(Object[] r) {\n");
+      s.append(init);
+      s.append("   }\n");
+      s.append(body);
+      s.append(methods);
+      s.append("}\n");
+
+      return s.toString();
+   }
+
+   private static void appendMethod(StringBuilder b, String type, String name, String code) {
+      b.append("\n   public ").append(type).append(" ").append(name).append("(ExpressionContext context) throws ExpressionEvaluationException {\n");
+      b.append("      return ").append(code).append(";\n");
+      b.append("   }\n");
+   }
+
+   /**
+    * Generates the code that evaluates the expression to a value of the given kind,
+    * with the semantics of the corresponding method of the expression.
+    */
+   private String compile(CambridgeExpression e, Kind target) throws ExpressionEvaluationException {
+      if (BooleanExpression.isLiteral(e)) {
+         return constant(e, target);
+      }
+
+      if (e instanceof VarExpression) {
+         if (target == Kind.String) {
+            // Throws NullPointerException for null values, like the interpreter
+            return "stringOf(" + compileVar((VarExpression) e, Kind.Object) + ")";
+         }
+         return compileVar((VarExpression) e, target);
+      }
+
+      if (e instanceof BooleanExpression && ((BooleanExpression) e).isArithmetic()) {
+         return compileArithmetic((BooleanExpression) e, target);
+      }
+
+      Code c = null;
+      if (e instanceof BooleanExpression) {
+         c = compileBinary((BooleanExpression) e);
+      } else if (e instanceof UnaryExpression) {
+         c = compileUnary((UnaryExpression) e);
+      }
+
+      if (c == null) {
+         return delegate(e, target);
+      }
+
+      return convertResult(c, target);
+   }
+
+   /**
+    * Literals don't use the context, so their values are computed at compile time
+    */
+   private String constant(CambridgeExpression e, Kind target) throws ExpressionEvaluationException {
+      switch (target) {
+         case Int:
+            return "(" + e.asInt(null) + ")";
+         case Long:
+            return "(" + e.asLong(null) + "L)";
+         case Float:
+            return "Float.intBitsToFloat(" + Float.floatToRawIntBits(e.asFloat(null)) + ")";
+         case Double:
+            return "Double.longBitsToDouble(" + Double.doubleToRawLongBits(e.asDouble(null)) + "L)";
+         case Boolean:
+            return e.asBoolean(null) ? "true" : "false";
+         case String:
+            return JavaSourceCompiler.literal(e.asString(null));
+         default:
+            Object value = e.eval(null);
+            return value == null ? "null" : field(value, "Object");
+      }
+   }
+
+   private String delegate(CambridgeExpression e, Kind target) {
+      String method;
+      switch (target) {
+         case Object:
+            method = "eval";
+            break;
+         default:
+            method = "as" + target.suffix;
+      }
+
+      return field(e, "CambridgeExpression") + "." + method + "(context)";
+   }
+
+   private Code compileUnary(UnaryExpression u) throws ExpressionEvaluationException {
+      switch (u.getOperator()) {
+         case Not:
+            return new Code("(!" + compile(u.getExpression(), Kind.Boolean) + ")", Kind.Boolean);
+         case Tilde:
+            return new Code("(~" + compile(u.getExpression(), Kind.Int) + ")", Kind.Int);
+      }
+
+      return null;
+   }
+
+   private Code compileBinary(BooleanExpression b) throws ExpressionEvaluationException {
+      CambridgeExpression l = b.getLeft();
+      CambridgeExpression r = b.getRight();
+
+      switch (b.getOperator()) {
+         case ConditionalAnd:
+            return new Code("(" + compile(l, Kind.Boolean) + " && " + compile(r, Kind.Boolean) + ")", Kind.Boolean);
+         case ConditionalOr:
+            return new Code("(" + compile(l, Kind.Boolean) + " || " + compile(r, Kind.Boolean) + ")", Kind.Boolean);
+         case Equal:
+            return new Code("(" + equality(l, r) + ")", Kind.Boolean);
+         case NotEqual:
+            return new Code("(!" + equality(l, r) + ")", Kind.Boolean);
+         case GT:
+            return comparison(l, r, " > ");
+         case GTE:
+            return comparison(l, r, " >= ");
+         case LT:
+            return comparison(l, r, " < ");
+         case LTE:
+            return comparison(l, r, " <= ");
+         case Mod:
+            return new Code("(" + compile(l, Kind.Double) + " % " + compile(r, Kind.Double) + ")", Kind.Double);
+         case And:
+            return bitwise(l, r, " & ");
+         case Or:
+            return bitwise(l, r, " | ");
+         case XOr:
+            return bitwise(l, r, " ^ ");
+         case SHIFT_LEFT:
+            return bitwise(l, r, " << ");
+         case SHIFT_RIGHT:
+            return bitwise(l, r, " >> ");
+         case U_SHIFT_RIGHT:
+            return bitwise(l, r, " >>> ");
+      }
+
+      return null;
+   }
+
+   private Code comparison(CambridgeExpression l, CambridgeExpression r, String op) throws ExpressionEvaluationException {
+      return new Code("(" + compile(l, Kind.Double) + op + compile(r, Kind.Double) + ")", Kind.Boolean);
+   }
+
+   private Code bitwise(CambridgeExpression l, CambridgeExpression r, String op) throws ExpressionEvaluationException {
+      return new Code("(" + compile(l, Kind.Int) + op + compile(r, Kind.Int) + ")", Kind.Int);
+   }
+
+   /*
+    * Arithmetic
+    */
+
+   private String compileArithmetic(BooleanExpression b, Kind target) throws ExpressionEvaluationException {
+      Kind kind = arithmeticKind(b);
+      if (kind == null) {
+         return delegate(b, target);
+      }
+
+      String[] names = getMethodNames(b);
+      int index = target.ordinal();
+      if (names[index] == null) {
+         String name = "a" + methodCount++;
+         names[index] = name;
+         generateArithmeticMethod(b, kind, target, name);
+      }
+
+      return names[index] + "(context)";
+   }
+
+   /**
+    * @return The kind of the result of the arithmetic operation if the types of both
+    *         operands are known, either statically or from the observed classes, null
+    *         if the operation can not be specialized
+    */
+   private Kind arithmeticKind(BooleanExpression b) throws ExpressionEvaluationException {
+      CambridgeExpression.Type lt = operandType(b.getLeft());
+      CambridgeExpression.Type rt = operandType(b.getRight());
+      if (lt == null || rt == null) {
+         return null;
+      }
+
+      Kind kind = kindOf(b.arithmeticType(lt, rt));
+      if (!isSpecializable(b.getLeft(), lt, kind) || !isSpecializable(b.getRight(), rt, kind)) {
+         return null;
+      }
+
+      return kind;
+   }
+
+   /**
+    * The operands without a static type are checked against their observed type,
+    * which must be a number, or a string for a concatenation
+    */
+   private static boolean isSpecializable(CambridgeExpression e, CambridgeExpression.Type t, Kind kind) {
+      if (BooleanExpression.staticTypeOf(e) != null) {
+         return true;
+      }
+
+      switch (t) {
+         case Int:
+         case Long:
+         case Float:
+         case Double:
+            return true;
+         case String:
+            return kind == Kind.String;
+         default:
+            return false;
+      }
+   }
+
+   /**
+    * Generates a method which evaluates the operands without a static type once,
+    * and carries out the operation on primitive values if they have the observed
+    * types. Otherwise the values are passed to the interpreter.
+    */
+   private void generateArithmeticMethod(BooleanExpression b, Kind kind, Kind target, String name) throws ExpressionEvaluationException {
+      CambridgeExpression left = b.getLeft();
+      CambridgeExpression right = b.getRight();
+      boolean leftDynamic = BooleanExpression.staticTypeOf(left) == null;
+      boolean rightDynamic = BooleanExpression.staticTypeOf(right) == null;
+
+      StringBuilder body = new StringBuilder();
+      StringBuilder condition = new StringBuilder();
+      String l = typedOperand(left, leftDynamic, "l", kind, body, condition);
+      String r = typedOperand(right, rightDynamic, "r", kind, body, condition);
+
+      String op;
+      switch (b.getOperator()) {
+         case Minus:
+            op = " - ";
+            break;
+         case Times:
+            op = " * ";
+            break;
+         case Divide:
+            op = " / ";
+            break;
+         default:
+            op = " + ";
+      }
+
+      String result = convertResult(new Code("(" + l + op + r + ")", kind), target);
+
+      StringBuilder m = methods;
+      m.append("\n   private ").append(target.javaType).append(" ").append(name).append("(ExpressionContext context) throws ExpressionEvaluationException {\n");
+      m.append(body);
+      if (condition.length() == 0) {
+         m.append("      return ").append(result).append(";\n");
+      } else {
+         m.append("      if (").append(condition).append(") {\n");
+         m.append("         return ").append(result).append(";\n");
+         m.append("      }\n");
+         m.append("      invalidate();\n");
+         m.append("      return arithmetic").append(target == Kind.Object ? "" : "As" + target.suffix);
+         m.append("(").append(field(b, "Object")).append(", ");
+         m.append(leftDynamic ? "l" : "null").append(", ").append(rightDynamic ? "r" : "null").append(", context);\n");
+      }
+      m.append("   }\n");
+   }
+
+   /**
+    * Generates an operand of a specialized arithmetic operation. The value of an
+    * operand without a static type is stored in a local variable and checked
+    * against its observed type.
+    *
+    * @return Code of the operand value converted to the given kind
+    */
+   private String typedOperand(CambridgeExpression e, boolean dynamic, String local, Kind kind, StringBuilder body, StringBuilder condition) throws ExpressionEvaluationException {
+      if (!dynamic) {
+         return compile(e, kind);
+      }
+
+      body.append("      final Object ").append(local).append(" = ").append(compile(e, Kind.Object)).append(";\n");
+
+      Kind observed = kindOf(operandType(e));
+      String box = boxType(observed);
+      if (condition.length() != 0) {
+         condition.append(" && ");
+      }
+      condition.append(local).append(" instanceof ").append(box);
+
+      if (kind == Kind.String) {
+         return "String.valueOf(" + local + ")";
+      }
+
+      return "((" + kind.javaType + ") ((" + box + ") " + local + ")." + observed.javaType + "Value())";
+   }
+
+   private static String boxType(Kind kind) {
+      switch (kind) {
+         case Int:
+            return "Integer";
+         case Long:
+            return "Long";
+         case Float:
+            return "Float";
+         case Double:
+            return "Double";
+         default:
+            return "String";
+      }
+   }
+
+   /**
+    * Equality of operands with static numeric or boolean types is compiled to a
+    * comparison of primitive values, anything else is compared like the interpreter
+    * does.
+    */
+   private String equality(CambridgeExpression l, CambridgeExpression r) throws ExpressionEvaluationException {
+      CambridgeExpression.Type lt = BooleanExpression.staticTypeOf(l);
+      CambridgeExpression.Type rt = BooleanExpression.staticTypeOf(r);
+
+      if (isInteger(lt) && isInteger(rt)) {
+         return "(" + compile(l, Kind.Long) + " == " + compile(r, Kind.Long) + ")";
+      }
+      if (lt == CambridgeExpression.Type.Boolean && rt == CambridgeExpression.Type.Boolean) {
+         return "(" + compile(l, Kind.Boolean) + " == " + compile(r, Kind.Boolean) + ")";
+      }
+
+      return "areEqual(" + compile(l, Kind.Object) + ", " + compile(r, Kind.Object) + ")";
+   }
+
+   private static boolean isInteger(CambridgeExpression.Type t) {
+      return t == CambridgeExpression.Type.Int || t == CambridgeExpression.Type.Long;
+   }
+
+   /**
+    * @return The type of the operand value if it is known at compile time, null otherwise
+    */
+   private CambridgeExpression.Type operandType(CambridgeExpression e) throws ExpressionEvaluationException {
+      CambridgeExpression.Type t = BooleanExpression.staticTypeOf(e);
+      if (t != null) {
+         return t;
+      }
+
+      Kind kind = null;
+      if (e instanceof VarExpression) {
+         kind = varKind((VarExpression) e);
+      } else if (e instanceof BooleanExpression) {
+         kind = arithmeticKind((BooleanExpression) e);
+      }
+
+      if (kind == null || kind == Kind.Object) {
+         return null;
+      }
+
+      return CambridgeExpression.Type.valueOf(kind.suffix);
+   }
+
+   private static Kind kindOf(CambridgeExpression.Type t) {
+      switch (t) {
+         case Long:
+            return Kind.Long;
+         case Float:
+            return Kind.Float;
+         case Double:
+            return Kind.Double;
+         case String:
+            return Kind.String;
+         default:
+            return Kind.Int;
+      }
+   }
+
+   private static Kind kindOf(Class<?> type) {
+      if (type == int.class) {
+         return Kind.Int;
+      }
+      if (type == long.class) {
+         return Kind.Long;
+      }
+      if (type == float.class) {
+         return Kind.Float;
+      }
+      if (type == double.class) {
+         return Kind.Double;
+      }
+      if (type == boolean.class) {
+         return Kind.Boolean;
+      }
+      if (type == String.class) {
+         return Kind.String;
+      }
+      return Kind.Object;
+   }
+
+   /*
+    * Variables
+    */
+
+   /**
+    * @return The kind of the value of the variable expression as observed so far
+    */
+   private Kind varKind(VarExpression v) {
+      List<VarProperty> properties = v.getProperties();
+      if (properties == null) {
+         return Kind.Object;
+      }
+
+      VarProperty last = properties.get(properties.size() - 1);
+      if (!(last instanceof IdentifierVarProperty)) {
+         return Kind.Object;
+      }
+
+      Member m = getSpecializedMember(getObserved((IdentifierVarProperty) last));
+      if (m == null) {
+         return Kind.Object;
+      }
+
+      return kindOf(getType(m));
+   }
+
+   private String compileVar(VarExpression v, Kind target) {
+      String[] names = getMethodNames(v);
+      int index = target.ordinal();
+      if (names[index] == null) {
+         String name = "v" + methodCount++;
+         names[index] = name;
+         generateVarMethod(v, target, name);
+      }
+
+      return names[index] + "(context)";
+   }
+
+   private String[] getMethodNames(CambridgeExpression e) {
+      String[] names = methodNames.get(e);
+      if (names == null) {
+         names = new String[Kind.values().length];
+         methodNames.put(e, names);
+      }
+
+      return names;
+   }
+
+   /**
+    * Generates a method which reads the variable and its properties. A property that
+    * meets an object of a class other than the observed one is read, together with
+    * the following properties, by the interpreter.
+    */
+   private void generateVarMethod(VarExpression v, Kind target, String name) {
+      String onNull = "return " + nullValue(target) + ";";
+
+      StringBuilder b = methods;
+      b.append("\n   private ").append(target.javaType).append(" ").append(name).append("(ExpressionContext context) throws ExpressionEvaluationException {\n");
+      b.append("      try {\n");
+      b.append("         Object o = getVariable(context, ").append(v.getSlot()).append(", ").append(JavaSourceCompiler.literal(v.getVarName())).append(");\n");
+
+      Kind kind = Kind.Object;
+      List<VarProperty> properties = v.getProperties();
+      if (properties == null) {
+         b.append("         final Object v = o;\n");
+      } else {
+         for (int i = 0; i < properties.size(); i++) {
+            boolean last = i == properties.size() - 1;
+            String assign = last ? "final Object v = " : "o = ";
+
+            b.append("         if (o == null) {\n            ").append(onNull).append("\n         }\n");
+
+            VarProperty p = properties.get(i);
+            if (p instanceof MapVarProperty) {
+               b.append("         ").append(assign).append("getIndexed(").append(field(p, "Object")).append(", o, context);\n");
+               continue;
+            }
+
+            IdentifierVarProperty.CacheEntry entry = getObserved((IdentifierVarProperty) p);
+            if (entry == null) {
+               b.append("         ").append(assign).append("getProperty(").append(field(p, "Object")).append(", o);\n");
+               continue;
+            }
+
+            String resume = "resume(" + field(v, "Object") + ", " + i + ", o, context)";
+            b.append("         if (o.getClass() != ").append(field(entry.type, "Class<?>")).append(") {\n");
+            b.append("            invalidate();\n");
+            b.append("            return ").append(convertValue(resume, Kind.Object, target)).append(";\n");
+            b.append("         }\n");
+
+            Member m = getSpecializedMember(entry);
+            if (m == null) {
+               b.append("         ").append(assign).append(field(entry.accessor, "PropertyAccessor")).append(".get(o);\n");
+               continue;
+            }
+
+            String access = "((" + m.getDeclaringClass().getCanonicalName() + ") o)." + m.getName() + (m instanceof Method ? "()" : "");
+            if (last) {
+               kind = kindOf(getType(m));
+               b.append("         final ").append(kind.javaType).append(" v = ").append(access).append(";\n");
+            } else {
+               b.append("         o = ").append(access).append(";\n");
+            }
+         }
+      }
+
+      if (kind == Kind.Object || kind == Kind.String) {
+         b.append("         if (v == null) {\n            ").append(onNull).append("\n         }\n");
+      }
+      b.append("         return ").append(convertValue("v", kind, target)).append(";\n");
+      b.append("      } catch (ExpressionEvaluationException e) {\n");
+      b.append("         throw e;\n");
+      b.append("      } catch (Exception e) {\n");
+      b.append("         throw wrap(e);\n");
+      b.append("      }\n");
+      b.append("   }\n");
+   }
+
+   /**
+    * @return The accessor cache entry if the property has only seen objects of a
+    *         single class, null otherwise. The observation is made once per compilation
+    *         so that all the code generated for the property agrees.
+    */
+   private IdentifierVarProperty.CacheEntry getObserved(IdentifierVarProperty p) {
+      if (observed.containsKey(p)) {
+         return observed.get(p);
+      }
+
+      IdentifierVarProperty.CacheEntry[] entries = p.getCachedEntries();
+      IdentifierVarProperty.CacheEntry entry = null;
+      if (entries != null && entries.length == 1 && entries[0].type != Super.class) {
+         entry = entries[0];
+      }
+
+      observed.put(p, entry);
+      return entry;
+   }
+
+   /**
+    * @return The getter or field that can be accessed directly from the generated
+    *         code, null if the property must be read through its accessor
+    */
+   private Member getSpecializedMember(IdentifierVarProperty.CacheEntry entry) {
+      if (entry == null) {
+         return null;
+      }
+
+      Member m = entry.accessor.getMember();
+      if (m == null || !Modifier.isPublic(m.getModifiers()) || Modifier.isStatic(m.getModifiers())) {
+         return null;
+      }
+
+      Class<?> type = getType(m);
+      if (type == void.class || !type.isPrimitive() && !isAccessible(type)) {
+         return null;
+      }
+
+      Class<?> declaringClass = m.getDeclaringClass();
+      if (!isAccessible(declaringClass)) {
+         return null;
+      }
+
+      referenced.add(declaringClass);
+      return m;
+   }
+
+   private static Class<?> getType(Member m) {
+      return m instanceof Method ? ((Method) m).getReturnType() : ((Field) m).getType();
+   }
+
+   private boolean isAccessible(Class<?> c) {
+      return !c.isArray() && JavaSourceCompiler.isAccessible(c) && JavaSourceCompiler.isVisible(loader, c);
+   }
+
+   /**
+    * @return The class loader that can load the classes of the objects seen by the
+    *         expressions evaluated on the current thread, and the compiled expressions
+    */
+   static ClassLoader getClassLoader() {
+      ClassLoader loader = Thread.currentThread().getContextClassLoader();
+      if (loader != null && JavaSourceCompiler.isVisible(loader, CompiledExpression.class)) {
+         return loader;
+      }
+
+      return CompiledExpression.class.getClassLoader();
+   }
+
+   /*
+    * Conversions
+    */
+
+   private static String nullValue(Kind kind) {
+      switch (kind) {
+         case Int:
+            return "0";
+         case Long:
+            return "0L";
+         case Float:
+            return "0f";
+         case Double:
+            return "0d";
+         case Boolean:
+            return "false";
+         default:
+            return "null";
+      }
+   }
+
+   private static String box(String code, Kind kind) {
+      switch (kind) {
+         case Int:
+            return "Integer.valueOf(" + code + ")";
+         case Long:
+            return "Long.valueOf(" + code + ")";
+         case Float:
+            return "Float.valueOf(" + code + ")";
+         case Double:
+            return "Double.valueOf(" + code + ")";
+         case Boolean:
+            return "Boolean.valueOf(" + code + ")";
+         default:
+            return code;
+      }
+   }
+
+   /**
+    * Converts the value of a variable, the same way {@link VarExpression} converts
+    * the objects it evaluates to. The code must be a local variable unless the value
+    * is converted from an object.
+    */
+   private static String convertValue(String v, Kind from, Kind to) {
+      if (from == to) {
+         return v;
+      }
+
+      switch (to) {
+         case Object:
+            return box(v, from);
+         case String:
+            return "String.valueOf(" + v + ")";
+         case Boolean:
+            switch (from) {
+               case Int:
+                  return v + " != 0";
+               case Long:
+               case Float:
+               case Double:
+                  return "(int) " + v + " != 0";
+               case String:
+                  return v + " != null && " + v + ".length() != 0";
+               default:
+                  return "toBoolean(" + v + ")";
+            }
+         default:
+            if (from.isNumber()) {
+               return "(" + to.javaType + ") " + v;
+            }
+            if (from == Kind.Object) {
+               return "to" + to.suffix + "(" + v + ")";
+            }
+            return nullValue(to);
+      }
+   }
+
+   /**
+    * Converts the result of an operator, the same way {@link BooleanExpression}
+    * and {@link UnaryExpression} convert their results
+    */
+   private static String convertResult(Code c, Kind to) {
+      Kind from = c.kind;
+      String code = c.code;
+      if (from == to) {
+         return code;
+      }
+
+      switch (to) {
+         case Object:
+            return box(code, from);
+         case String:
+            return "String.valueOf(" + code + ")";
+         case Boolean:
+            if (from == Kind.String) {
+               return "(!" + code + ".equals(\"\"))";
+            }
+            return "(" + code + " != 0)";
+         default:
+            if (from == Kind.Boolean) {
+               return "(" + code + " ? 1 : 0)";
+            }
+            if (from == Kind.String) {
+               return "Integer.parseInt(" + code + ")";
+            }
+            return "((" + to.javaType + ") " + code + ")";
+      }
+   }
+
+   private String field(Object o, String type) {
+      String name = fieldNames.get(o);
+      if (name == null) {
+         int index = resources.size();
+         name = "r" + index;
+         resources.add(o);
+         fieldNames.put(o, name);
+         fields.append("   private final ").append(type).append(" ").append(name).append(";\n");
+         init.append("      ").append(name).append(" = (").append(type).append(") r[").append(index).append("];\n");
+      }
+
+      return name;
+   }
+}
@@ -0,0 +1,11 @@
+package cambridge.parser.expressions;
+
+/**
+ * Thrown while parsing an expression which calls a function with parameters
+ * that the function can not accept.
+ */
+public class FunctionCallException extends RuntimeException {
+   public FunctionCallException(String message) {
+      super(message);
+   }
+}
@@ -14,14 +14,38 @@ import java.util.ArrayList;
 public class FunctionExpression implements CambridgeExpression {
    private final String functionName;
    private CambridgeExpression[] parameters;
-   private final FunctionRunner runner;
+   private volatile FunctionRunner runner;
 
    public FunctionExpression(String functionName) {
       this.functionName = functionName;
       runner = Cambridge.getInstance().getFunctionRunner(functionName);
    }
 
+   FunctionExpression copy() {
+      FunctionExpression f = new FunctionExpression(functionName);
+      if (parameters != null) {
+         f.parameters = new CambridgeExpression[parameters.length];
+         for (int i = 0; i < parameters.length; i++) {
+            f.parameters[i] = CambridgeExpressionLanguage.copy(parameters[i]);
+         }
+      }
+      return f;
+   }
+
+   private FunctionRunner getRunner() {
+      // Parsed expressions are cached, the function may be registered after parsing
+      FunctionRunner r = runner;
+      if (r == null) {
+         r = Cambridge.getInstance().getFunctionRunner(functionName);
+         runner = r;
+      }
+      return r;
+   }
+
    public void setParameters(ArrayList<CambridgeExpression> params) {
+      if (runner != null && !runner.acceptsParameterCount(params.size())) {
+         throw new FunctionCallException("Invalid number of parameters provided for calling function " + functionName + ": " + params.size());
+      }
       parameters = params.toArray(new CambridgeExpression[params.size()]);
    }
 
@@ -49,10 +73,12 @@ public class FunctionExpression implements CambridgeExpression {
    }
 
    public Object eval(ExpressionContext context) throws ExpressionEvaluationException {
-      if (runner == null) {
+      FunctionRunner r = getRunner();
+      if (r == null) {
          throw new ExpressionEvaluationException("Unknown function " + functionName);
       }
-      return runner.eval(context, parameters);
+
+      return r.eval(context, parameters);
    }
 
    public boolean asBoolean(ExpressionContext context) throws ExpressionEvaluationException {
@@ -0,0 +1,132 @@
+package cambridge.parser.expressions;
+
+/**
+ * The results of the {@link PureFunction} calls made while rendering a template.
+ *
+ * <p>A template opens a table with {@link #begin()} when it starts rendering, if its
+ * factory has pure function memoization turned on, and closes it with {@link #end}
+ * when it is done. The table belongs to the rendering thread and is dropped at the
+ * end of the render, so the results are never shared between renders.</p>
+ *
+ * <p>The table has a fixed number of entries. A call whose entry is taken by another
+ * call replaces it, so a template calling many distinct functions is still correct,
+ * only less of its calls are memoized. Looking up a memoized result doesn't allocate.</p>
+ */
+public final class FunctionResults {
+   private static final int Size = 256;
+
+   private static final ThreadLocal<FunctionResults> current = new ThreadLocal<FunctionResults>();
+
+   private final PureFunction[] functions = new PureFunction[Size];
+   private final Object[][] arguments = new Object[Size][];
+   private final Object[] results = new Object[Size];
+
+   /**
+    * Argument buffers for the calls being evaluated, one per nesting level as the
+    * arguments of a call may call other pure functions.
+    */
+   private Object[][] buffers = new Object[4][];
+   private int depth;
+
+   private FunctionResults() {
+   }
+
+   /**
+    * Opens a table for the current thread.
+    *
+    * @return The table that was open before, to be passed to {@link #end}
+    */
+   public static FunctionResults begin() {
+      FunctionResults previous = current.get();
+      current.set(new FunctionResults());
+      return previous;
+   }
+
+   /**
+    * Closes the table opened by the matching {@link #begin()} call.
+    *
+    * @param previous The table returned by begin
+    */
+   public static void end(FunctionResults previous) {
+      if (previous == null) {
+         current.remove();
+      } else {
+         current.set(previous);
+      }
+   }
+
+   /**
+    * @return The table of the current thread, or null if the current thread is not
+    *         rendering a template with memoization turned on
+    */
+   static FunctionResults get() {
+      return current.get();
+   }
+
+   /**
+    * Returns a buffer for the argument values of a call. The buffer must be released
+    * with {@link #release()} after the call.
+    */
+   Object[] acquire(int count) {
+      if (depth == buffers.length) {
+         Object[][] b = new Object[depth * 2][];
+         System.arraycopy(buffers, 0, b, 0, depth);
+         buffers = b;
+      }
+      Object[] buffer = buffers[depth];
+      if (buffer == null || buffer.length < count) {
+         buffer = new Object[Math.max(count, 4)];
+         buffers[depth] = buffer;
+      }
+      depth++;
+      return buffer;
+   }
+
+   void release() {
+      Object[] buffer = buffers[--depth];
+      for (int i = 0; i < buffer.length; i++) {
+         buffer[i] = null;
+      }
+   }
+
+   static int hash(PureFunction function, Object[] values, int count) {
+      int h = System.identityHashCode(function);
+      for (int i = 0; i < count; i++) {
+         Object o = values[i];
+         h = 31 * h + (o == null ? 0 : o.hashCode());
+      }
+      return (h ^ (h >>> 16)) & (Size - 1);
+   }
+
+   /**
+    * @return true if the result of calling the function with the given values is memoized
+    */
+   boolean has(int index, PureFunction function, Object[] values, int count) {
+      if (functions[index] != function) {
+         return false;
+      }
+      Object[] a = arguments[index];
+      if (a.length != count) {
+         return false;
+      }
+      for (int i = 0; i < count; i++) {
+         Object o = values[i];
+         if (o == null ? a[i] != null : !o.equals(a[i])) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   Object result(int index) {
+      return results[index];
+   }
+
+   void put(int index, PureFunction function, Object[] values, int count, Object result) {
+      Object[] a = new Object[count];
+      System.arraycopy(values, 0, a, 0, count);
+      functions[index] = function;
+      arguments[index] = a;
+      results[index] = result;
+   }
+}
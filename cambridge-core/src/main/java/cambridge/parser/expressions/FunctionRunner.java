@@ -10,5 +10,16 @@ import cambridge.runtime.ExpressionContext;
  * Time: 11:53:59 PM
  */
 public abstract class FunctionRunner {
+   /**
+    * Called when an expression calling this function is parsed, so that calls
+    * with a wrong number of parameters are reported while loading the template.
+    *
+    * @param count Number of parameters passed to the function
+    * @return true if the function can be called with the given number of parameters
+    */
+   public boolean acceptsParameterCount(int count) {
+      return true;
+   }
+
    public abstract Object eval(ExpressionContext context, CambridgeExpression[] params) throws ExpressionEvaluationException;
 }
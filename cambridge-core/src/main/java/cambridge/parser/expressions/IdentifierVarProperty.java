@@ -1,18 +1,95 @@
 package cambridge.parser.expressions;
 
+import cambridge.runtime.PropertyAccessException;
+import cambridge.runtime.PropertyAccessor;
+import cambridge.runtime.PropertyUtils;
+import cambridge.runtime.Super;
+
 /**
  * @author Erdinc Yilmazel
  * Date: Oct 31, 2009
  * Time: 1:30:47 AM
  */
 class IdentifierVarProperty implements VarProperty {
+   /**
+    * Number of receiver classes remembered by a property before it falls back
+    * to the global accessor cache in {@link PropertyUtils}
+    */
+   static final int MaxCachedClasses = 4;
+
+   private static final CacheEntry[] EmptyCache = new CacheEntry[0];
+
    final String name;
 
+   /**
+    * Accessors for the classes seen by this property so far. The array is
+    * replaced, never modified, so it can be read without locking. Null once
+    * more than {@link #MaxCachedClasses} classes have been seen.
+    */
+   private volatile CacheEntry[] cache = EmptyCache;
+
    public IdentifierVarProperty(String name) {
       this.name = name;
    }
 
+   /**
+    * Reads this property of the given object. Usually the same expression
+    * always sees objects of the same class, so the accessor is found with a
+    * class comparison instead of a lookup in the global cache.
+    *
+    * @param object The object to read the property from
+    * @return The property value
+    * @throws PropertyAccessException If the property can not be read
+    */
+   Object get(Object object) throws PropertyAccessException {
+      if (object == null) {
+         return null;
+      }
+
+      Class<?> c = object.getClass();
+      CacheEntry[] entries = cache;
+      if (entries == null || c == Super.class) {
+         return PropertyUtils.instance().getBeanProperty(object, name);
+      }
+
+      for (CacheEntry entry : entries) {
+         if (entry.type == c) {
+            return entry.accessor.get(object);
+         }
+      }
+
+      PropertyAccessor accessor = PropertyUtils.instance().getAccessor(c, name);
+      if (entries.length < MaxCachedClasses) {
+         CacheEntry[] newEntries = new CacheEntry[entries.length + 1];
+         System.arraycopy(entries, 0, newEntries, 0, entries.length);
+         newEntries[entries.length] = new CacheEntry(c, accessor);
+         cache = newEntries;
+      } else {
+         cache = null;
+      }
+
+      return accessor.get(object);
+   }
+
+   /**
+    * @return The accessors cached for the classes seen so far, null if the
+    *         property has seen too many classes
+    */
+   CacheEntry[] getCachedEntries() {
+      return cache;
+   }
+
    public String toString() {
       return name;
    }
+
+   static final class CacheEntry {
+      final Class<?> type;
+      final PropertyAccessor accessor;
+
+      CacheEntry(Class<?> type, PropertyAccessor accessor) {
+         this.type = type;
+         this.accessor = accessor;
+      }
+   }
 }
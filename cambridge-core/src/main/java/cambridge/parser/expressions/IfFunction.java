@@ -9,6 +9,11 @@ import cambridge.runtime.ExpressionContext;
  * Time: 12:41 AM
  */
 public class IfFunction extends FunctionRunner {
+   @Override
+   public boolean acceptsParameterCount(int count) {
+      return count == 3;
+   }
+
    @Override
    public Object eval(ExpressionContext context, CambridgeExpression[] params) throws ExpressionEvaluationException {
       if (params.length != 3) {
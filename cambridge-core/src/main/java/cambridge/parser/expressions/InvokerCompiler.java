@@ -0,0 +1,188 @@
+package cambridge.parser.expressions;
+
+import cambridge.runtime.BackgroundCompiler;
+import cambridge.runtime.JavaSourceCompiler;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the {@link StaticMethodCaller.Invoker}s that call static methods with a
+ * fixed number of parameters directly, so that calling them neither allocates an
+ * argument array nor goes through reflection. The invokers are compiled by the
+ * {@link BackgroundCompiler}.
+ *
+ * <p>A generated invoker evaluates the parameters, checks that each value already
+ * has the type of the parameter and calls the method. A value that needs a
+ * conversion, like an Integer passed for a double parameter, is passed to the
+ * method through reflection instead, so the conversions and the errors are the
+ * same as when the method is always invoked through reflection.</p>
+ */
+final class InvokerCompiler {
+   private static final String PackageName = "cambridge.compiled";
+   private static final AtomicInteger counter = new AtomicInteger();
+
+   private InvokerCompiler() {
+   }
+
+   /**
+    * @return true if an invoker can be generated for the given method, it must be a
+    *         public method of a public class with a fixed number of parameters, and
+    *         the parameter and return types must be public
+    */
+   static boolean canGenerate(Method method) {
+      if (!Modifier.isPublic(method.getModifiers()) || method.isVarArgs()) {
+         return false;
+      }
+
+      for (Class<?> c : getReferencedClasses(method)) {
+         if (!JavaSourceCompiler.isAccessible(c)) {
+            return false;
+         }
+      }
+
+      return JavaSourceCompiler.isAvailable() && getClassLoader(method) != null;
+   }
+
+   private static List<Class<?>> getReferencedClasses(Method method) {
+      ArrayList<Class<?>> classes = new ArrayList<Class<?>>();
+      classes.add(method.getDeclaringClass());
+      classes.add(method.getReturnType());
+      for (Class<?> c : method.getParameterTypes()) {
+         classes.add(c);
+      }
+      return classes;
+   }
+
+   private static ClassLoader getClassLoader(Method method) {
+      return JavaSourceCompiler.getClassLoader(StaticMethodCaller.Invoker.class, getReferencedClasses(method));
+   }
+
+   /**
+    * Queues the invoker of the given caller, whose method must be accepted by
+    * {@link #canGenerate(Method)}. The caller is notified when the invoker has been
+    * generated or the compilation failed.
+    */
+   static void submit(StaticMethodCaller caller) {
+      BackgroundCompiler.submit(new Task(caller));
+   }
+
+   private static String generate(String className, Method method) {
+      Class<?>[] types = method.getParameterTypes();
+
+      StringBuilder s = new StringBuilder();
+      s.append("package ").append(PackageName).append(";\n\n");
+      s.append("public final class ").append(className).append(" extends cambridge.parser.expressions.StaticMethodCaller.Invoker {\n");
+      s.append("   public ").append(className).append("(java.lang.reflect.Method method) {\n");
+      s.append("      super(method);\n");
+      s.append("   }\n\n");
+      s.append("   public Object invoke(cambridge.runtime.ExpressionContext context, cambridge.parser.expressions.CambridgeExpression[] params) throws Exception {\n");
+
+      StringBuilder checks = new StringBuilder();
+      StringBuilder values = new StringBuilder();
+      StringBuilder args = new StringBuilder();
+      for (int i = 0; i < types.length; i++) {
+         String a = "a" + i;
+         s.append("      Object ").append(a).append(" = params[").append(i).append("].eval(context);\n");
+
+         if (i != 0) {
+            checks.append(" || ");
+            values.append(", ");
+            args.append(", ");
+         }
+         values.append(a);
+
+         Class<?> type = types[i];
+         if (type.isPrimitive()) {
+            String wrapper = getWrapperClass(type).getName();
+            checks.append("!(").append(a).append(" instanceof ").append(wrapper).append(")");
+            args.append("((").append(wrapper).append(") ").append(a).append(").").append(type.getName()).append("Value()");
+         } else {
+            String name = type.getCanonicalName();
+            checks.append("!(").append(a).append(" == null || ").append(a).append(" instanceof ").append(name).append(")");
+            args.append("(").append(name).append(") ").append(a);
+         }
+      }
+
+      if (types.length != 0) {
+         s.append("      if (").append(checks).append(") {\n");
+         s.append("         return invokeReflectively(new Object[]{").append(values).append("});\n");
+         s.append("      }\n");
+      }
+
+      String call = method.getDeclaringClass().getCanonicalName() + "." + method.getName() + "(" + args + ")";
+      s.append("      try {\n");
+      if (method.getReturnType() == void.class) {
+         s.append("         ").append(call).append(";\n");
+         s.append("         return null;\n");
+      } else {
+         s.append("         return ").append(call).append(";\n");
+      }
+      s.append("      } catch (Throwable t) {\n");
+      s.append("         throw new java.lang.reflect.InvocationTargetException(t);\n");
+      s.append("      }\n");
+      s.append("   }\n");
+      s.append("}\n");
+      return s.toString();
+   }
+
+   private static Class<?> getWrapperClass(Class<?> type) {
+      if (type == int.class) {
+         return Integer.class;
+      } else if (type == long.class) {
+         return Long.class;
+      } else if (type == double.class) {
+         return Double.class;
+      } else if (type == boolean.class) {
+         return Boolean.class;
+      } else if (type == float.class) {
+         return Float.class;
+      } else if (type == char.class) {
+         return Character.class;
+      } else if (type == short.class) {
+         return Short.class;
+      } else {
+         return Byte.class;
+      }
+   }
+
+   private static final class Task implements BackgroundCompiler.Task {
+      private final StaticMethodCaller caller;
+      private final ClassLoader loader;
+      private final String className;
+
+      Task(StaticMethodCaller caller) {
+         this.caller = caller;
+         this.loader = InvokerCompiler.getClassLoader(caller.method);
+         this.className = "Invoker" + counter.incrementAndGet();
+      }
+
+      public ClassLoader getClassLoader() {
+         return loader;
+      }
+
+      public String getClassName() {
+         return PackageName + "." + className;
+      }
+
+      public String generate() {
+         return InvokerCompiler.generate(className, caller.method);
+      }
+
+      public Collection<Class<?>> getReferencedClasses() {
+         return InvokerCompiler.getReferencedClasses(caller.method);
+      }
+
+      public void compiled(Class<?> c) throws Exception {
+         caller.generated((StaticMethodCaller.Invoker) c.getConstructor(Method.class).newInstance(caller.method));
+      }
+
+      public void failed(Exception e) {
+         caller.generationFailed();
+      }
+   }
+}
@@ -12,6 +12,14 @@ import java.util.ArrayList;
  * Time: 11:52:13 PM
  */
 public class ListExpression extends ArrayList<CambridgeExpression> implements CambridgeExpression {
+   ListExpression copy() {
+      ListExpression l = new ListExpression();
+      for (CambridgeExpression e : this) {
+         l.add(CambridgeExpressionLanguage.copy(e));
+      }
+      return l;
+   }
+
    public Type getType(ExpressionContext context) throws ExpressionEvaluationException {
       return Type.Object;
    }
@@ -14,6 +14,15 @@ import java.util.Set;
  * Time: 11:53:23 PM
  */
 public class MapExpression extends HashMap<String, Object> implements CambridgeExpression, Iterable<MapExpression.MapEntry> {
+   MapExpression copy() {
+      MapExpression m = new MapExpression();
+      for (Map.Entry<String, Object> e : entrySet()) {
+         Object value = e.getValue();
+         m.put(e.getKey(), value instanceof CambridgeExpression ? CambridgeExpressionLanguage.copy((CambridgeExpression) value) : value);
+      }
+      return m;
+   }
+
    public Type getType(ExpressionContext context) throws ExpressionEvaluationException {
       return Type.Object;
    }
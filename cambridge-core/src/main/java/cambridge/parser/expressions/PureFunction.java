@@ -0,0 +1,66 @@
+package cambridge.parser.expressions;
+
+import cambridge.ExpressionEvaluationException;
+import cambridge.runtime.ExpressionContext;
+
+/**
+ * Memoizes the results of a function whose result only depends on its parameters.
+ *
+ * <p>The results are memoized only while rendering a template whose factory has
+ * memoization turned on, see {@link cambridge.TemplateFactory#setMemoizePureFunctions(boolean)}.
+ * They are kept in the {@link FunctionResults} table of the render, keyed by the
+ * values of the parameters, so a function called with the same parameters many
+ * times while rendering the template is executed once. Otherwise the wrapped
+ * function is called directly.</p>
+ *
+ * <p>When memoizing, all the parameters are evaluated before the function is called,
+ * even if the wrapped function wouldn't evaluate some of them.</p>
+ */
+public class PureFunction extends FunctionRunner {
+   private final FunctionRunner function;
+
+   public PureFunction(FunctionRunner function) {
+      this.function = function;
+   }
+
+   public FunctionRunner getFunction() {
+      return function;
+   }
+
+   @Override
+   public boolean acceptsParameterCount(int count) {
+      return function.acceptsParameterCount(count);
+   }
+
+   @Override
+   public Object eval(ExpressionContext context, CambridgeExpression[] params) throws ExpressionEvaluationException {
+      FunctionResults results = FunctionResults.get();
+      if (results == null) {
+         return function.eval(context, params);
+      }
+
+      int count = params == null ? 0 : params.length;
+      Object[] values = results.acquire(count);
+      try {
+         for (int i = 0; i < count; i++) {
+            values[i] = params[i].eval(context);
+         }
+
+         int index = FunctionResults.hash(this, values, count);
+         if (results.has(index, this, values, count)) {
+            return results.result(index);
+         }
+
+         CambridgeExpression[] args = new CambridgeExpression[count];
+         for (int i = 0; i < count; i++) {
+            args[i] = new ValueExpression(values[i]);
+         }
+
+         Object result = function.eval(context, args);
+         results.put(index, this, values, count, result);
+         return result;
+      } finally {
+         results.release();
+      }
+   }
+}
@@ -4,38 +4,220 @@ import cambridge.ExpressionEvaluationException;
 import cambridge.runtime.ExpressionContext;
 
 import java.text.MessageFormat;
+import java.util.Locale;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Looks up localized messages from a resource bundle. The first parameter is the
+ * message key and the rest of the parameters are used to format the message with
+ * a {@link MessageFormat}.
+ *
+ * <p>The bundles, messages and parsed message formats are cached per locale. A parsed
+ * format is not shared between threads, each caller takes the idle copy of the format
+ * or clones a new one if another thread is using it. Up to {@link #MaxMissingKeys} keys
+ * that are not in the bundle are remembered per locale. Call {@link #clearCache()} to
+ * pick up changes to the bundles during development.</p>
+ *
  * @author Erdinc Yilmazel
  * Date: Nov 9, 2009
  * Time: 11:58:12 PM
  */
 public class ResourceBundleFunction extends FunctionRunner {
+   public static final String DefaultBaseName = "Cambridge";
+
+   /**
+    * Maximum number of missing keys remembered per locale
+    */
+   public static final int MaxMissingKeys = 1024;
+
+   private final String baseName;
+   private final ConcurrentHashMap<Locale, Messages> messages = new ConcurrentHashMap<Locale, Messages>();
+
+   public ResourceBundleFunction() {
+      this(DefaultBaseName);
+   }
+
+   /**
+    * @param baseName The base name of the resource bundle
+    */
+   public ResourceBundleFunction(String baseName) {
+      this.baseName = baseName;
+   }
+
+   public String getBaseName() {
+      return baseName;
+   }
+
+   /**
+    * Clears the cached messages and the bundles cached by {@link ResourceBundle},
+    * so that the bundles are loaded again on the next lookup. The bundles are
+    * loaded by the class loader of this class, the bundles cached for the context
+    * class loader of the calling thread are cleared as well.
+    */
+   public void clearCache() {
+      messages.clear();
+      ClassLoader loader = ResourceBundleFunction.class.getClassLoader();
+      if (loader != null) {
+         ResourceBundle.clearCache(loader);
+      }
+
+      ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+      if (contextLoader != null && contextLoader != loader) {
+         ResourceBundle.clearCache(contextLoader);
+      }
+   }
+
+   @Override
+   public boolean acceptsParameterCount(int count) {
+      return count >= 1;
+   }
+
    @Override
    public Object eval(ExpressionContext context, CambridgeExpression[] params) throws ExpressionEvaluationException {
-      try {
-         ResourceBundle bundle = ResourceBundle.getBundle("Cambridge", context.getLocale());
+      if (params == null || params.length == 0) {
+         return "";
+      }
+
+      String key = params[0].asString(context);
+      if (key == null) {
+         return "";
+      }
 
-         if (params == null || params.length == 0) {
-            return "";
+      Messages m = getMessages(context.getLocale());
+
+      if (params.length == 1) {
+         return m.getString(key);
+      }
+
+      Message message = m.getMessage(key);
+      if (message == null) {
+         return "";
+      }
+
+      Object[] messageParams = new Object[params.length - 1];
+      for (int i = 1; i < params.length; i++) {
+         messageParams[i - 1] = params[i].eval(context);
+      }
+
+      return message.format(messageParams);
+   }
+
+   private Messages getMessages(Locale locale) {
+      if (locale == null) {
+         locale = Locale.getDefault();
+      }
+
+      Messages m = messages.get(locale);
+      if (m == null) {
+         ResourceBundle bundle;
+         try {
+            bundle = ResourceBundle.getBundle(baseName, locale);
+         } catch (MissingResourceException e) {
+            bundle = null;
+         }
+
+         m = new Messages(bundle, locale);
+         Messages existing = messages.putIfAbsent(locale, m);
+         if (existing != null) {
+            m = existing;
          }
+      }
+
+      return m;
+   }
 
-         if (params.length == 1) {
-            return bundle.getString(params[0].asString(context));
-         } else {
-            String message = bundle.getString(params[0].asString(context));
-            Object[] messageParams = new Object[params.length - 1];
+   /**
+    * The messages of a locale
+    */
+   private static class Messages {
+      private final ResourceBundle bundle;
+      private final Locale locale;
+      private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<String, String>();
+      private final ConcurrentHashMap<String, Message> formats = new ConcurrentHashMap<String, Message>();
+      private final ConcurrentHashMap<String, Boolean> missing = new ConcurrentHashMap<String, Boolean>();
 
-            for (int i = 1; i < params.length; i++) {
-               messageParams[i - 1] = params[i].eval(context);
+      Messages(ResourceBundle bundle, Locale locale) {
+         this.bundle = bundle;
+         this.locale = locale;
+      }
+
+      /**
+       * @return The message or an empty string if there is no message with the given key
+       */
+      String getString(String key) {
+         String s = strings.get(key);
+         if (s == null) {
+            s = lookup(key);
+            if (s == null) {
+               return "";
             }
+            strings.put(key, s);
+         }
 
-            return MessageFormat.format(message, messageParams);
+         return s;
+      }
+
+      /**
+       * @return The parsed message or null if there is no message with the given key
+       */
+      Message getMessage(String key) {
+         Message m = formats.get(key);
+         if (m == null) {
+            String s = lookup(key);
+            if (s == null) {
+               return null;
+            }
+            m = new Message(new MessageFormat(s, locale));
+            formats.put(key, m);
+         }
+
+         return m;
+      }
+
+      /**
+       * @return The message from the bundle, or null if there is none
+       */
+      private String lookup(String key) {
+         if (bundle == null || missing.containsKey(key)) {
+            return null;
+         }
+
+         try {
+            return bundle.getString(key);
+         } catch (MissingResourceException e) {
+            if (missing.size() < MaxMissingKeys) {
+               missing.put(key, Boolean.TRUE);
+            }
+            return null;
+         }
+      }
+   }
+
+   /**
+    * A parsed message. MessageFormat is not thread safe, so the prototype is only
+    * cloned and the messages are formatted with the copies.
+    */
+   private static class Message {
+      private final MessageFormat prototype;
+      private final AtomicReference<MessageFormat> idle = new AtomicReference<MessageFormat>();
+
+      Message(MessageFormat prototype) {
+         this.prototype = prototype;
+      }
+
+      String format(Object[] params) {
+         MessageFormat format = idle.getAndSet(null);
+         if (format == null) {
+            format = (MessageFormat) prototype.clone();
+         }
+         try {
+            return format.format(params);
+         } finally {
+            idle.set(format);
          }
-      } catch (MissingResourceException e) {
-         return "";
       }
    }
 }
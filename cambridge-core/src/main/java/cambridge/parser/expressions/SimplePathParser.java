@@ -0,0 +1,164 @@
+package cambridge.parser.expressions;
+
+/**
+ * Parses the most common kind of expressions, plain variable paths like
+ * <code>user.name</code>, <code>self.items[0].title</code> or
+ * <code>map['key']</code>, without going through the ANTLR generated lexer and
+ * parser.
+ *
+ * <p>The recognized subset is a variable name followed by property names and
+ * brackets containing a decimal integer or a string without escape sequences.
+ * Anything else, including whitespace inside the path, keywords in property names
+ * and non ASCII identifiers, is left to the full parser, so both parsers build
+ * the same expression for every input this parser accepts.</p>
+ */
+final class SimplePathParser {
+   private final String source;
+   private final int end;
+   private int pos;
+
+   private SimplePathParser(String source, int start, int end) {
+      this.source = source;
+      this.end = end;
+      pos = start;
+   }
+
+   /**
+    * @param source Expression source
+    * @return The parsed variable expression, or null if the source is not a simple path
+    */
+   static VarExpression parse(String source) {
+      int start = 0;
+      int end = source.length();
+      while (start < end && isWhitespace(source.charAt(start))) {
+         start++;
+      }
+      while (end > start && isWhitespace(source.charAt(end - 1))) {
+         end--;
+      }
+
+      return new SimplePathParser(source, start, end).parsePath();
+   }
+
+   private VarExpression parsePath() {
+      String name = identifier();
+      if (name == null || isKeyword(name) && !isVariableKeyword(name)) {
+         return null;
+      }
+
+      if (pos == end) {
+         return new VarExpression(name);
+      }
+
+      // Parse the whole path first, so nothing is created for expressions that are not paths
+      int start = pos;
+      int count = 0;
+      while (pos < end) {
+         char c = source.charAt(pos);
+         if (c == '.') {
+            pos++;
+            String property = identifier();
+            if (property == null || isKeyword(property)) {
+               return null;
+            }
+         } else if (c == '[') {
+            pos++;
+            if (index() == null || pos == end || source.charAt(pos) != ']') {
+               return null;
+            }
+            pos++;
+         } else {
+            return null;
+         }
+         count++;
+      }
+
+      VarExpression e = new VarExpression(name);
+      pos = start;
+      for (int i = 0; i < count; i++) {
+         if (source.charAt(pos++) == '.') {
+            e.addProperty(new IdentifierVarProperty(identifier()));
+         } else {
+            e.addProperty(new MapVarProperty(index()));
+            pos++;
+         }
+      }
+
+      return e;
+   }
+
+   private String identifier() {
+      int start = pos;
+      if (pos == end || !isLetter(source.charAt(pos))) {
+         return null;
+      }
+
+      pos++;
+      while (pos < end && (isLetter(source.charAt(pos)) || isDigit(source.charAt(pos)))) {
+         pos++;
+      }
+
+      if (pos < end && source.charAt(pos) >= 128) {
+         // Non ASCII identifier characters are handled by the full parser
+         return null;
+      }
+
+      return source.substring(start, pos);
+   }
+
+   private CambridgeExpression index() {
+      if (pos == end) {
+         return null;
+      }
+
+      char c = source.charAt(pos);
+      if (c == '\'' || c == '"') {
+         for (int i = pos + 1; i < end; i++) {
+            char ch = source.charAt(i);
+            if (ch == c) {
+               String value = source.substring(pos + 1, i);
+               pos = i + 1;
+               return new StringLiteral(value);
+            }
+            if (ch == '\\' || ch == '\r' || ch == '\n') {
+               // Escape sequences are handled by the full parser
+               return null;
+            }
+         }
+         return null;
+      }
+
+      int start = pos;
+      while (pos < end && isDigit(source.charAt(pos))) {
+         pos++;
+      }
+
+      int length = pos - start;
+      if (length == 0 || length > 9 || length > 1 && source.charAt(start) == '0') {
+         // Octal and numbers that may not fit in an int are handled by the full parser
+         return null;
+      }
+
+      return new IntLiteral(Integer.parseInt(source.substring(start, pos)));
+   }
+
+   private static boolean isLetter(char c) {
+      return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == '$';
+   }
+
+   private static boolean isDigit(char c) {
+      return c >= '0' && c <= '9';
+   }
+
+   private static boolean isWhitespace(char c) {
+      return c == ' ' || c == '\r' || c == '\t' || c == '\n' || c == '\u000C';
+   }
+
+   private static boolean isVariableKeyword(String s) {
+      return "self".equals(s) || "parent".equals(s) || "iter".equals(s);
+   }
+
+   private static boolean isKeyword(String s) {
+      return isVariableKeyword(s) || "super".equals(s) || "true".equals(s) || "false".equals(s) || "null".equals(s);
+   }
+}
@@ -1,5 +1,7 @@
 package cambridge.parser.expressions;
 
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 
@@ -7,11 +9,33 @@ import cambridge.ExpressionEvaluationException;
 import cambridge.runtime.ExpressionContext;
 
 /**
+ * Calls a static method with the values of the function parameters. The number
+ * of parameters is checked when the expression calling the function is parsed.
+ * If the method has variable arity, the trailing parameters are passed in an
+ * array unless a single array value is given for them.
+ *
+ * <p>Once it has been called often enough, see {@link #setCompileThreshold(int)},
+ * a method with a fixed number of parameters is called from an {@link Invoker}
+ * generated by the {@link InvokerCompiler}, instead of through reflection.</p>
+ *
  * Author: Erdinc Yilmazel
  * Date: 9/12/11
  */
 public class StaticMethodCaller extends FunctionRunner {
-    Method method;
+    private static volatile int compileThreshold;
+
+    final Method method;
+    private final int parameterCount;
+    private final boolean varArgs;
+    private final Class<?> varArgsType;
+    private final Class<?> varArgsComponentType;
+
+    private volatile Invoker invoker;
+    private volatile boolean reflectOnly;
+    private volatile boolean queued;
+
+    // Races on the counter only delay the compilation
+    private int count;
 
     public StaticMethodCaller(Method method) {
         if ((method.getModifiers() & Modifier.STATIC) == 0) {
@@ -19,35 +43,163 @@ public class StaticMethodCaller extends FunctionRunner {
         }
         method.setAccessible(true);
         this.method = method;
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        parameterCount = parameterTypes.length;
+        varArgs = method.isVarArgs();
+        varArgsType = varArgs ? parameterTypes[parameterCount - 1] : null;
+        varArgsComponentType = varArgs ? varArgsType.getComponentType() : null;
+    }
+
+    /**
+     * @return The number of calls after which a static method is called from a
+     *         generated invoker, 0 if static methods are always invoked through reflection
+     */
+    public static int getCompileThreshold() {
+        return compileThreshold;
+    }
+
+    /**
+     * Sets the number of calls after which the static methods with a fixed number of
+     * parameters are called from generated classes instead of being invoked through
+     * reflection. Static methods are invoked through reflection only by default.
+     * Generating the invokers requires the system Java compiler at runtime. They are
+     * compiled on a background thread, and the methods are invoked through reflection
+     * until they are ready.
+     *
+     * @param compileThreshold Number of calls, 0 to disable the generated invokers
+     */
+    public static void setCompileThreshold(int compileThreshold) {
+        StaticMethodCaller.compileThreshold = compileThreshold;
+    }
+
+    boolean isGenerated() {
+        return invoker != null;
+    }
+
+    private void profile() {
+        int threshold = compileThreshold;
+        if (threshold > 0 && ++count >= threshold) {
+            submit();
+        }
+    }
+
+    private synchronized void submit() {
+        if (queued || invoker != null || reflectOnly) {
+            return;
+        }
+
+        if (!InvokerCompiler.canGenerate(method)) {
+            reflectOnly = true;
+            return;
+        }
+
+        queued = true;
+        InvokerCompiler.submit(this);
+    }
+
+    /**
+     * Called by the invoker compiler when the invoker has been generated
+     */
+    synchronized void generated(Invoker invoker) {
+        this.invoker = invoker;
+        queued = false;
+    }
+
+    /**
+     * Called by the invoker compiler when the invoker could not be generated
+     */
+    synchronized void generationFailed() {
+        reflectOnly = true;
+        queued = false;
+    }
+
+    @Override
+    public boolean acceptsParameterCount(int count) {
+        return varArgs ? count >= parameterCount - 1 : count == parameterCount;
     }
 
     @Override
     public Object eval(ExpressionContext context, CambridgeExpression[] params) throws ExpressionEvaluationException {
-        Class<?>[] parameterTypes = method.getParameterTypes();
-        if (parameterTypes != null && (params == null || parameterTypes.length != params.length)) {
+        int count = params == null ? 0 : params.length;
+        if (!acceptsParameterCount(count)) {
             throw new ExpressionEvaluationException("Invalid number of parameters provided for calling static method " + method.toString());
         }
 
+        Invoker generated = invoker;
+        if (generated == null && !reflectOnly && !queued) {
+            profile();
+        }
+
         try {
-            if (params == null || params.length == 0) {
-                return method.invoke(null);
+            if (generated != null) {
+                return generated.invoke(context, params);
             }
 
-            Object[] args = new Object[params.length];
+            if (parameterCount == 0) {
+                return method.invoke(null);
+            }
 
-            for (int i = 0, paramsLength = params.length; i < paramsLength; i++) {
-                CambridgeExpression e = params[i];
+            Object[] args = new Object[parameterCount];
+            int fixed = varArgs ? parameterCount - 1 : parameterCount;
+            for (int i = 0; i < fixed; i++) {
+                args[i] = params[i].eval(context);
+            }
 
-                args[i] = e.eval(context);
-                if (method.isVarArgs() && i == params.length - 1 && parameterTypes != null && !(parameterTypes[i].isAssignableFrom(args[i].getClass()))) {
-                    args[i] = new Object[] {args[i]};
-                }
+            if (varArgs) {
+                args[fixed] = evalVarArgs(context, params, fixed);
             }
 
             return method.invoke(null, args);
-
+        } catch (ExpressionEvaluationException e) {
+            throw e;
         } catch (Exception e) {
             throw new ExpressionEvaluationException("Error calling static method " + method.toString(), e);
         }
     }
+
+    private Object evalVarArgs(ExpressionContext context, CambridgeExpression[] params, int start) throws ExpressionEvaluationException {
+        int count = params.length - start;
+        if (count == 1) {
+            Object value = params[start].eval(context);
+            if (value == null || varArgsType.isInstance(value)) {
+                return value;
+            }
+
+            Object array = Array.newInstance(varArgsComponentType, 1);
+            Array.set(array, 0, value);
+            return array;
+        }
+
+        Object array = Array.newInstance(varArgsComponentType, count);
+        for (int i = 0; i < count; i++) {
+            Array.set(array, i, params[start + i].eval(context));
+        }
+        return array;
+    }
+
+    /**
+     * Calls the method with the values of the function parameters. Implemented by the
+     * generated classes.
+     */
+    public abstract static class Invoker {
+        private final Method method;
+
+        protected Invoker(Method method) {
+            this.method = method;
+        }
+
+        /**
+         * @throws InvocationTargetException If the method throws an exception
+         */
+        public abstract Object invoke(ExpressionContext context, CambridgeExpression[] params) throws Exception;
+
+        /**
+         * Invokes the method through reflection, for the values that need to be
+         * converted to the parameter types
+         */
+        protected final Object invokeReflectively(Object[] args) throws Exception {
+            return method.invoke(null, args);
+        }
+    }
 }
@@ -0,0 +1,238 @@
+package cambridge.parser.expressions;
+
+import cambridge.ExpressionEvaluationException;
+import cambridge.runtime.BackgroundCompiler;
+import cambridge.runtime.ExpressionContext;
+
+import java.util.Collection;
+
+/**
+ * Interprets an expression until it has been evaluated a number of times and then
+ * replaces it with a compiled version, see {@link ExpressionCompiler}. The expression
+ * is compiled by the {@link BackgroundCompiler}, it is interpreted until the compiled
+ * version is ready.
+ *
+ * <p>The interpreted expression keeps collecting type information while it runs.
+ * If the compiled code meets a type it was not specialized for, it completes the
+ * evaluation with the interpreter and invalidates itself. The expression is then
+ * profiled again before it is recompiled. An expression that is invalidated too
+ * often stays interpreted.</p>
+ */
+class TieredExpression implements CambridgeExpression {
+   private static final int MaxCompilations = 3;
+
+   private final CambridgeExpression interpreted;
+   private final String source;
+   private final CambridgeExpressionLanguage language;
+   private final int threshold;
+
+   private volatile CompiledExpression compiled;
+   private volatile boolean interpretOnly;
+   private volatile boolean queued;
+
+   // Races on the counter only delay the compilation
+   private int count;
+   private int compilations;
+
+   TieredExpression(CambridgeExpression interpreted, String source, CambridgeExpressionLanguage language, int threshold) {
+      this.interpreted = interpreted;
+      this.source = source;
+      this.language = language;
+      this.threshold = threshold;
+   }
+
+   CambridgeExpression getInterpreted() {
+      return interpreted;
+   }
+
+   boolean isCompiled() {
+      return compiled != null;
+   }
+
+   private void profile() {
+      if (!interpretOnly && !queued && ++count >= threshold) {
+         submit();
+      }
+   }
+
+   private synchronized void submit() {
+      if (queued || compiled != null || interpretOnly) {
+         return;
+      }
+
+      compilations++;
+      queued = true;
+      BackgroundCompiler.submit(new CompileTask(this, ExpressionCompiler.getClassLoader()));
+   }
+
+   /**
+    * Called by the background compiler when the expression has been compiled
+    */
+   synchronized void compiled(CompiledExpression c) {
+      compiled = c;
+      queued = false;
+   }
+
+   /**
+    * Called by the background compiler when the expression could not be compiled
+    */
+   void compilationFailed(Exception e) {
+      synchronized (this) {
+         interpretOnly = true;
+         queued = false;
+      }
+      language.compilationFailed(source, e);
+   }
+
+   private synchronized void deoptimize(CompiledExpression c) {
+      if (compiled == c) {
+         compiled = null;
+         count = 0;
+         if (compilations >= MaxCompilations) {
+            interpretOnly = true;
+         }
+      }
+   }
+
+   public Type getType(ExpressionContext context) throws ExpressionEvaluationException {
+      return interpreted.getType(context);
+   }
+
+   public Object eval(ExpressionContext context) throws ExpressionEvaluationException {
+      CompiledExpression c = compiled;
+      if (c == null) {
+         profile();
+         return interpreted.eval(context);
+      }
+
+      Object value = c.eval(context);
+      if (c.isInvalidated()) {
+         deoptimize(c);
+      }
+      return value;
+   }
+
+   public boolean asBoolean(ExpressionContext context) throws ExpressionEvaluationException {
+      CompiledExpression c = compiled;
+      if (c == null) {
+         profile();
+         return interpreted.asBoolean(context);
+      }
+
+      boolean value = c.asBoolean(context);
+      if (c.isInvalidated()) {
+         deoptimize(c);
+      }
+      return value;
+   }
+
+   public int asInt(ExpressionContext context) throws ExpressionEvaluationException {
+      CompiledExpression c = compiled;
+      if (c == null) {
+         profile();
+         return interpreted.asInt(context);
+      }
+
+      int value = c.asInt(context);
+      if (c.isInvalidated()) {
+         deoptimize(c);
+      }
+      return value;
+   }
+
+   public float asFloat(ExpressionContext context) throws ExpressionEvaluationException {
+      CompiledExpression c = compiled;
+      if (c == null) {
+         profile();
+         return interpreted.asFloat(context);
+      }
+
+      float value = c.asFloat(context);
+      if (c.isInvalidated()) {
+         deoptimize(c);
+      }
+      return value;
+   }
+
+   public double asDouble(ExpressionContext context) throws ExpressionEvaluationException {
+      CompiledExpression c = compiled;
+      if (c == null) {
+         profile();
+         return interpreted.asDouble(context);
+      }
+
+      double value = c.asDouble(context);
+      if (c.isInvalidated()) {
+         deoptimize(c);
+      }
+      return value;
+   }
+
+   public long asLong(ExpressionContext context) throws ExpressionEvaluationException {
+      CompiledExpression c = compiled;
+      if (c == null) {
+         profile();
+         return interpreted.asLong(context);
+      }
+
+      long value = c.asLong(context);
+      if (c.isInvalidated()) {
+         deoptimize(c);
+      }
+      return value;
+   }
+
+   public String asString(ExpressionContext context) throws ExpressionEvaluationException {
+      CompiledExpression c = compiled;
+      if (c == null) {
+         profile();
+         return interpreted.asString(context);
+      }
+
+      String value = c.asString(context);
+      if (c.isInvalidated()) {
+         deoptimize(c);
+      }
+      return value;
+   }
+
+   /**
+    * Generates the compiled expression on the compiler thread, with the types
+    * observed by the interpreted expression until then
+    */
+   private static final class CompileTask implements BackgroundCompiler.Task {
+      private final TieredExpression expression;
+      private final ClassLoader loader;
+      private final ExpressionCompiler compiler;
+
+      CompileTask(TieredExpression expression, ClassLoader loader) {
+         this.expression = expression;
+         this.loader = loader;
+         this.compiler = new ExpressionCompiler(loader);
+      }
+
+      public ClassLoader getClassLoader() {
+         return loader;
+      }
+
+      public String getClassName() {
+         return compiler.getClassName();
+      }
+
+      public String generate() throws Exception {
+         return compiler.generate(expression.getInterpreted());
+      }
+
+      public Collection<Class<?>> getReferencedClasses() {
+         return compiler.getReferencedClasses();
+      }
+
+      public void compiled(Class<?> c) throws Exception {
+         expression.compiled(compiler.newInstance(c));
+      }
+
+      public void failed(Exception e) {
+         expression.compilationFailed(e);
+      }
+   }
+}
@@ -17,6 +17,18 @@ public class UnaryExpression implements CambridgeExpression {
       this.expression = expression;
    }
 
+   UnaryExpression copy() {
+      return new UnaryExpression(operator, CambridgeExpressionLanguage.copy(expression));
+   }
+
+   Operator getOperator() {
+      return operator;
+   }
+
+   CambridgeExpression getExpression() {
+      return expression;
+   }
+
    public Type getType(ExpressionContext context) throws ExpressionEvaluationException {
       if (operator == Operator.Not) {
          return Type.Boolean;
@@ -0,0 +1,77 @@
+package cambridge.parser.expressions;
+
+import cambridge.ExpressionEvaluationException;
+import cambridge.runtime.ExpressionContext;
+
+/**
+ * An expression whose value has already been computed. The value is converted
+ * the same way {@link VarExpression} converts the values of variables.
+ */
+class ValueExpression implements CambridgeExpression {
+   private final Object value;
+
+   ValueExpression(Object value) {
+      this.value = value;
+   }
+
+   public Type getType(ExpressionContext context) throws ExpressionEvaluationException {
+      Object o = value;
+      if (o instanceof Boolean) {
+         return Type.Boolean;
+      }
+      if (o instanceof Integer) {
+         return Type.Int;
+      }
+      if (o instanceof Long) {
+         return Type.Long;
+      }
+      if (o instanceof Float) {
+         return Type.Float;
+      }
+      if (o instanceof Double) {
+         return Type.Double;
+      }
+      if (o instanceof String) {
+         return Type.String;
+      }
+      return o == null ? Type.Null : Type.Object;
+   }
+
+   public Object eval(ExpressionContext context) {
+      return value;
+   }
+
+   public boolean asBoolean(ExpressionContext context) {
+      Object o = value;
+      if (o instanceof Boolean) {
+         return (Boolean) o;
+      }
+      if (o instanceof Number) {
+         return ((Number) o).intValue() != 0;
+      }
+      if (o instanceof String) {
+         return !"".equals(o);
+      }
+      return o != null;
+   }
+
+   public int asInt(ExpressionContext context) {
+      return value instanceof Number ? ((Number) value).intValue() : 0;
+   }
+
+   public float asFloat(ExpressionContext context) {
+      return value instanceof Number ? ((Number) value).floatValue() : 0;
+   }
+
+   public double asDouble(ExpressionContext context) {
+      return value instanceof Number ? ((Number) value).doubleValue() : 0;
+   }
+
+   public long asLong(ExpressionContext context) {
+      return value instanceof Number ? ((Number) value).longValue() : 0;
+   }
+
+   public String asString(ExpressionContext context) {
+      return String.valueOf(value);
+   }
+}
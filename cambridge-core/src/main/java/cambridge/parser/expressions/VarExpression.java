@@ -3,8 +3,8 @@ package cambridge.parser.expressions;
 import cambridge.ExpressionEvaluationException;
 import cambridge.runtime.ExpressionContext;
 import cambridge.runtime.PropertyAccessException;
-import cambridge.runtime.PropertyUtils;
 
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -16,10 +16,56 @@ import java.util.Map;
  */
 public class VarExpression implements CambridgeExpression {
    private final String varName;
+   private final int slot;
    private ArrayList<VarProperty> properties;
 
    public VarExpression(String varName) {
       this.varName = varName;
+      slot = VariableSlots.getSlot(varName);
+   }
+
+   private VarExpression(String varName, int slot) {
+      this.varName = varName;
+      this.slot = slot;
+   }
+
+   /**
+    * @return A copy of this expression whose properties have their own inline caches
+    */
+   VarExpression copy() {
+      VarExpression v = new VarExpression(varName, slot);
+      if (properties != null) {
+         v.properties = new ArrayList<VarProperty>(properties.size());
+         for (VarProperty p : properties) {
+            if (p instanceof IdentifierVarProperty) {
+               v.properties.add(new IdentifierVarProperty(((IdentifierVarProperty) p).name));
+            } else if (p instanceof MapVarProperty) {
+               v.properties.add(new MapVarProperty(CambridgeExpressionLanguage.copy(((MapVarProperty) p).expression)));
+            } else {
+               v.properties.add(p);
+            }
+         }
+      }
+      return v;
+   }
+
+   private Object getVariable(ExpressionContext context) {
+      if (slot != -1 && context instanceof ArrayExpressionContext) {
+         return ((ArrayExpressionContext) context).get(slot);
+      }
+      return context.get(varName);
+   }
+
+   String getVarName() {
+      return varName;
+   }
+
+   int getSlot() {
+      return slot;
+   }
+
+   List<VarProperty> getProperties() {
+      return properties;
    }
 
    public void addProperty(VarProperty p) {
@@ -55,38 +101,56 @@ public class VarExpression implements CambridgeExpression {
 
    public Object eval(ExpressionContext context) throws ExpressionEvaluationException {
       if (properties == null) {
-         return context.get(varName);
+         return getVariable(context);
       }
 
-      PropertyUtils utils = PropertyUtils.instance();
-
-      Object object = context.get(varName);
+      Object object = getVariable(context);
       if (object == null) {
          return null;
       }
-      for (VarProperty property : properties) {
+
+      return evalFrom(0, object, context);
+   }
+
+   /**
+    * Evaluates the properties of this expression starting with the given one
+    *
+    * @param index  Index of the first property to read
+    * @param object The object to read the property from
+    * @return The value of the expression
+    */
+   Object evalFrom(int index, Object object, ExpressionContext context) throws ExpressionEvaluationException {
+      for (int i = index; i < properties.size(); i++) {
+         VarProperty property = properties.get(i);
          if (property instanceof IdentifierVarProperty) {
             IdentifierVarProperty id = (IdentifierVarProperty) property;
             try {
-               object = utils.getBeanProperty(object, id.name);
+               object = id.get(object);
             } catch (PropertyAccessException e) {
                throw new ExpressionEvaluationException(e);
             }
          } else {
-            MapVarProperty m = (MapVarProperty) property;
-            if (object instanceof Map) {
-               object = ((Map<?,?>) object).get(m.expression.eval(context));
-            } else if (object instanceof List) {
-               object = ((List<?>) object).get(m.expression.asInt(context));
-            } else if (object instanceof Object[]) {
-               object = ((Object[]) object)[m.expression.asInt(context)];
-            }
+            object = getIndexed((MapVarProperty) property, object, context);
          }
       }
 
       return object;
    }
 
+   static Object getIndexed(MapVarProperty m, Object object, ExpressionContext context) throws ExpressionEvaluationException {
+      if (object instanceof Map) {
+         return ((Map<?,?>) object).get(m.expression.eval(context));
+      } else if (object instanceof List) {
+         return ((List<?>) object).get(m.expression.asInt(context));
+      } else if (object instanceof Object[]) {
+         return ((Object[]) object)[m.expression.asInt(context)];
+      } else if (object != null && object.getClass().isArray()) {
+         return Array.get(object, m.expression.asInt(context));
+      }
+
+      return object;
+   }
+
    public boolean asBoolean(ExpressionContext context) throws ExpressionEvaluationException {
       Object o = eval(context);
 
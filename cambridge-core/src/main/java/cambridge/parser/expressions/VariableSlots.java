@@ -0,0 +1,98 @@
+package cambridge.parser.expressions;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns an integer slot to each template variable name. Variable expressions
+ * resolve their slot once when the template is loaded, and read the variable
+ * from an {@link ArrayExpressionContext} by index while rendering.
+ *
+ * <p>Slots are shared by all the templates and are only assigned while the
+ * expressions of a template are parsed, so their number is bounded by the
+ * variable names that appear in the templates. Variables that are put into a
+ * context at runtime never get a slot, they are kept in a map by the context.</p>
+ */
+public final class VariableSlots
+{
+    /**
+     * Maximum number of slots. Protects against unbounded growth when
+     * variable names are generated dynamically.
+     */
+    public static final int MaxSlots = 4096;
+
+    private static final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+    private static volatile String[] names = new String[64];
+    private static volatile int count;
+
+    private VariableSlots()
+    {
+    }
+
+    /**
+     * Returns the slot of the given variable, assigning a new one if needed.
+     * Only expressions call this when they are parsed.
+     *
+     * @param name Variable name
+     * @return Slot index, or -1 if there are no more slots available
+     */
+    public static int getSlot(String name)
+    {
+        Integer slot = slots.get(name);
+        if (slot != null)
+        {
+            return slot;
+        }
+
+        synchronized (slots)
+        {
+            slot = slots.get(name);
+            if (slot == null)
+            {
+                if (count >= MaxSlots)
+                {
+                    return -1;
+                }
+                slot = count;
+                if (slot == names.length)
+                {
+                    String[] n = new String[names.length * 2];
+                    System.arraycopy(names, 0, n, 0, names.length);
+                    names = n;
+                }
+                names[slot] = name;
+                count = slot + 1;
+                slots.put(name, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Returns the slot of the given variable without assigning a new one.
+     *
+     * @param name Variable name
+     * @return Slot index, or -1 if the variable has no slot
+     */
+    public static int findSlot(String name)
+    {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @param slot Slot index
+     * @return Name of the variable that is assigned to the given slot
+     */
+    public static String getName(int slot)
+    {
+        return names[slot];
+    }
+
+    /**
+     * @return Number of slots assigned so far
+     */
+    public static int size()
+    {
+        return count;
+    }
+}
@@ -0,0 +1,108 @@
+package cambridge.runtime;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the classes that call the getters of {@link PropertyAccessor.MethodAccessor}s
+ * directly, so that often read properties are not invoked through reflection. The
+ * accessors are compiled by the {@link BackgroundCompiler}.
+ */
+final class AccessorCompiler {
+   private static final String PackageName = "cambridge.compiled";
+   private static final AtomicInteger counter = new AtomicInteger();
+
+   private AccessorCompiler() {
+   }
+
+   /**
+    * @return true if a class calling the given method can be generated, the method
+    *         and its declaring class must be public and visible to a class loader
+    *         that can also load the generated class
+    */
+   static boolean canGenerate(Method method) {
+      int modifiers = method.getModifiers();
+      if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers) || method.getReturnType() == void.class) {
+         return false;
+      }
+
+      Class<?> c = method.getDeclaringClass();
+      return JavaSourceCompiler.isAccessible(c) && JavaSourceCompiler.isAvailable() && getClassLoader(c) != null;
+   }
+
+   private static ClassLoader getClassLoader(Class<?> c) {
+      return JavaSourceCompiler.getClassLoader(PropertyAccessor.class, Collections.<Class<?>>singleton(c));
+   }
+
+   /**
+    * Queues the given accessor, which must be accepted by {@link #canGenerate(Method)}.
+    * The accessor is notified when its class has been generated or the compilation failed.
+    */
+   static void submit(PropertyAccessor.MethodAccessor accessor) {
+      BackgroundCompiler.submit(new Task(accessor));
+   }
+
+   /**
+    * Generates an accessor that casts the bean to the declaring class of the method
+    * and calls the method. Exceptions thrown by the method are wrapped the same way
+    * as when it is invoked through reflection.
+    */
+   private static String generate(String className, Method method) {
+      StringBuilder s = new StringBuilder();
+      s.append("package ").append(PackageName).append(";\n\n");
+      s.append("public final class ").append(className).append(" extends cambridge.runtime.PropertyAccessor {\n");
+      s.append("   public ").append(className).append("(String name) {\n");
+      s.append("      super(name);\n");
+      s.append("   }\n\n");
+      s.append("   public Object get(Object bean) throws cambridge.runtime.PropertyAccessException {\n");
+      s.append("      try {\n");
+      s.append("         return ((").append(method.getDeclaringClass().getCanonicalName()).append(") bean).").append(method.getName()).append("();\n");
+      s.append("      } catch (Throwable t) {\n");
+      s.append("         throw new cambridge.runtime.PropertyAccessException(new java.lang.reflect.InvocationTargetException(t), bean, name);\n");
+      s.append("      }\n");
+      s.append("   }\n");
+      s.append("}\n");
+      return s.toString();
+   }
+
+   private static final class Task implements BackgroundCompiler.Task {
+      private final PropertyAccessor.MethodAccessor accessor;
+      private final Method method;
+      private final ClassLoader loader;
+      private final String className;
+
+      Task(PropertyAccessor.MethodAccessor accessor) {
+         this.accessor = accessor;
+         this.method = (Method) accessor.getMember();
+         this.loader = AccessorCompiler.getClassLoader(method.getDeclaringClass());
+         this.className = "Accessor" + counter.incrementAndGet();
+      }
+
+      public ClassLoader getClassLoader() {
+         return loader;
+      }
+
+      public String getClassName() {
+         return PackageName + "." + className;
+      }
+
+      public String generate() {
+         return AccessorCompiler.generate(className, method);
+      }
+
+      public Collection<Class<?>> getReferencedClasses() {
+         return Collections.<Class<?>>singleton(method.getDeclaringClass());
+      }
+
+      public void compiled(Class<?> c) throws Exception {
+         accessor.generated((PropertyAccessor) c.getConstructor(String.class).newInstance(accessor.getName()));
+      }
+
+      public void failed(Exception e) {
+         accessor.generationFailed();
+      }
+   }
+}
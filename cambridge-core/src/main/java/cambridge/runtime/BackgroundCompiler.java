@@ -0,0 +1,227 @@
+package cambridge.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles generated classes on a background thread, so that the threads rendering
+ * templates never wait for the java compiler. Used for the compiled expressions and
+ * the generated property accessors. The tasks queued while a compilation is running
+ * are compiled together, with one run of the compiler per class loader. If a batch
+ * does not compile, its tasks are compiled one by one so that only the failing
+ * tasks fail.
+ *
+ * <p>The thread is started when a task is queued and stops once it has been idle
+ * for a while, so that it does not keep the class loader of an undeployed web
+ * application alive.</p>
+ */
+public final class BackgroundCompiler {
+   /**
+    * Seconds the compiler thread waits for new tasks before it stops
+    */
+   private static final long IdleTimeout = 30;
+
+   private static final LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<Task>();
+   private static final Object lock = new Object();
+
+   private static Thread thread;
+   private static int pending;
+
+   private BackgroundCompiler() {
+   }
+
+   /**
+    * A class to generate and compile. The methods are called on the compiler thread.
+    */
+   public interface Task {
+      /**
+       * @return Class loader that can load the classes referenced by the generated
+       *         source, the compiled class is loaded by a child of this loader
+       */
+      ClassLoader getClassLoader();
+
+      /**
+       * @return Fully qualified name of the generated class
+       */
+      String getClassName();
+
+      /**
+       * @return Java source of the class
+       * @throws Exception If the source can not be generated, the task fails
+       */
+      String generate() throws Exception;
+
+      /**
+       * @return Classes referenced by the source, available once it has been generated
+       */
+      Collection<Class<?>> getReferencedClasses();
+
+      /**
+       * Called with the compiled class
+       *
+       * @throws Exception If the class can not be used, the task fails
+       */
+      void compiled(Class<?> c) throws Exception;
+
+      /**
+       * Called when the source could not be generated, compiled or used
+       */
+      void failed(Exception e);
+   }
+
+   /**
+    * Queues the given task
+    */
+   public static void submit(Task task) {
+      synchronized (lock) {
+         pending++;
+         queue.add(task);
+         if (thread == null) {
+            thread = new Thread(new Worker(), "Cambridge compiler");
+            thread.setDaemon(true);
+            thread.setContextClassLoader(null);
+            thread.start();
+         }
+      }
+   }
+
+   /**
+    * Waits until all the queued tasks have been compiled
+    *
+    * @param timeout Maximum time to wait in milliseconds
+    * @return true if there are no more tasks waiting to be compiled
+    */
+   public static boolean await(long timeout) throws InterruptedException {
+      long end = System.currentTimeMillis() + timeout;
+      synchronized (lock) {
+         while (pending != 0) {
+            long wait = end - System.currentTimeMillis();
+            if (wait <= 0) {
+               return false;
+            }
+            lock.wait(wait);
+         }
+      }
+
+      return true;
+   }
+
+   private static void compile(List<Task> tasks) {
+      IdentityHashMap<ClassLoader, List<Task>> byLoader = new IdentityHashMap<ClassLoader, List<Task>>();
+      for (Task t : tasks) {
+         List<Task> list = byLoader.get(t.getClassLoader());
+         if (list == null) {
+            list = new ArrayList<Task>();
+            byLoader.put(t.getClassLoader(), list);
+         }
+         list.add(t);
+      }
+
+      for (Map.Entry<ClassLoader, List<Task>> e : byLoader.entrySet()) {
+         generate(e.getValue(), e.getKey());
+      }
+   }
+
+   private static void generate(List<Task> tasks, ClassLoader loader) {
+      LinkedHashMap<String, String> sources = new LinkedHashMap<String, String>();
+      LinkedHashSet<Class<?>> referenced = new LinkedHashSet<Class<?>>();
+      ArrayList<Task> generated = new ArrayList<Task>(tasks.size());
+
+      for (Task t : tasks) {
+         try {
+            sources.put(t.getClassName(), t.generate());
+         } catch (Exception e) {
+            t.failed(e);
+            continue;
+         }
+         referenced.addAll(t.getReferencedClasses());
+         generated.add(t);
+      }
+
+      if (!generated.isEmpty()) {
+         compile(generated, sources, referenced, loader);
+      }
+   }
+
+   private static void compile(List<Task> tasks, Map<String, String> sources, Collection<Class<?>> referenced, ClassLoader loader) {
+      Map<String, Class<?>> classes;
+      try {
+         classes = JavaSourceCompiler.compile(sources, loader, referenced);
+      } catch (JavaCompilationException e) {
+         if (tasks.size() == 1) {
+            tasks.get(0).failed(e);
+         } else {
+            // Compile them one by one, so that only the failing tasks fail
+            for (Task t : tasks) {
+               String name = t.getClassName();
+               compile(Collections.singletonList(t), Collections.singletonMap(name, sources.get(name)), t.getReferencedClasses(), loader);
+            }
+         }
+         return;
+      }
+
+      for (Task t : tasks) {
+         try {
+            t.compiled(classes.get(t.getClassName()));
+         } catch (Exception e) {
+            t.failed(e);
+         }
+      }
+   }
+
+   private static final class Worker implements Runnable {
+      public void run() {
+         try {
+            process();
+         } finally {
+            synchronized (lock) {
+               if (thread == Thread.currentThread()) {
+                  thread = null;
+               }
+            }
+         }
+      }
+
+      private void process() {
+         ArrayList<Task> batch = new ArrayList<Task>();
+         while (true) {
+            Task task;
+            try {
+               task = queue.poll(IdleTimeout, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+               task = null;
+            }
+
+            if (task == null) {
+               synchronized (lock) {
+                  if (queue.isEmpty()) {
+                     thread = null;
+                     return;
+                  }
+               }
+               continue;
+            }
+
+            batch.add(task);
+            queue.drainTo(batch);
+            try {
+               compile(batch);
+            } finally {
+               synchronized (lock) {
+                  pending -= batch.size();
+                  lock.notifyAll();
+               }
+               batch.clear();
+            }
+         }
+      }
+   }
+}
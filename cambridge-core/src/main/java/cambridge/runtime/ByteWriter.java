@@ -0,0 +1,244 @@
+package cambridge.runtime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A buffered Writer that encodes the characters written to it with a fixed charset
+ * and sends the bytes to an OutputStream or a WritableByteChannel.
+ *
+ * <p>Unlike an OutputStreamWriter, ByteWriter also accepts bytes that are already
+ * encoded with its charset through {@link #writeBytes(byte[])}. Static template
+ * fragments use this to write their pre-encoded contents, so only the output of
+ * the expressions is encoded while rendering. Before such bytes are written, and
+ * when the writer is flushed, the encoder is brought back to its initial state so
+ * that stateful charsets like ISO-2022-JP produce valid output.</p>
+ *
+ * <p>ByteWriter is not thread safe.</p>
+ */
+public class ByteWriter extends Writer implements EscaperAware {
+   private static final int DefaultBufferSize = 8192;
+
+   private final Charset charset;
+   private final CharsetEncoder encoder;
+   private final OutputStream stream;
+   private final WritableByteChannel channel;
+   private final ByteBuffer buffer;
+   private final char[] single = new char[1];
+   private final CharBuffer empty = CharBuffer.wrap(new char[0]);
+   private HtmlEscaper escaper = HtmlEscaper.Legacy;
+
+   /**
+    * Whether characters have been encoded since the encoder was last reset
+    */
+   private boolean dirty;
+
+   /**
+    * A high surrogate at the end of the last write, waiting for its pair.
+    */
+   private char pending;
+
+   public ByteWriter(OutputStream out, Charset charset) {
+      this(out, null, charset, DefaultBufferSize);
+   }
+
+   public ByteWriter(OutputStream out, Charset charset, int bufferSize) {
+      this(out, null, charset, bufferSize);
+   }
+
+   public ByteWriter(WritableByteChannel channel, Charset charset) {
+      this(null, channel, charset, DefaultBufferSize);
+   }
+
+   public ByteWriter(WritableByteChannel channel, Charset charset, int bufferSize) {
+      this(null, channel, charset, bufferSize);
+   }
+
+   private ByteWriter(OutputStream stream, WritableByteChannel channel, Charset charset, int bufferSize) {
+      this.stream = stream;
+      this.channel = channel;
+      this.charset = charset;
+      encoder = charset.newEncoder()
+         .onMalformedInput(CodingErrorAction.REPLACE)
+         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      buffer = ByteBuffer.allocate(bufferSize);
+   }
+
+   /**
+    * @return The charset that this writer encodes the characters with
+    */
+   public Charset getCharset() {
+      return charset;
+   }
+
+   public HtmlEscaper getEscaper() {
+      return escaper;
+   }
+
+   /**
+    * Sets the escaper for the output of the expressions written to this writer
+    *
+    * @param escaper Escaper, the legacy escaper by default
+    */
+   public void setEscaper(HtmlEscaper escaper) {
+      this.escaper = escaper;
+   }
+
+   /**
+    * Writes bytes that are already encoded with the charset of this writer.
+    *
+    * @param b Encoded bytes
+    * @throws IOException If an I/O error occurs
+    */
+   public void writeBytes(byte[] b) throws IOException {
+      writeBytes(b, 0, b.length);
+   }
+
+   /**
+    * Writes bytes that are already encoded with the charset of this writer.
+    *
+    * @param b   Encoded bytes
+    * @param off Offset from which to start writing bytes
+    * @param len Number of bytes to write
+    * @throws IOException If an I/O error occurs
+    */
+   public void writeBytes(byte[] b, int off, int len) throws IOException {
+      if (dirty || pending != 0) {
+         finish(true);
+      }
+
+      if (len > buffer.remaining()) {
+         drain();
+         if (len > buffer.capacity()) {
+            send(ByteBuffer.wrap(b, off, len));
+            return;
+         }
+      }
+
+      buffer.put(b, off, len);
+   }
+
+   @Override
+   public void write(int c) throws IOException {
+      single[0] = (char) c;
+      encode(CharBuffer.wrap(single));
+   }
+
+   @Override
+   public void write(char[] cbuf, int off, int len) throws IOException {
+      encode(CharBuffer.wrap(cbuf, off, len));
+   }
+
+   @Override
+   public void write(String str) throws IOException {
+      encode(CharBuffer.wrap(str));
+   }
+
+   @Override
+   public void write(String str, int off, int len) throws IOException {
+      encode(CharBuffer.wrap(str, off, off + len));
+   }
+
+   @Override
+   public Writer append(CharSequence csq) throws IOException {
+      encode(CharBuffer.wrap(csq == null ? "null" : csq));
+      return this;
+   }
+
+   private void encode(CharBuffer in) throws IOException {
+      if (pending != 0 && in.hasRemaining()) {
+         char[] pair = {pending, in.get()};
+         pending = 0;
+         encode(CharBuffer.wrap(pair));
+      }
+
+      dirty = true;
+      while (true) {
+         CoderResult result = encoder.encode(in, buffer, false);
+         if (result.isOverflow()) {
+            drain();
+         } else {
+            if (in.hasRemaining()) {
+               pending = in.get();
+            }
+            break;
+         }
+      }
+   }
+
+   /**
+    * Ends the encoded output, writing the bytes that a stateful charset needs to
+    * return to its initial state, and resets the encoder.
+    *
+    * @param replacePending Whether a high surrogate that is waiting for its pair
+    *                       is replaced, or kept for the next write
+    */
+   private void finish(boolean replacePending) throws IOException {
+      CharBuffer in = empty;
+      if (replacePending && pending != 0) {
+         single[0] = pending;
+         pending = 0;
+         in = CharBuffer.wrap(single);
+      }
+
+      while (encoder.encode(in, buffer, true).isOverflow()) {
+         drain();
+      }
+      while (encoder.flush(buffer).isOverflow()) {
+         drain();
+      }
+      encoder.reset();
+      dirty = false;
+   }
+
+   private void drain() throws IOException {
+      if (buffer.position() != 0) {
+         buffer.flip();
+         send(buffer);
+         buffer.clear();
+      }
+   }
+
+   private void send(ByteBuffer b) throws IOException {
+      if (stream != null) {
+         stream.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+         b.position(b.limit());
+      } else {
+         while (b.hasRemaining()) {
+            channel.write(b);
+         }
+      }
+   }
+
+   @Override
+   public void flush() throws IOException {
+      if (dirty) {
+         finish(false);
+      }
+      drain();
+      if (stream != null) {
+         stream.flush();
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      if (dirty || pending != 0) {
+         finish(true);
+      }
+      flush();
+      if (stream != null) {
+         stream.close();
+      } else {
+         channel.close();
+      }
+   }
+}
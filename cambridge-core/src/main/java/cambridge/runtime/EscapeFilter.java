@@ -1,5 +1,11 @@
 package cambridge.runtime;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 /**
  * @author Erdinc Yilmazel
  * Date: Nov 8, 2009
@@ -7,14 +13,62 @@ package cambridge.runtime;
  */
 public class EscapeFilter {
    public static String doFilter(String str) {
-      StringBuilder sb = new StringBuilder(str.length());
+      StringWriter sw = new StringWriter(str.length());
+      try {
+         escape(str, sw);
+      } catch (IOException e) {
+         // StringWriter does not throw IOException
+      }
+      return sw.toString();
+   }
+
+   /**
+    * Escapes the string value of the given object and writes it to the writer.
+    * Numbers, booleans and enums which can never contain characters that need
+    * escaping are written directly.
+    *
+    * @param value The value to be escaped, not null
+    * @param out   The writer to write to
+    * @throws IOException If the writer throws IOException
+    */
+   public static void escape(Object value, Writer out) throws IOException {
+      if (value instanceof String) {
+         escape((String) value, out);
+      } else if (value instanceof Boolean) {
+         out.write((Boolean) value ? "true" : "false");
+      } else if (isPlainNumber(value)) {
+         out.write(value.toString());
+      } else if (value instanceof Enum) {
+         Enum e = (Enum) value;
+         String s = e.toString();
+         if (s == e.name() && isAscii(s)) {
+            out.write(s);
+         } else {
+            escape(s, out);
+         }
+      } else {
+         escape(value.toString(), out);
+      }
+   }
+
+   /**
+    * Escapes the given string and writes it to the writer. The parts of the string
+    * that don't need to be escaped are written in bulk without copying.
+    *
+    * @param str The string to be escaped
+    * @param out The writer to write to
+    * @throws IOException If the writer throws IOException
+    */
+   public static void escape(String str, Writer out) throws IOException {
       // true if last char was blank
       boolean lastWasBlankChar = false;
       int len = str.length();
+      int start = 0;
       char c;
 
       for (int i = 0; i < len; i++) {
          c = str.charAt(i);
+         String replacement;
          if (c == ' ') {
             // blank gets extra work,
             // this solves the problem you get if you replace all
@@ -22,40 +76,85 @@ public class EscapeFilter {
             // word breaking
             if (lastWasBlankChar) {
                lastWasBlankChar = false;
-               sb.append("&nbsp;");
+               replacement = "&nbsp;";
             } else {
                lastWasBlankChar = true;
-               sb.append(' ');
+               continue;
             }
          } else {
             lastWasBlankChar = false;
             //
             // HTML Special Chars
             if (c == '"')
-               sb.append("&quot;");
+               replacement = "&quot;";
             else if (c == '&')
-               sb.append("&amp;");
+               replacement = "&amp;";
             else if (c == '<')
-               sb.append("&lt;");
+               replacement = "&lt;";
             else if (c == '>')
-               sb.append("&gt;");
+               replacement = "&gt;";
             else if (c == '\n')
                // Handle Newline
-               sb.append("<br/>");
-            else {
-               int ci = 0xffff & c;
-               if (ci < 160)
-                  // nothing special only 7 Bit
-                  sb.append(c);
-               else {
-                  // Not 7 Bit use the unicode system
-                  sb.append("&#");
-                  sb.append(Integer.toString(ci));
-                  sb.append(';');
-               }
-            }
+               replacement = "<br/>";
+            else if (c < 160)
+               // nothing special only 7 Bit
+               continue;
+            else
+               // Not 7 Bit use the unicode system
+               replacement = null;
+         }
+
+         if (i > start) {
+            out.write(str, start, i - start);
+         }
+         start = i + 1;
+
+         if (replacement != null) {
+            out.write(replacement);
+         } else {
+            writeNumericEntity(c, out);
+         }
+      }
+
+      if (start == 0) {
+         out.write(str);
+      } else if (start < len) {
+         out.write(str, start, len - start);
+      }
+   }
+
+   static void writeNumericEntity(int codePoint, Writer out) throws IOException {
+      out.write('&');
+      out.write('#');
+      int divisor = 1;
+      while (divisor <= codePoint / 10) {
+         divisor *= 10;
+      }
+      while (divisor > 0) {
+         out.write('0' + (codePoint / divisor) % 10);
+         divisor /= 10;
+      }
+      out.write(';');
+   }
+
+   private static boolean isPlainNumber(Object value) {
+      Class<?> c = value.getClass();
+      return c == Integer.class
+         || c == Long.class
+         || c == Double.class
+         || c == Float.class
+         || c == Short.class
+         || c == Byte.class
+         || c == BigDecimal.class
+         || c == BigInteger.class;
+   }
+
+   private static boolean isAscii(String s) {
+      for (int i = 0; i < s.length(); i++) {
+         if (s.charAt(i) >= 128) {
+            return false;
          }
       }
-      return sb.toString();
+      return true;
    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,13 @@
+package cambridge.runtime;
+
+/**
+ * Implemented by the writers that carry the escaper for the output of the
+ * expressions. Templates resolve the escaper once when they start rendering
+ * and pass it to the expressions with the writer, see {@link HtmlEscaper#get(java.io.Writer)}.
+ */
+public interface EscaperAware {
+   /**
+    * @return The escaper for the output written to this writer
+    */
+   HtmlEscaper getEscaper();
+}
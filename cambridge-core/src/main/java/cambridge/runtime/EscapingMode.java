@@ -0,0 +1,37 @@
+package cambridge.runtime;
+
+import java.nio.charset.Charset;
+
+/**
+ * Escaping modes that can be selected for a TemplateFactory.
+ */
+public enum EscapingMode {
+   /**
+    * Escapes the HTML special characters, converts new lines to &lt;br/&gt;, every second
+    * blank in a row to &amp;nbsp; and every character above 159 to a numeric entity,
+    * regardless of the output charset. This is the default.
+    */
+   LEGACY {
+      @Override
+      public HtmlEscaper getEscaper(Charset charset) {
+         return HtmlEscaper.Legacy;
+      }
+   },
+
+   /**
+    * Escapes only the HTML special characters and the characters that can not be
+    * represented in the output charset. Text is written as it is otherwise.
+    */
+   CHARSET {
+      @Override
+      public HtmlEscaper getEscaper(Charset charset) {
+         return HtmlEscaper.forCharset(charset);
+      }
+   };
+
+   /**
+    * @param charset The output charset, null if not known
+    * @return The escaper for the given output charset
+    */
+   public abstract HtmlEscaper getEscaper(Charset charset);
+}
@@ -0,0 +1,28 @@
+package cambridge.runtime;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Passes the output to another writer, carrying the escaper that the expressions
+ * should use. Used when a template is rendered to a writer with an escaping mode
+ * other than {@link EscapingMode#LEGACY}.
+ */
+public class EscapingWriter extends FilterWriter implements EscaperAware {
+   private final HtmlEscaper escaper;
+
+   public EscapingWriter(Writer out, HtmlEscaper escaper) {
+      super(out);
+      this.escaper = escaper;
+   }
+
+   public HtmlEscaper getEscaper() {
+      return escaper;
+   }
+
+   @Override
+   public void write(String str) throws IOException {
+      out.write(str);
+   }
+}
@@ -0,0 +1,112 @@
+package cambridge.runtime;
+
+import cambridge.Cambridge;
+import cambridge.TemplateParsingException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The filters applied to the value of an expression, created when the template
+ * is parsed from filter definitions like <code>dateformat:yyyy-MM-dd</code>.
+ */
+public final class FilterPipeline {
+   private final Filter[] filters;
+   private final WritingFilter writer;
+
+   private FilterPipeline(Filter[] filters) {
+      this.filters = filters;
+      Filter last = filters[filters.length - 1];
+      writer = last instanceof WritingFilter ? (WritingFilter) last : null;
+   }
+
+   /**
+    * Creates and initializes the filters with the given definitions
+    *
+    * @param definitions Filter definitions in the form name[:parameters]
+    * @param line        Line of the expression in the template
+    * @param col         Column of the expression in the template
+    * @return The filter pipeline or null if there are no filters
+    * @throws TemplateParsingException If a filter is unknown or can not be created
+    */
+   public static FilterPipeline create(List<String> definitions, int line, int col) throws TemplateParsingException {
+      ArrayList<Filter> filters = new ArrayList<Filter>();
+      for (String s : definitions) {
+         String name;
+         String params;
+
+         int i = s.indexOf(':');
+         if (i != -1) {
+            name = s.substring(0, i);
+            params = s.substring(i + 1).trim();
+         } else {
+            name = s;
+            params = null;
+         }
+
+         Filter filter = Cambridge.getInstance().getFilter(name, line, col);
+         if (filter != null) {
+            filter.init(params);
+            filters.add(filter);
+         }
+      }
+
+      if (filters.size() == 0) {
+         return null;
+      }
+
+      return new FilterPipeline(filters.toArray(new Filter[filters.size()]));
+   }
+
+   /**
+    * Applies the filters to the given value
+    *
+    * @param o      The value, not null
+    * @param locale The locale of the template, or null for the default locale
+    * @return The filtered value
+    */
+   public Object apply(Object o, Locale locale) {
+      if (locale == null) {
+         locale = Locale.getDefault();
+      }
+
+      Object val = o;
+      for (Filter f : filters) {
+         val = f.doFilter(val, locale);
+      }
+
+      return val;
+   }
+
+   /**
+    * Applies the filters to the given value and writes the result to the output
+    *
+    * @param o       The value, not null
+    * @param locale  The locale of the template, or null for the default locale
+    * @param escaper The escaper to escape the output with, null if the output should not be escaped
+    * @param out     The template output
+    * @throws IOException If the output throws IOException
+    */
+   public void write(Object o, Locale locale, HtmlEscaper escaper, Writer out) throws IOException {
+      if (locale == null) {
+         locale = Locale.getDefault();
+      }
+
+      Object val = o;
+      int last = writer == null ? filters.length : filters.length - 1;
+      for (int i = 0; i < last; i++) {
+         val = filters[i].doFilter(val, locale);
+      }
+
+      if (writer != null) {
+         writer.write(val, locale, escaper, out);
+      } else if (escaper == null) {
+         out.write(val.toString());
+      } else {
+         escaper.escape(val, out);
+      }
+   }
+}
@@ -0,0 +1,170 @@
+package cambridge.runtime;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.FieldPosition;
+import java.text.Format;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Base class of the filters that format values with a {@link java.text.Format}
+ * created from the filter parameters. Format instances are not thread safe, so
+ * a prototype is created once per locale and each thread formats with a copy of
+ * it. The last copy used for a locale is kept with a reusable buffer and handed
+ * to the next caller, so formatting doesn't lock and doesn't create a new format
+ * unless several threads format with the same filter at the same time.
+ */
+public abstract class FormatFilter<F extends Format> implements WritingFilter {
+   private final ConcurrentHashMap<Locale, Formats<F>> formats = new ConcurrentHashMap<Locale, Formats<F>>();
+
+   protected String pattern;
+
+   public void init(String parameters) {
+      pattern = parameters;
+      formats.clear();
+      getFormats(Locale.getDefault());
+   }
+
+   /**
+    * @param pattern The filter parameters
+    * @param locale  The locale
+    * @return A new format for the given locale
+    */
+   protected abstract F createFormat(String pattern, Locale locale);
+
+   /**
+    * @param o A value
+    * @return true if the value can be formatted, otherwise the string value of the object is used
+    */
+   protected abstract boolean accepts(Object o);
+
+   private Formats<F> getFormats(Locale locale) {
+      Formats<F> f = formats.get(locale);
+      if (f == null) {
+         f = new Formats<F>(createFormat(pattern, locale));
+         Formats<F> existing = formats.putIfAbsent(locale, f);
+         if (existing != null) {
+            f = existing;
+         }
+      }
+      return f;
+   }
+
+   public String doFilter(Object o, Locale locale) {
+      if (!accepts(o)) {
+         return o.toString();
+      }
+
+      Formats<F> f = getFormats(locale == null ? Locale.getDefault() : locale);
+      Formatter<F> formatter = f.acquire();
+      try {
+         return formatter.format(o).toString();
+      } finally {
+         f.release(formatter);
+      }
+   }
+
+   /**
+    * Formats the value into a reused buffer and writes the buffer to the output. The
+    * formatted value is only turned into a string if it has to be escaped.
+    */
+   public void write(Object o, Locale locale, HtmlEscaper escaper, Writer out) throws IOException {
+      if (!accepts(o)) {
+         String s = o.toString();
+         if (escaper == null) {
+            out.write(s);
+         } else {
+            escaper.escape(s, out);
+         }
+         return;
+      }
+
+      Formats<F> f = getFormats(locale == null ? Locale.getDefault() : locale);
+      Formatter<F> formatter = f.acquire();
+      try {
+         StringBuffer buffer = formatter.format(o);
+         if (escaper == null || isSafe(buffer)) {
+            formatter.writeTo(out);
+         } else {
+            escaper.escape(buffer.toString(), out);
+         }
+      } finally {
+         f.release(formatter);
+      }
+   }
+
+   /**
+    * @return true if no escaper changes the given text
+    */
+   private static boolean isSafe(StringBuffer buffer) {
+      char last = 0;
+      for (int i = 0, len = buffer.length(); i < len; i++) {
+         char c = buffer.charAt(i);
+         if (c == ' ') {
+            // Consecutive spaces are escaped by the legacy escaper
+            if (last == ' ') {
+               return false;
+            }
+         } else if (c < '!' || c > '~' || c == '&' || c == '<' || c == '>' || c == '"' || c == '\'') {
+            return false;
+         }
+         last = c;
+      }
+      return true;
+   }
+
+   /**
+    * The prototype format of a locale and the formatter that is not in use
+    */
+   private static final class Formats<F extends Format> {
+      private final F prototype;
+      private final AtomicReference<Formatter<F>> idle = new AtomicReference<Formatter<F>>();
+
+      Formats(F prototype) {
+         this.prototype = prototype;
+      }
+
+      @SuppressWarnings("unchecked")
+      Formatter<F> acquire() {
+         Formatter<F> formatter = idle.getAndSet(null);
+         if (formatter == null) {
+            formatter = new Formatter<F>((F) prototype.clone());
+         }
+         return formatter;
+      }
+
+      void release(Formatter<F> formatter) {
+         idle.set(formatter);
+      }
+   }
+
+   /**
+    * A format that is used by one thread at a time, with its output buffer
+    */
+   private static final class Formatter<F extends Format> {
+      private final F format;
+      private final StringBuffer buffer = new StringBuffer(32);
+      private final FieldPosition position = new FieldPosition(0);
+      private char[] chars = new char[32];
+
+      Formatter(F format) {
+         this.format = format;
+      }
+
+      StringBuffer format(Object o) {
+         buffer.setLength(0);
+         return format.format(o, buffer, position);
+      }
+
+      void writeTo(Writer out) throws IOException {
+         int len = buffer.length();
+         if (chars.length < len) {
+            chars = new char[len];
+         }
+         buffer.getChars(0, len, chars, 0);
+         out.write(chars, 0, len);
+      }
+   }
+}
@@ -0,0 +1,179 @@
+package cambridge.runtime;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Escapes the output of the template expressions. The escaper used while
+ * rendering a template is selected once by the {@link EscapingMode} of the
+ * TemplateFactory and the output charset, and is passed to the expressions
+ * with the writer, see {@link EscaperAware}.
+ */
+public abstract class HtmlEscaper {
+   /**
+    * The original escaping behavior, see {@link EscapeFilter}
+    */
+   public static final HtmlEscaper Legacy = new HtmlEscaper() {
+      @Override
+      public void escape(Object value, Writer out) throws IOException {
+         EscapeFilter.escape(value, out);
+      }
+
+      @Override
+      public void escape(String str, Writer out) throws IOException {
+         EscapeFilter.escape(str, out);
+      }
+   };
+
+   private static final ConcurrentHashMap<Charset, HtmlEscaper> escapers = new ConcurrentHashMap<Charset, HtmlEscaper>();
+   private static final HtmlEscaper unicode = new CharsetEscaper(null);
+
+   /**
+    * Returns the escaper that escapes only the HTML special characters and the
+    * characters that can not be represented in the given charset.
+    *
+    * @param charset Output charset. If null, all the characters are assumed to be representable
+    * @return A shared escaper for the charset
+    */
+   public static HtmlEscaper forCharset(Charset charset) {
+      if (charset == null || isUnicode(charset)) {
+         return unicode;
+      }
+
+      HtmlEscaper escaper = escapers.get(charset);
+      if (escaper == null) {
+         escaper = new CharsetEscaper(charset);
+         HtmlEscaper existing = escapers.putIfAbsent(charset, escaper);
+         if (existing != null) {
+            escaper = existing;
+         }
+      }
+
+      return escaper;
+   }
+
+   /**
+    * Returns the escaper carried by the writer, or the legacy escaper if there
+    * is none.
+    *
+    * @param out The writer the template is rendered to
+    * @return Escaper to be used
+    */
+   public static HtmlEscaper get(Writer out) {
+      return out instanceof EscaperAware ? ((EscaperAware) out).getEscaper() : Legacy;
+   }
+
+   private static boolean isUnicode(Charset charset) {
+      String name = charset.name();
+      return name.startsWith("UTF-") || name.equals("GB18030");
+   }
+
+   /**
+    * Escapes the string value of the given object and writes it to the writer.
+    *
+    * @param value The value to be escaped, not null
+    * @param out   The writer to write to
+    * @throws IOException If the writer throws IOException
+    */
+   public void escape(Object value, Writer out) throws IOException {
+      if (value instanceof String) {
+         escape((String) value, out);
+      } else if (value instanceof Boolean || value instanceof Integer || value instanceof Long) {
+         out.write(value.toString());
+      } else {
+         escape(value.toString(), out);
+      }
+   }
+
+   /**
+    * Escapes the given string and writes it to the writer.
+    *
+    * @param str The string to be escaped
+    * @param out The writer to write to
+    * @throws IOException If the writer throws IOException
+    */
+   public abstract void escape(String str, Writer out) throws IOException;
+
+   private static class CharsetEscaper extends HtmlEscaper {
+      /**
+       * Characters that can be encoded in the charset, null if all can be encoded
+       */
+      private final BitSet encodable;
+
+      CharsetEscaper(Charset charset) {
+         if (charset == null) {
+            encodable = null;
+         } else {
+            encodable = new BitSet(Character.MAX_VALUE + 1);
+            CharsetEncoder encoder = charset.newEncoder();
+            for (int c = 128; c <= Character.MAX_VALUE; c++) {
+               if ((c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) && encoder.canEncode((char) c)) {
+                  encodable.set(c);
+               }
+            }
+         }
+      }
+
+      @Override
+      public void escape(String str, Writer out) throws IOException {
+         int len = str.length();
+         int start = 0;
+
+         for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            String replacement;
+            int codePoint = -1;
+            switch (c) {
+               case '"':
+                  replacement = "&quot;";
+                  break;
+               case '&':
+                  replacement = "&amp;";
+                  break;
+               case '<':
+                  replacement = "&lt;";
+                  break;
+               case '>':
+                  replacement = "&gt;";
+                  break;
+               case '\'':
+                  replacement = "&#39;";
+                  break;
+               default:
+                  if (c < 128 || encodable == null || encodable.get(c)) {
+                     continue;
+                  }
+                  replacement = null;
+                  codePoint = c;
+                  if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                     codePoint = Character.toCodePoint(c, str.charAt(i + 1));
+                  }
+            }
+
+            if (i > start) {
+               out.write(str, start, i - start);
+            }
+
+            if (replacement != null) {
+               out.write(replacement);
+            } else {
+               EscapeFilter.writeNumericEntity(codePoint, out);
+               if (codePoint > Character.MAX_VALUE) {
+                  i++;
+               }
+            }
+            start = i + 1;
+         }
+
+         if (start == 0) {
+            out.write(str);
+         } else if (start < len) {
+            out.write(str, start, len - start);
+         }
+      }
+   }
+}
@@ -25,6 +25,14 @@ public class Iter {
         return row;
     }
 
+    /**
+     * Resets this iterator so that it can be reused for another loop
+     */
+    void reset() {
+        row = 1;
+        last = false;
+    }
+
     public void next() {
         row++;
     }
@@ -0,0 +1,15 @@
+package cambridge.runtime;
+
+/**
+ * Thrown by {@link JavaSourceCompiler} when generated source could not be
+ * compiled or loaded. The message contains the diagnostics of the compiler.
+ */
+public class JavaCompilationException extends Exception {
+   public JavaCompilationException(String message) {
+      super(message);
+   }
+
+   public JavaCompilationException(String message, Throwable cause) {
+      super(message, cause);
+   }
+}
@@ -0,0 +1,356 @@
+package cambridge.runtime;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles generated Java source in memory with the system java compiler and
+ * loads the resulting classes. Used by the template and expression compilers.
+ */
+public final class JavaSourceCompiler {
+   private JavaSourceCompiler() {
+   }
+
+   /**
+    * @return true if the system java compiler is available, it is not when running on a JRE
+    */
+   public static boolean isAvailable() {
+      return ToolProvider.getSystemJavaCompiler() != null;
+   }
+
+   /**
+    * @param loader A class loader, null for the bootstrap class loader
+    * @param c      A class
+    * @return true if the generated classes loaded by the given loader can refer to the class
+    */
+   public static boolean isVisible(ClassLoader loader, Class<?> c) {
+      c = getElementType(c);
+      if (c.isPrimitive()) {
+         return true;
+      }
+
+      try {
+         return Class.forName(c.getName(), false, loader) == c;
+      } catch (ClassNotFoundException e) {
+         return false;
+      } catch (LinkageError e) {
+         return false;
+      }
+   }
+
+   /**
+    * @param c A class
+    * @return true if generated code in another package can refer to the class by its
+    *         canonical name, that is the class and its enclosing classes are public.
+    *         Arrays are accessible if their element type is.
+    */
+   public static boolean isAccessible(Class<?> c) {
+      c = getElementType(c);
+      if (c.isPrimitive()) {
+         return true;
+      }
+
+      if (c.getCanonicalName() == null) {
+         return false;
+      }
+
+      for (Class<?> e = c; e != null; e = e.getEnclosingClass()) {
+         if (!Modifier.isPublic(e.getModifiers())) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   /**
+    * Finds the class loader that loads generated classes which extend or use the given
+    * base class and refer to the given classes. The loaders of the referenced classes
+    * are tried first, so that the classes of web applications can be referred to.
+    *
+    * @param base       Class of the library the generated classes depend on
+    * @param referenced Classes referenced by the generated classes
+    * @return A loader that can load all the classes, null if there is no such loader
+    */
+   public static ClassLoader getClassLoader(Class<?> base, Collection<Class<?>> referenced) {
+      for (Class<?> c : referenced) {
+         ClassLoader loader = getElementType(c).getClassLoader();
+         if (loader != null && isVisible(loader, base) && isVisible(loader, referenced)) {
+            return loader;
+         }
+      }
+
+      ClassLoader loader = base.getClassLoader();
+      return isVisible(loader, referenced) ? loader : null;
+   }
+
+   private static boolean isVisible(ClassLoader loader, Collection<Class<?>> classes) {
+      for (Class<?> c : classes) {
+         if (!isVisible(loader, c)) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   private static Class<?> getElementType(Class<?> c) {
+      while (c.isArray()) {
+         c = c.getComponentType();
+      }
+
+      return c;
+   }
+
+   /**
+    * Compiles the given source and loads the class with the given name.
+    *
+    * @param qualifiedName Fully qualified name of the class
+    * @param source        Java source of the class
+    * @param parent        Class loader that can load the classes referenced by the source
+    * @param referenced    Classes referenced by the source that may not be on the class path
+    *                      of the application, like classes of web applications
+    * @return The compiled class
+    * @throws JavaCompilationException If the compiler is not available, or the source
+    *                                  could not be compiled or loaded
+    */
+   public static Class<?> compile(String qualifiedName, String source, ClassLoader parent, Collection<Class<?>> referenced) throws JavaCompilationException {
+      return compile(Collections.singletonMap(qualifiedName, source), parent, referenced).get(qualifiedName);
+   }
+
+   /**
+    * Compiles the given sources with a single run of the compiler and loads the
+    * classes with one class loader.
+    *
+    * @param sources    Java sources keyed by the fully qualified names of their classes
+    * @param parent     Class loader that can load the classes referenced by the sources
+    * @param referenced Classes referenced by the sources that may not be on the class path
+    *                   of the application, like classes of web applications
+    * @return The compiled classes keyed by their names
+    * @throws JavaCompilationException If the compiler is not available, or any of the
+    *                                  sources could not be compiled or loaded
+    */
+   public static Map<String, Class<?>> compile(Map<String, String> sources, ClassLoader parent, Collection<Class<?>> referenced) throws JavaCompilationException {
+      JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+      if (javac == null) {
+         throw new JavaCompilationException("The system java compiler is not available");
+      }
+
+      DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+      StandardJavaFileManager standardFileManager = javac.getStandardFileManager(diagnostics, null, null);
+      MemoryFileManager fileManager = new MemoryFileManager(standardFileManager);
+
+      try {
+         List<String> options = Arrays.asList("-classpath", getClassPath(referenced), "-proc:none", "-nowarn", "-g:none");
+         ArrayList<JavaFileObject> sourceFiles = new ArrayList<JavaFileObject>(sources.size());
+         for (Map.Entry<String, String> e : sources.entrySet()) {
+            sourceFiles.add(new SourceFile(e.getKey(), e.getValue()));
+         }
+
+         Boolean success;
+         try {
+            success = javac.getTask(null, fileManager, diagnostics, options, null, sourceFiles).call();
+         } catch (RuntimeException e) {
+            throw new JavaCompilationException("Could not compile " + sources.keySet(), e);
+         }
+         if (success == null || !success) {
+            StringBuilder message = new StringBuilder("Could not compile ").append(sources.keySet()).append(":");
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+               message.append("\n").append(d.getMessage(null));
+            }
+            throw new JavaCompilationException(message.toString());
+         }
+      } finally {
+         try {
+            fileManager.close();
+         } catch (IOException ignored) {
+         }
+      }
+
+      MemoryClassLoader loader = new MemoryClassLoader(parent, fileManager.classes);
+      LinkedHashMap<String, Class<?>> classes = new LinkedHashMap<String, Class<?>>();
+      try {
+         for (String name : sources.keySet()) {
+            classes.put(name, loader.loadClass(name));
+         }
+      } catch (ClassNotFoundException e) {
+         throw new JavaCompilationException("Could not load the compiled class " + e.getMessage(), e);
+      } catch (LinkageError e) {
+         throw new JavaCompilationException("Could not load the compiled class " + e.getMessage(), e);
+      }
+
+      return classes;
+   }
+
+   /**
+    * Returns the given string as a Java string literal
+    *
+    * @param s The string, may be null
+    * @return Java source of the string literal
+    */
+   public static String literal(String s) {
+      if (s == null) {
+         return "null";
+      }
+
+      StringBuilder b = new StringBuilder(s.length() + 2);
+      b.append('"');
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"':
+               b.append("\\\"");
+               break;
+            case '\\':
+               b.append("\\\\");
+               break;
+            case '\n':
+               b.append("\\n");
+               break;
+            case '\r':
+               b.append("\\r");
+               break;
+            case '\t':
+               b.append("\\t");
+               break;
+            default:
+               if (c < 32 || c > 126) {
+                  String hex = Integer.toHexString(c);
+                  b.append("\\u");
+                  for (int j = hex.length(); j < 4; j++) {
+                     b.append('0');
+                  }
+                  b.append(hex);
+               } else {
+                  b.append(c);
+               }
+         }
+      }
+      b.append('"');
+      return b.toString();
+   }
+
+   private static String getClassPath(Collection<Class<?>> referenced) {
+      LinkedHashSet<String> entries = new LinkedHashSet<String>();
+      addCodeSource(entries, JavaSourceCompiler.class);
+      if (referenced != null) {
+         for (Class<?> c : referenced) {
+            addCodeSource(entries, getElementType(c));
+         }
+      }
+
+      String systemClassPath = System.getProperty("java.class.path");
+      if (systemClassPath != null && systemClassPath.length() != 0) {
+         entries.add(systemClassPath);
+      }
+
+      StringBuilder classPath = new StringBuilder();
+      for (String entry : entries) {
+         if (classPath.length() != 0) {
+            classPath.append(File.pathSeparator);
+         }
+         classPath.append(entry);
+      }
+
+      return classPath.toString();
+   }
+
+   private static void addCodeSource(Collection<String> entries, Class<?> c) {
+      CodeSource codeSource = c.getProtectionDomain().getCodeSource();
+      if (codeSource != null && codeSource.getLocation() != null) {
+         URL location = codeSource.getLocation();
+         try {
+            entries.add(new File(location.toURI()).getPath());
+         } catch (Exception e) {
+            entries.add(location.getPath());
+         }
+      }
+   }
+
+   private static class SourceFile extends SimpleJavaFileObject {
+      private final String source;
+
+      SourceFile(String className, String source) {
+         super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+         this.source = source;
+      }
+
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+         return source;
+      }
+   }
+
+   private static class ClassFile extends SimpleJavaFileObject {
+      private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+      ClassFile(String className) {
+         super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+      }
+
+      @Override
+      public OutputStream openOutputStream() {
+         return bytes;
+      }
+   }
+
+   private static class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+      final HashMap<String, ClassFile> classes = new HashMap<String, ClassFile>();
+
+      MemoryFileManager(JavaFileManager fileManager) {
+         super(fileManager);
+      }
+
+      @Override
+      public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+         ClassFile file = new ClassFile(className);
+         classes.put(className, file);
+         return file;
+      }
+   }
+
+   private static class MemoryClassLoader extends ClassLoader {
+      private final HashMap<String, ClassFile> classes;
+
+      MemoryClassLoader(ClassLoader parent, HashMap<String, ClassFile> classes) {
+         super(parent);
+         this.classes = classes;
+      }
+
+      @Override
+      protected Class<?> findClass(String name) throws ClassNotFoundException {
+         ClassFile file = classes.get(name);
+         if (file == null) {
+            throw new ClassNotFoundException(name);
+         }
+
+         byte[] b = file.bytes.toByteArray();
+         return defineClass(name, b, 0, b.length);
+      }
+   }
+}
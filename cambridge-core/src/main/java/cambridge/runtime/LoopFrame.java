@@ -0,0 +1,68 @@
+package cambridge.runtime;
+
+/**
+ * Holds the state of a loop while it is being executed: the variables of the
+ * enclosing scope that are restored when the loop ends, and the reusable
+ * {@link Super} and {@link Iter} objects of the loop.
+ *
+ * <p>Frames are linked to the frames of the enclosing and the nested loops.
+ * A context that supports it keeps the frames and reuses them for every loop
+ * at the same depth, so that entering a loop does not allocate anything.</p>
+ *
+ * @see LoopScope
+ */
+public final class LoopFrame {
+   private final LoopFrame outer;
+   private LoopFrame inner;
+
+   private final Super parent = new Super(null, null, null);
+   private final Iter iter = new Iter();
+
+   Object savedCurrent;
+   Super savedParent;
+   Iter savedIter;
+
+   public LoopFrame() {
+      this(null);
+   }
+
+   private LoopFrame(LoopFrame outer) {
+      this.outer = outer;
+   }
+
+   /**
+    * @return The frame of a loop nested in this one
+    */
+   public LoopFrame getInner() {
+      if (inner == null) {
+         inner = new LoopFrame(this);
+      }
+      return inner;
+   }
+
+   /**
+    * @return The frame of the enclosing loop, null if this is the outermost loop
+    */
+   public LoopFrame getOuter() {
+      return outer;
+   }
+
+   /**
+    * @return The iterator of this loop, reset to the first row
+    */
+   public Iter newIter() {
+      iter.reset();
+      return iter;
+   }
+
+   Super newParent(Object o, Super s, Iter i) {
+      parent.set(o, s, i);
+      return parent;
+   }
+
+   void save(Object current, Super parent, Iter iter) {
+      savedCurrent = current;
+      savedParent = parent;
+      savedIter = iter;
+   }
+}
@@ -0,0 +1,103 @@
+package cambridge.runtime;
+
+import cambridge.parser.expressions.ArrayExpressionContext;
+import cambridge.parser.expressions.VariableSlots;
+
+/**
+ * Manages the current object, parent and iterator variables of a loop. Entering
+ * the scope saves the variables of the enclosing scope in a {@link LoopFrame} and
+ * makes the current object available through the parent variable, exiting restores
+ * them.
+ *
+ * <p>With an {@link ArrayExpressionContext} the variables are accessed by their
+ * slots and the frames are reused, otherwise a new frame is created for every loop.
+ * A LoopScope is immutable and can be shared by threads.</p>
+ */
+public final class LoopScope {
+   private final String currentName;
+   private final String parentName;
+   private final String iterName;
+
+   private final int currentSlot;
+   private final int parentSlot;
+   private final int iterSlot;
+
+   public LoopScope(String currentName, String parentName, String iterName) {
+      this.currentName = currentName;
+      this.parentName = parentName;
+      this.iterName = iterName;
+      currentSlot = VariableSlots.getSlot(currentName);
+      parentSlot = VariableSlots.getSlot(parentName);
+      iterSlot = VariableSlots.getSlot(iterName);
+   }
+
+   public LoopFrame enter(ExpressionContext context) {
+      LoopFrame frame;
+      if (context instanceof ArrayExpressionContext) {
+         frame = ((ArrayExpressionContext) context).enterLoop();
+      } else {
+         frame = new LoopFrame();
+      }
+
+      Object t = get(context, currentSlot, currentName);
+      Super ts = (Super) get(context, parentSlot, parentName);
+      Iter iter = (Iter) get(context, iterSlot, iterName);
+
+      frame.save(t, ts, iter);
+
+      if (t != null) {
+         put(context, parentSlot, parentName, frame.newParent(t, ts, iter));
+      }
+
+      return frame;
+   }
+
+   public void exit(ExpressionContext context, LoopFrame frame) {
+      put(context, currentSlot, currentName, frame.savedCurrent);
+      put(context, parentSlot, parentName, frame.savedParent);
+      put(context, iterSlot, iterName, frame.savedIter);
+      frame.save(null, null, null);
+
+      if (context instanceof ArrayExpressionContext) {
+         ((ArrayExpressionContext) context).exitLoop();
+      }
+   }
+
+   public void setCurrent(ExpressionContext context, Object value) {
+      put(context, currentSlot, currentName, value);
+   }
+
+   public void setIter(ExpressionContext context, Iter iter) {
+      put(context, iterSlot, iterName, iter);
+   }
+
+   /**
+    * @param context Template context
+    * @return An iterator for the loop that is being executed
+    */
+   public Iter newIter(ExpressionContext context) {
+      if (context instanceof ArrayExpressionContext) {
+         LoopFrame frame = ((ArrayExpressionContext) context).getLoopFrame();
+         if (frame != null) {
+            return frame.newIter();
+         }
+      }
+
+      return new Iter();
+   }
+
+   private static Object get(ExpressionContext context, int slot, String name) {
+      if (slot != -1 && context instanceof ArrayExpressionContext) {
+         return ((ArrayExpressionContext) context).get(slot);
+      }
+      return context.get(name);
+   }
+
+   private static void put(ExpressionContext context, int slot, String name, Object value) {
+      if (slot != -1 && context instanceof ArrayExpressionContext) {
+         ((ArrayExpressionContext) context).put(slot, value);
+      } else {
+         context.put(name, value);
+      }
+   }
+}
@@ -0,0 +1,25 @@
+package cambridge.runtime;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Formats numbers with a DecimalFormat pattern, or with the default number
+ * format of the locale if no pattern is given.
+ */
+public class NumberFormatFilter extends FormatFilter<NumberFormat> {
+   @Override
+   protected NumberFormat createFormat(String pattern, Locale locale) {
+      if (pattern == null || pattern.length() == 0) {
+         return NumberFormat.getInstance(locale);
+      }
+      return new DecimalFormat(pattern, DecimalFormatSymbols.getInstance(locale));
+   }
+
+   @Override
+   protected boolean accepts(Object o) {
+      return o instanceof Number;
+   }
+}
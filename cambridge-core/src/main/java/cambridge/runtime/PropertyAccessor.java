@@ -0,0 +1,291 @@
+package cambridge.runtime;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a named property of the objects of a particular class. Accessors are
+ * resolved once per class and property by {@link PropertyUtils} and are
+ * immutable, so they can be cached and shared by threads.
+ */
+public abstract class PropertyAccessor {
+    protected final String name;
+
+    protected PropertyAccessor(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param bean The object to read the property from, must be an instance of
+     *             the class this accessor was resolved for
+     * @return The value of the property
+     * @throws PropertyAccessException If the property can not be read
+     */
+    public abstract Object get(Object bean) throws PropertyAccessException;
+
+    /**
+     * @return The method or field read by this accessor, null if the property is
+     *         not read from a member of the class
+     */
+    public Member getMember() {
+        return null;
+    }
+
+    /**
+     * Invokes a getter or a method without parameters. The method is made
+     * accessible when it is resolved so that the access checks are not
+     * repeated on every call. Once it has been called often enough, see
+     * {@link PropertyUtils#setCompileThreshold(int)}, the method is called
+     * from an accessor generated by the {@link AccessorCompiler}.
+     */
+    static final class MethodAccessor extends PropertyAccessor {
+        private final Method method;
+
+        private volatile PropertyAccessor generated;
+        private volatile boolean reflectOnly;
+        private volatile boolean queued;
+
+        // Races on the counter only delay the compilation
+        private int count;
+
+        MethodAccessor(String name, Method method) {
+            super(name);
+            method = findPublicMethod(method.getDeclaringClass(), method);
+            this.method = method;
+            try {
+                method.setAccessible(true);
+            } catch (RuntimeException e) {
+                // Public methods can still be invoked
+            }
+        }
+
+        /**
+         * Public methods declared by non public classes can only be invoked through a
+         * public super class or interface if the method can not be made accessible.
+         */
+        private static Method findPublicMethod(Class<?> c, Method method) {
+            if (Modifier.isPublic(c.getModifiers())) {
+                try {
+                    return c.getMethod(method.getName(), method.getParameterTypes());
+                } catch (NoSuchMethodException e) {
+                    return method;
+                }
+            }
+
+            for (Class<?> i : c.getInterfaces()) {
+                Method m = findPublicMethod(i, method);
+                if (m != method) {
+                    return m;
+                }
+            }
+
+            Class<?> superClass = c.getSuperclass();
+            if (superClass != null) {
+                return findPublicMethod(superClass, method);
+            }
+
+            return method;
+        }
+
+        @Override
+        public Member getMember() {
+            return method;
+        }
+
+        boolean isGenerated() {
+            return generated != null;
+        }
+
+        private void profile() {
+            int threshold = PropertyUtils.instance().getCompileThreshold();
+            if (threshold > 0 && ++count >= threshold) {
+                submit();
+            }
+        }
+
+        private synchronized void submit() {
+            if (queued || generated != null || reflectOnly) {
+                return;
+            }
+
+            if (!AccessorCompiler.canGenerate(method)) {
+                reflectOnly = true;
+                return;
+            }
+
+            queued = true;
+            AccessorCompiler.submit(this);
+        }
+
+        /**
+         * Called by the accessor compiler when the accessor has been generated
+         */
+        synchronized void generated(PropertyAccessor accessor) {
+            generated = accessor;
+            queued = false;
+        }
+
+        /**
+         * Called by the accessor compiler when the accessor could not be generated
+         */
+        synchronized void generationFailed() {
+            reflectOnly = true;
+            queued = false;
+        }
+
+        @Override
+        public Object get(Object bean) throws PropertyAccessException {
+            PropertyAccessor g = generated;
+            if (g != null) {
+                return g.get(bean);
+            }
+
+            if (!reflectOnly && !queued) {
+                profile();
+            }
+
+            try {
+                return method.invoke(bean);
+            } catch (InvocationTargetException e) {
+                throw new PropertyAccessException(e, bean, name);
+            } catch (IllegalAccessException e) {
+                throw new PropertyAccessException(e, bean, name);
+            }
+        }
+    }
+
+    /**
+     * Reads a public field
+     */
+    static final class FieldAccessor extends PropertyAccessor {
+        private final Field field;
+
+        FieldAccessor(String name, Field field) {
+            super(name);
+            this.field = field;
+            try {
+                field.setAccessible(true);
+            } catch (RuntimeException e) {
+                // Public fields can still be read
+            }
+        }
+
+        @Override
+        public Member getMember() {
+            return field;
+        }
+
+        @Override
+        public Object get(Object bean) throws PropertyAccessException {
+            try {
+                return field.get(bean);
+            } catch (IllegalAccessException e) {
+                throw new PropertyAccessException(e, bean, name);
+            }
+        }
+    }
+
+    /**
+     * Used for the properties that the class does not have, so that failed
+     * lookups are cached as well
+     */
+    static final class MissingAccessor extends PropertyAccessor {
+        MissingAccessor(String name) {
+            super(name);
+        }
+
+        @Override
+        public Object get(Object bean) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the value mapped to the property name from a Map. If the map has no
+     * such key, the bean property with the same name is read if there is one,
+     * so properties like <code>map.empty</code> keep working.
+     */
+    static final class MapAccessor extends PropertyAccessor {
+        private final PropertyAccessor beanAccessor;
+
+        MapAccessor(String name, PropertyAccessor beanAccessor) {
+            super(name);
+            this.beanAccessor = beanAccessor;
+        }
+
+        @Override
+        public Object get(Object bean) throws PropertyAccessException {
+            Map<?, ?> map = (Map<?, ?>) bean;
+            Object value = map.get(name);
+            if (value != null || beanAccessor == null || map.containsKey(name)) {
+                return value;
+            }
+
+            return beanAccessor.get(bean);
+        }
+    }
+
+    /**
+     * Reads an element of a List by the index given as the property name
+     */
+    static final class ListIndexAccessor extends PropertyAccessor {
+        private final int index;
+
+        ListIndexAccessor(String name, int index) {
+            super(name);
+            this.index = index;
+        }
+
+        @Override
+        public Object get(Object bean) {
+            List<?> list = (List<?>) bean;
+            return index < list.size() ? list.get(index) : null;
+        }
+    }
+
+    /**
+     * Reads an element of an array by the index given as the property name
+     */
+    static final class ArrayIndexAccessor extends PropertyAccessor {
+        private final int index;
+
+        ArrayIndexAccessor(String name, int index) {
+            super(name);
+            this.index = index;
+        }
+
+        @Override
+        public Object get(Object bean) {
+            if (bean instanceof Object[]) {
+                Object[] array = (Object[]) bean;
+                return index < array.length ? array[index] : null;
+            }
+
+            return index < Array.getLength(bean) ? Array.get(bean, index) : null;
+        }
+    }
+
+    /**
+     * Reads the length of an array
+     */
+    static final class ArrayLengthAccessor extends PropertyAccessor {
+        ArrayLengthAccessor(String name) {
+            super(name);
+        }
+
+        @Override
+        public Object get(Object bean) {
+            return Array.getLength(bean);
+        }
+    }
+}
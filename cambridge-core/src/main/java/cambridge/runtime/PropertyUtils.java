@@ -7,8 +7,9 @@ import java.beans.MethodDescriptor;
 import java.beans.ParameterDescriptor;
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -17,82 +18,160 @@ import java.util.concurrent.ConcurrentHashMap;
  * Time: 9:58:38 AM
  */
 public class PropertyUtils {
-    class Property {
-        final Class<?> beanClass;
-        final String name;
+    private static final PropertyUtils instance = new PropertyUtils();
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
+    public static PropertyUtils instance() {
+        return instance;
+    }
 
-            Property property = (Property) o;
-            return beanClass.equals(property.beanClass) && name.equals(property.name);
-        }
+    private PropertyUtils() {
+    }
+
+    /**
+     * Resolved accessors per class and property name. The two level map lets the
+     * accessors be looked up without allocating a key object on each access.
+     */
+    private final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, PropertyAccessor>> accessors = new ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, PropertyAccessor>>();
+
+    private volatile int compileThreshold;
 
-        @Override
-        public int hashCode() {
-            int result = beanClass.hashCode();
-            result = 31 * result + name.hashCode();
-            return result;
+    /**
+     * @return The number of calls after which a getter is read through a generated
+     *         accessor, 0 if getters are always invoked through reflection
+     */
+    public int getCompileThreshold() {
+        return compileThreshold;
+    }
+
+    /**
+     * Sets the number of calls after which the getters read by the property accessors
+     * are called from generated classes instead of being invoked through reflection.
+     * Getters are invoked through reflection only by default. Generating the accessors
+     * requires the system Java compiler at runtime. They are compiled on a background
+     * thread, and the getters are invoked through reflection until they are ready.
+     * Getters of non public classes are always invoked through reflection.
+     *
+     * @param compileThreshold Number of calls, 0 to disable the generated accessors
+     */
+    public void setCompileThreshold(int compileThreshold) {
+        this.compileThreshold = compileThreshold;
+    }
+
+    public Object getBeanProperty(Object bean, String property) throws PropertyAccessException {
+        if (bean == null) {
+            return null;
         }
 
-        Property(Class<?> beanClass, String name) {
-            this.beanClass = beanClass;
-            this.name = name;
+        Class<?> beanClass = bean.getClass();
+        if (beanClass == Super.class) {
+            if (property.equals("super")) {
+                return ((Super) bean).getSuper();
+            }
+
+            bean = ((Super) bean).get();
+            beanClass = bean.getClass();
         }
+
+        return getAccessor(beanClass, property).get(bean);
     }
 
-    private static PropertyUtils instance;
+    /**
+     * Returns the accessor that reads the given property of the objects of the
+     * given class. The accessor is resolved on the first call and cached, including
+     * the accessors of the properties that don't exist, which return null.
+     *
+     * <p>The property names of Maps are looked up as keys. Lists and arrays accept
+     * indexes as property names and arrays have a length property.</p>
+     *
+     * @param beanClass Class of the objects
+     * @param property  Name of the property
+     * @return The accessor, never null
+     * @throws PropertyAccessException If the class can not be introspected
+     */
+    public PropertyAccessor getAccessor(Class<?> beanClass, String property) throws PropertyAccessException {
+        ConcurrentHashMap<String, PropertyAccessor> classAccessors = accessors.get(beanClass);
+        if (classAccessors == null) {
+            classAccessors = new ConcurrentHashMap<String, PropertyAccessor>();
+            ConcurrentHashMap<String, PropertyAccessor> existing = accessors.putIfAbsent(beanClass, classAccessors);
+            if (existing != null) {
+                classAccessors = existing;
+            }
+        }
 
-    public static PropertyUtils instance() {
-        if (instance == null) {
-            instance = new PropertyUtils();
+        PropertyAccessor accessor = classAccessors.get(property);
+        if (accessor != null) {
+            return accessor;
         }
 
-        return instance;
-    }
+        accessor = resolveAccessor(beanClass, property);
+        PropertyAccessor existing = classAccessors.putIfAbsent(property, accessor);
+        if (existing != null) {
+            accessor = existing;
+        }
 
-    private PropertyUtils() {
+        return accessor;
     }
 
-    ConcurrentHashMap<Property, Method> methodCache = new ConcurrentHashMap<Property, Method>();
-    ConcurrentHashMap<Property, Field> fieldCache = new ConcurrentHashMap<Property, Field>();
-
-    public Object getBeanProperty(Object bean, String property) throws PropertyAccessException {
-        try {
-            if (bean == null) {
-                return null;
+    private PropertyAccessor resolveAccessor(Class<?> beanClass, String property) throws PropertyAccessException {
+        if (beanClass.isArray()) {
+            if (property.equals("length")) {
+                return new PropertyAccessor.ArrayLengthAccessor(property);
+            }
+            int index = parseIndex(property);
+            if (index != -1) {
+                return new PropertyAccessor.ArrayIndexAccessor(property, index);
             }
+            return new PropertyAccessor.MissingAccessor(property);
+        }
 
-            Class<?> beanClass = bean.getClass();
-            if (beanClass.equals(Super.class)) {
-                if (property.equals("super")) {
-                    return ((Super) bean).getSuper();
-                }
+        if (Map.class.isAssignableFrom(beanClass)) {
+            return new PropertyAccessor.MapAccessor(property, resolveBeanAccessor(beanClass, property));
+        }
 
-                bean = ((Super) bean).get();
-                beanClass = bean.getClass();
+        if (List.class.isAssignableFrom(beanClass)) {
+            int index = parseIndex(property);
+            if (index != -1) {
+                return new PropertyAccessor.ListIndexAccessor(property, index);
             }
+        }
 
-            Method m;
-            Property p = new Property(beanClass, property);
-            m = methodCache.get(p);
-            if (m != null) {
-                return m.invoke(bean);
+        PropertyAccessor accessor = resolveBeanAccessor(beanClass, property);
+        if (accessor == null) {
+            return new PropertyAccessor.MissingAccessor(property);
+        }
+
+        return accessor;
+    }
+
+    private static int parseIndex(String property) {
+        int length = property.length();
+        if (length == 0 || length > 9) {
+            return -1;
+        }
+
+        int index = 0;
+        for (int i = 0; i < length; i++) {
+            char c = property.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
             }
+            index = index * 10 + (c - '0');
+        }
+
+        return index;
+    }
 
+    private PropertyAccessor resolveBeanAccessor(Class<?> beanClass, String property) throws PropertyAccessException {
+        try {
             BeanInfo beanInfo = Introspector.getBeanInfo(beanClass);
 
             PropertyDescriptor[] descriptors = beanInfo.getPropertyDescriptors();
 
             for (PropertyDescriptor d : descriptors) {
                 if (property.equals(d.getName())) {
-                    m = d.getReadMethod();
+                    Method m = d.getReadMethod();
                     if (m != null) {
-                        m.setAccessible(true);
-                        methodCache.putIfAbsent(p, m);
-                        return m.invoke(bean);
+                        return new PropertyAccessor.MethodAccessor(property, m);
                     }
                 }
             }
@@ -103,37 +182,18 @@ public class PropertyUtils {
 
                 ParameterDescriptor[] parameterDescriptors = d.getParameterDescriptors();
                 if (property.equals(d.getName()) && (d.getMethod().getParameterTypes() == null || d.getMethod().getParameterTypes().length == 0) && ( parameterDescriptors == null || parameterDescriptors.length == 0)) {
-                    m = d.getMethod();
-                    methodCache.putIfAbsent(p, m);
-                    return m.invoke(bean);
+                    return new PropertyAccessor.MethodAccessor(property, d.getMethod());
                 }
             }
 
-            Field f = fieldCache.get(p);
-
             try {
-                if (f != null) {
-                    return f.get(bean);
-                }
-
-                f = beanClass.getField(property);
-
-                if (f != null) {
-                    fieldCache.putIfAbsent(p, f);
-                    return f.get(bean);
-                }
-
+                Field f = beanClass.getField(property);
+                return new PropertyAccessor.FieldAccessor(property, f);
             } catch (NoSuchFieldException e) {
-                //
+                return null;
             }
-
-            return null;
         } catch (IntrospectionException e) {
-            throw new PropertyAccessException(e, bean, property);
-        } catch (InvocationTargetException e) {
-            throw new PropertyAccessException(e, bean, property);
-        } catch (IllegalAccessException e) {
-            throw new PropertyAccessException(e, bean, property);
+            throw new PropertyAccessException(e, beanClass, property);
         }
     }
 
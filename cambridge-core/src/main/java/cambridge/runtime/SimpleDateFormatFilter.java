@@ -1,27 +1,28 @@
 package cambridge.runtime;
 
+import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 
 /**
+ * Formats dates with a SimpleDateFormat pattern.
+ *
  * @author Erdinc Yilmazel
  * Date: Nov 8, 2009
  * Time: 5:16:47 PM
  */
-public class SimpleDateFormatFilter implements Filter {
-   String pattern;
-
-   public String doFilter(Object o, Locale locale) {
-      if (o instanceof Date) {
-         SimpleDateFormat f = new SimpleDateFormat(pattern, locale);
-
-         return f.format((Date) o);
+public class SimpleDateFormatFilter extends FormatFilter<DateFormat> {
+   @Override
+   protected DateFormat createFormat(String pattern, Locale locale) {
+      if (pattern == null) {
+         return DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, locale);
       }
-      return o.toString();
+      return new SimpleDateFormat(pattern, locale);
    }
 
-   public void init(String parameters) {
-      this.pattern = parameters;
+   @Override
+   protected boolean accepts(Object o) {
+      return o instanceof Date;
    }
 }
@@ -6,9 +6,9 @@ package cambridge.runtime;
  * Time: 1:26:57 PM
  */
 public class Super {
-   private final Object o;
-   private final Super s;
-   private final Iter iter;
+   private Object o;
+   private Super s;
+   private Iter iter;
 
    public Super(Object o, Super s, Iter i) {
       this.o = o;
@@ -16,6 +16,15 @@ public class Super {
       this.iter = i;
    }
 
+   /**
+    * Reuses this object for another loop, see {@link LoopFrame}
+    */
+   void set(Object o, Super s, Iter i) {
+      this.o = o;
+      this.s = s;
+      this.iter = i;
+   }
+
    public Object get() {
       return o;
    }
@@ -0,0 +1,25 @@
+package cambridge.runtime;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * A filter that can write its output directly to the template output. When a
+ * WritingFilter is the last filter applied to an expression, its
+ * {@link #write(Object, Locale, HtmlEscaper, Writer)} method is used instead of
+ * {@link #doFilter(Object, Locale)}, so the filtered value doesn't need to be
+ * created as an intermediate object.
+ */
+public interface WritingFilter extends Filter {
+   /**
+    * Writes the filtered value to the output.
+    *
+    * @param o       The value, not null
+    * @param locale  The locale of the template
+    * @param escaper The escaper to escape the output with, null if the output should not be escaped
+    * @param out     The template output
+    * @throws IOException If the output throws IOException
+    */
+   public void write(Object o, Locale locale, HtmlEscaper escaper, Writer out) throws IOException;
+}
@@ -1,8 +1,13 @@
 package cambridge;
 
+import cambridge.runtime.EscapingMode;
+import cambridge.runtime.ExpressionContext;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
@@ -26,4 +31,56 @@ public class ClassPathTemplateLoaderTest {
       Template t = factory.createTemplate();
       assertEquals("<div class=\"\">xxx</div>", t.asString());
    }
+
+   @Test
+   public void testCreateTemplateWithContext() {
+      TemplateFactory factory = loader.newTemplateFactory("cambridge/basic.html", Expressions.cambridgeExpressionLanguage);
+      ExpressionContext context = Expressions.cambridgeExpressionLanguage.createNewContext();
+      context.put("class", "x");
+
+      Template t = factory.createTemplate(context);
+      assertEquals("<div class=\"x\">xxx</div>", t.asString());
+
+      t.setProperty("class", "y");
+      assertEquals("y", context.get("class"));
+   }
+
+   @Test
+   public void testPrintToOutputStream() throws Exception {
+      TemplateFactory factory = loader.newTemplateFactory("cambridge/full.html", Expressions.cambridgeExpressionLanguage);
+      Template t = factory.createTemplate();
+      t.setProperty("var", "\u00c7a\u011fr\u0131 <b>");
+      t.setProperty("id", "test");
+      t.setProperty("condition", true);
+
+      Charset charset = Charset.forName("UTF-8");
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      t.printTo(out, charset);
+
+      assertEquals(t.asString(), new String(out.toByteArray(), charset));
+   }
+
+   @Test
+   public void testCharsetEscaping() throws Exception {
+      TemplateFactory factory = loader.newTemplateFactory("cambridge/basic.html", Expressions.cambridgeExpressionLanguage);
+      factory.setEscapingMode(EscapingMode.CHARSET);
+
+      Template t = factory.createTemplate();
+      t.setProperty("class", "\u00e7\u011f  x");
+
+      Charset charset = Charset.forName("ISO-8859-9");
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      t.printTo(out, charset);
+      assertEquals("<div class=\"\u00e7\u011f  x\">xxx</div>", new String(out.toByteArray(), charset));
+
+      out.reset();
+      t.printTo(out, Charset.forName("ISO-8859-1"));
+      assertEquals("<div class=\"\u00e7&#287;  x\">xxx</div>", new String(out.toByteArray(), "ISO-8859-1"));
+      assertEquals(1, t.getContext().asMap().size());
+
+      factory.setEscapingMode(EscapingMode.LEGACY);
+      t = factory.createTemplate();
+      t.setProperty("class", "\u00e7");
+      assertEquals("<div class=\"&#231;\">xxx</div>", t.asString());
+   }
 }
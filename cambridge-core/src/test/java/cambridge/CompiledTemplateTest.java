@@ -0,0 +1,146 @@
+package cambridge;
+
+import cambridge.model.Fragment;
+import cambridge.model.FragmentList;
+import cambridge.model.TemplateCompiler;
+import cambridge.model.TemplateDocument;
+import cambridge.parser.TemplateParser;
+import cambridge.parser.TemplateTokenizer;
+import cambridge.parser.expressions.ArrayExpressionContext;
+import cambridge.parser.expressions.MapExpressionContext;
+import cambridge.runtime.ExpressionContext;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledTemplateTest {
+   private FragmentList parse(String resource) throws Exception {
+      TemplateTokenizer tokenizer = new TemplateTokenizer(CompiledTemplateTest.class.getResourceAsStream(resource));
+      TemplateParser parser = new TemplateParser(tokenizer, Expressions.cambridgeExpressionLanguage);
+      TemplateDocument t = parser.parse();
+      return t.normalize();
+   }
+
+   private FragmentList parseText(String text) throws Exception {
+      TemplateParser parser = new TemplateParser(new TemplateTokenizer(new StringReader(text)), Expressions.cambridgeExpressionLanguage);
+      return parser.parse().normalize();
+   }
+
+   private String render(FragmentList fragments, ExpressionContext context) throws Exception {
+      StringWriter out = new StringWriter();
+      for (Fragment f : fragments) {
+         f.eval(context, out);
+      }
+      return out.toString();
+   }
+
+   @Test
+   public void testFull() throws Exception {
+      ExpressionContext context = new MapExpressionContext();
+      context.put("var", "simple");
+      context.put("id", "test");
+      context.put("exp", "class=\"x\"");
+      ArrayList<Integer> list = new ArrayList<Integer>();
+      list.add(1);
+      list.add(2);
+      list.add(3);
+      context.put("list", list);
+      context.put("condition", true);
+
+      FragmentList fragments = parse("full.html");
+      FragmentList compiled = TemplateCompiler.compile(fragments);
+      assertEquals(1, compiled.size());
+
+      assertEquals(render(fragments, context), render(compiled, context));
+
+      context.put("condition", false);
+      assertEquals(render(fragments, context), render(compiled, context));
+   }
+
+   @Test
+   public void testConditionalBlock() throws Exception {
+      FragmentList fragments = parse("behaviors/ifelse.html");
+      FragmentList compiled = TemplateCompiler.compile(fragments);
+
+      String[] vars = {"var1", "var2", "var3", "none"};
+      for (String var : vars) {
+         ExpressionContext context = new MapExpressionContext();
+         context.put(var, true);
+         assertEquals(render(fragments, context), render(compiled, context));
+      }
+   }
+
+   @Test
+   public void testCompiledFactory() {
+      ClassPathTemplateLoader loader = new ClassPathTemplateLoader(CompiledTemplateTest.class.getClassLoader());
+      TemplateFactory factory = loader.newTemplateFactory("cambridge/behaviors/withbehavior.html", Expressions.cambridgeExpressionLanguage);
+
+      Template interpreted = factory.createTemplate();
+      interpreted.setProperty("user", new User("test", "test@test.com"));
+
+      factory.setCompiled(true);
+      assertTrue(factory.isCompiled());
+
+      Template compiled = factory.createTemplate();
+      compiled.setProperty("user", new User("test", "test@test.com"));
+
+      assertEquals("<div>friend1</div>", compiled.asString());
+      assertEquals(interpreted.asString(), compiled.asString());
+   }
+
+   @Test
+   public void testLoops() throws Exception {
+      FragmentList fragments = parse("behaviors/foreachbehavior.html");
+      FragmentList compiled = TemplateCompiler.compile(fragments);
+
+      List<List<String>> rows = new ArrayList<List<String>>();
+      rows.add(Arrays.asList("a", "b"));
+      rows.add(Arrays.asList("c"));
+
+      ExpressionContext[] contexts = {new MapExpressionContext(), new ArrayExpressionContext()};
+      for (ExpressionContext context : contexts) {
+         context.put("self", "top");
+         context.put("rows", rows);
+
+         String expected = "<ul><li>1=a/false</li><li>2=b/true</li>1</ul><ul><li>1=c/true</li>2</ul>top";
+         assertEquals(expected, render(fragments, context));
+         assertEquals(expected, render(compiled, context));
+      }
+   }
+
+   @Test
+   public void testTagPartsAndFilters() throws Exception {
+      FragmentList fragments = parseText("<div id=\"${id}\" class=\"a ${cls}\" %{exp} a:if=\"show\">${date}(dateformat:MMM yyyy|upper) ${name}(upper)</div>"
+         + "<ul><li a:foreach=\"list\" title=\"${self}\">${self}(numberformat:0.0)</li></ul>");
+      FragmentList compiled = TemplateCompiler.compile(fragments);
+      assertEquals(1, compiled.size());
+
+      ExpressionContext context = Expressions.cambridgeExpressionLanguage.createNewContext(Locale.ENGLISH);
+      context.put("id", "main");
+      context.put("cls", "b");
+      context.put("exp", "lang=\"en\"");
+      context.put("show", true);
+      context.put("date", new GregorianCalendar(2013, Calendar.FEBRUARY, 6).getTime());
+      context.put("name", "cambridge");
+      context.put("list", Arrays.asList(1, 2));
+
+      String expected = "<div id=\"main\" class=\"a b\" lang=\"en\">FEB 2013 CAMBRIDGE</div>"
+         + "<ul><li title=\"1\">1.0</li><li title=\"2\">2.0</li></ul>";
+      assertEquals(expected, render(fragments, context));
+      assertEquals(expected, render(compiled, context));
+
+      context.put("show", false);
+      assertEquals("<ul><li title=\"1\">1.0</li><li title=\"2\">2.0</li></ul>", render(compiled, context));
+      assertEquals(render(fragments, context), render(compiled, context));
+   }
+}
@@ -0,0 +1,58 @@
+package cambridge.behaviors;
+
+import cambridge.Expressions;
+import cambridge.model.Fragment;
+import cambridge.model.FragmentList;
+import cambridge.model.TemplateDocument;
+import cambridge.parser.TemplateParser;
+import cambridge.parser.TemplateTokenizer;
+import cambridge.parser.expressions.ArrayExpressionContext;
+import cambridge.parser.expressions.MapExpressionContext;
+import cambridge.runtime.ExpressionContext;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ForeachBehaviorTest {
+
+   private final String out = "<ul><li>1=a/false</li><li>2=b/true</li>1</ul><ul><li>1=c/true</li>2</ul>top";
+
+   private String render(ExpressionContext context) throws Exception {
+      TemplateTokenizer tokenizer = new TemplateTokenizer(ForeachBehaviorTest.class.getResourceAsStream("foreachbehavior.html"));
+      TemplateParser parser = new TemplateParser(tokenizer, Expressions.cambridgeExpressionLanguage);
+      TemplateDocument t = parser.parse();
+      FragmentList fragments = t.normalize();
+
+      List<List<String>> rows = new ArrayList<List<String>>();
+      rows.add(Arrays.asList("a", "b"));
+      rows.add(Arrays.asList("c"));
+
+      context.put("self", "top");
+      context.put("rows", rows);
+
+      StringWriter builder = new StringWriter();
+      for (Fragment f : fragments) {
+         f.eval(context, builder);
+      }
+
+      return builder.toString();
+   }
+
+   @Test
+   public void testNestedLoops() throws Exception {
+      assertEquals(out, render(new MapExpressionContext()));
+   }
+
+   @Test
+   public void testNestedLoopsWithReusedFrames() throws Exception {
+      ArrayExpressionContext context = new ArrayExpressionContext();
+      assertEquals(out, render(context));
+      assertEquals(null, context.getLoopFrame());
+      assertEquals(out, render(context));
+   }
+}
@@ -1,16 +1,34 @@
 package cambridge.parser.expressions;
 
+import cambridge.Cambridge;
+import cambridge.ClassPathTemplateLoader;
 import cambridge.ExpressionEvaluationException;
+import cambridge.ExpressionParsingException;
+import cambridge.Template;
+import cambridge.TemplateFactory;
 import cambridge.model.Expression;
+import cambridge.parser.ExpressionCache;
+import cambridge.runtime.BackgroundCompiler;
 import cambridge.runtime.ExpressionContext;
+import cambridge.runtime.JavaSourceCompiler;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * @author Erdinc Yilmazel (eyilmazel@tripadvisor.com)
@@ -156,6 +174,17 @@ public class CambridgeExpressionLanguageTest
         }
     }
 
+    public static class Counter
+    {
+        int reads;
+
+        public int getValue()
+        {
+            reads++;
+            return 5;
+        }
+    }
+
     Sample sample;
     Sample2 sample2;
 
@@ -241,4 +270,493 @@ public class CambridgeExpressionLanguageTest
         assertEquals("b", l.get(1));
         assertEquals(213, l.get(2));
     }
+
+    @Test
+    public void testArrayContext() throws Exception
+    {
+        ExpressionContext context = expressionLanguage.createNewContext();
+        assertTrue(context instanceof ArrayExpressionContext);
+
+        Expression e = expressionLanguage.parse("sample.name", 1, 1);
+        context.put("sample", sample);
+        context.put("nothing", null);
+        assertEquals("Cambridge", e.eval(context));
+
+        assertTrue(context.has("nothing"));
+        assertNull(context.get("nothing"));
+        assertFalse(context.has("undefinedVariable"));
+
+        Map<String, Object> map = context.asMap();
+        assertEquals(2, map.size());
+        assertTrue(map.containsKey("nothing"));
+        assertEquals(sample, map.get("sample"));
+
+        map.put("sample", null);
+        assertNull(e.eval(context));
+
+        map.remove("nothing");
+        assertFalse(context.has("nothing"));
+        assertEquals(1, map.entrySet().size());
+    }
+
+    @Test
+    public void testRuntimeVariablesDoNotTakeSlots() throws Exception
+    {
+        ExpressionContext context = expressionLanguage.createNewContext();
+        int slots = VariableSlots.size();
+        context.put("runtimeOnlyVariable", "a");
+        assertEquals(slots, VariableSlots.size());
+        assertEquals(-1, VariableSlots.findSlot("runtimeOnlyVariable"));
+        assertEquals("a", context.get("runtimeOnlyVariable"));
+
+        // A template loaded later gives the name a slot, the value is still found
+        Expression e = expressionLanguage.parse("runtimeOnlyVariable", 1, 1);
+        assertEquals("a", e.eval(context));
+        context.put("runtimeOnlyVariable", "b");
+        assertEquals("b", e.eval(context));
+        assertEquals(1, context.asMap().size());
+    }
+
+    @Test
+    public void testPolymorphicPropertyAccess() throws Exception
+    {
+        ExpressionContext context = expressionLanguage.createNewContext();
+        Expression e = expressionLanguage.parse("item.name", 1, 1);
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("name", "map");
+        Object[] items = {sample, map, new Sample2(), Arrays.asList("list"), new int[0], sample, map, null};
+        Object[] names = {"Cambridge", "map", null, null, null, "Cambridge", "map", null};
+
+        for (int i = 0; i < items.length; i++)
+        {
+            context.put("item", items[i]);
+            assertEquals(names[i], e.eval(context));
+        }
+    }
+
+    @Test
+    public void testArithmeticEvaluatesOperandsOnce() throws Exception
+    {
+        ExpressionContext context = expressionLanguage.createNewContext();
+        Counter counter = new Counter();
+        context.put("counter", counter);
+        context.put("name", "x");
+
+        assertEquals(8, expressionLanguage.parse("counter.value + 3", 1, 1).eval(context));
+        assertEquals(1, counter.reads);
+
+        assertEquals(7.5, expressionLanguage.parse("counter.value * 2 - counter.value / 2.0", 1, 1).eval(context));
+        assertEquals(3, counter.reads);
+
+        assertTrue(expressionLanguage.parse("counter.value + 1 > 5", 1, 1).asBoolean(context));
+        assertEquals(4, counter.reads);
+
+        assertEquals("x5", expressionLanguage.parse("name + counter.value", 1, 1).eval(context));
+        assertEquals(5, counter.reads);
+    }
+
+    @Test
+    public void testTypedArithmetic() throws Exception
+    {
+        ExpressionContext context = expressionLanguage.createNewContext();
+        context.put("big", 5000000000L);
+        context.put("other", 4999999997L);
+        context.put("i", 3);
+        context.put("f", 1.5f);
+        context.put("nothing", null);
+
+        assertEquals(5000000003L, expressionLanguage.parse("big + i", 1, 1).eval(context));
+        assertEquals(4.5f, expressionLanguage.parse("f * i", 1, 1).eval(context));
+        assertEquals(4, expressionLanguage.parse("f + i", 1, 1).asInt(context));
+        assertEquals(2147483647, expressionLanguage.parse("(0 - 1) >>> 1", 1, 1).eval(context));
+
+        assertTrue(expressionLanguage.parse("nothing == null", 1, 1).asBoolean(context));
+        assertFalse(expressionLanguage.parse("nothing == i", 1, 1).asBoolean(context));
+        assertEquals(Boolean.FALSE, expressionLanguage.parse("nothing == i", 1, 1).eval(context));
+        assertTrue(expressionLanguage.parse("big - other == i", 1, 1).asBoolean(context));
+    }
+
+    @Test
+    public void testTieredCompilation() throws Exception
+    {
+        CambridgeExpressionLanguage language = new CambridgeExpressionLanguage();
+        language.setCompileThreshold(2);
+        final ArrayList<String> errors = new ArrayList<String>();
+        language.setCompilationErrorHandler(new CompilationErrorHandler()
+        {
+            public void compilationFailed(String expression, Exception e)
+            {
+                errors.add(expression + ": " + e.getMessage());
+            }
+        });
+
+        ExpressionContext context = language.createNewContext();
+        Counter counter = new Counter();
+        context.put("sample", sample);
+        context.put("counter", counter);
+
+        Expression e = language.parse("sample.id * 2 + 1 > counter.value && sample.name != null", 1, 1);
+        Expression arithmetic = language.parse("sample.id * 2 + counter.value", 1, 1);
+        Expression name = language.parse("sample.name", 1, 1);
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(e.asBoolean(context));
+            assertEquals(205, arithmetic.eval(context));
+            assertEquals("205", arithmetic.asString(context));
+            assertEquals("Cambridge", name.asString(context));
+        }
+
+        if (!(e instanceof TieredExpression))
+        {
+            // The system Java compiler is not available
+            return;
+        }
+
+        // The expressions are compiled in the background
+        assertTrue(BackgroundCompiler.await(60000));
+        assertEquals(Collections.<String>emptyList(), errors);
+        assertTrue(((TieredExpression) e).isCompiled());
+        assertTrue(((TieredExpression) arithmetic).isCompiled());
+        assertTrue(((TieredExpression) name).isCompiled());
+
+        Sample subclass = new Sample()
+        {
+        };
+        subclass.id = 1;
+        subclass.name = "subclass";
+        context.put("sample", subclass);
+
+        // The compiled code completes the evaluation with the interpreter without
+        // reading any property twice
+        int reads = counter.reads;
+        assertFalse(e.asBoolean(context));
+        assertEquals(7, arithmetic.eval(context));
+        assertEquals(reads + 2, counter.reads);
+        assertFalse(((TieredExpression) arithmetic).isCompiled());
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(7, arithmetic.eval(context));
+        }
+        assertTrue(BackgroundCompiler.await(60000));
+        assertTrue(((TieredExpression) arithmetic).isCompiled());
+
+        context.put("sample", sample);
+        reads = counter.reads;
+        assertEquals(205, arithmetic.eval(context));
+        assertEquals(reads + 1, counter.reads);
+
+        // Null values behave like they do in the interpreter
+        sample.name = null;
+        try
+        {
+            name.asString(context);
+            fail("The interpreter fails to convert null values to strings");
+        }
+        catch (NullPointerException expected)
+        {
+        }
+        assertTrue(((TieredExpression) name).isCompiled());
+        assertEquals(Collections.<String>emptyList(), errors);
+    }
+
+    @Test
+    public void testParseCache() throws Exception
+    {
+        assertFalse(expressionLanguage.parse("sample.name", 1, 1) == expressionLanguage.parse("sample.name", 2, 5));
+
+        CambridgeExpressionLanguage language = new CambridgeExpressionLanguage(2);
+        ExpressionCache cache = language.getExpressionCache();
+        language.parse("a", 1, 1);
+        Expression a = cache.get("a");
+        language.parse("b", 1, 1);
+        Expression b = cache.get("b");
+        language.parse("a", 1, 1);
+        assertTrue(a == cache.get("a"));
+        language.parse("c", 1, 1);
+        assertEquals(2, cache.size());
+        language.parse("a", 1, 1);
+        assertTrue(a == cache.get("a"));
+        language.parse("b", 1, 1);
+        assertFalse(b == cache.get("b"));
+
+        CambridgeExpressionLanguage uncached = new CambridgeExpressionLanguage(0);
+        assertFalse(uncached.parse("a", 1, 1) == uncached.parse("a", 1, 1));
+    }
+
+    public static class Person
+    {
+        public String getName()
+        {
+            return "Erdinc";
+        }
+    }
+
+    @Test
+    public void testCachedExpressionsAreSpecializedPerTemplate() throws Exception
+    {
+        assumeTrue(JavaSourceCompiler.isAvailable());
+
+        final ArrayList<Expression> parsed = new ArrayList<Expression>();
+        CambridgeExpressionLanguage language = new CambridgeExpressionLanguage()
+        {
+            @Override
+            public Expression parse(String expressionString, int line, int column) throws ExpressionParsingException
+            {
+                Expression e = super.parse(expressionString, line, column);
+                parsed.add(e);
+                return e;
+            }
+        };
+        language.setCompileThreshold(2);
+
+        ClassPathTemplateLoader loader = new ClassPathTemplateLoader();
+        Template samples = loader.parseAndCreateTemplateFactory("${x.name}", language).createTemplate();
+        Template people = loader.parseAndCreateTemplateFactory("${x.name}", language).createTemplate();
+        samples.setProperty("x", sample);
+        people.setProperty("x", new Person());
+
+        assertEquals(2, parsed.size());
+        assertEquals(1, language.getExpressionCache().size());
+        assertFalse(parsed.get(0) == parsed.get(1));
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals("Cambridge", samples.asString());
+            assertEquals("Erdinc", people.asString());
+        }
+        assertTrue(BackgroundCompiler.await(60000));
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals("Cambridge", samples.asString());
+            assertEquals("Erdinc", people.asString());
+        }
+
+        for (Expression e : parsed)
+        {
+            TieredExpression tiered = (TieredExpression) e;
+            assertTrue(tiered.isCompiled());
+            VarExpression var = (VarExpression) tiered.getInterpreted();
+            assertEquals(1, ((IdentifierVarProperty) var.getProperties().get(0)).getCachedEntries().length);
+        }
+    }
+
+    public static int sum(int... values)
+    {
+        int sum = 0;
+        for (int v : values)
+        {
+            sum += v;
+        }
+        return sum;
+    }
+
+    @Test
+    public void testStaticMethodCalls() throws Exception
+    {
+        Cambridge.getInstance().registerFunction("testSum", new StaticMethodCaller(CambridgeExpressionLanguageTest.class.getMethod("sum", int[].class)));
+
+        ExpressionContext context = expressionLanguage.createNewContext();
+        context.put("sample", sample);
+
+        assertEquals("Cambridge-100", expressionLanguage.parse("format('%s-%d', sample.name, sample.id)", 1, 1).eval(context));
+        assertEquals("Cambridge", expressionLanguage.parse("format('%s', sample.name)", 1, 1).eval(context));
+        assertEquals(6, expressionLanguage.parse("testSum(1, 2, 3)", 1, 1).eval(context));
+        assertEquals(100, expressionLanguage.parse("testSum(sample.id)", 1, 1).eval(context));
+
+        try
+        {
+            expressionLanguage.parse("if(true, 1)", 3, 7);
+            fail("Expected a parsing exception");
+        }
+        catch (CambridgeExpressionParsingException e)
+        {
+            assertTrue(e.getCause() instanceof FunctionCallException);
+            assertTrue(e.getMessage().contains("line: 3"));
+        }
+    }
+
+    public static int twice(int value)
+    {
+        return value * 2;
+    }
+
+    public static double half(double value)
+    {
+        return value / 2;
+    }
+
+    public static String describe(String name, Object value)
+    {
+        return name + ":" + value;
+    }
+
+    public static int broken(int value)
+    {
+        throw new IllegalStateException("broken");
+    }
+
+    @Test
+    public void testGeneratedStaticMethodCalls() throws Exception
+    {
+        assumeTrue(JavaSourceCompiler.isAvailable());
+
+        StaticMethodCaller twice = new StaticMethodCaller(CambridgeExpressionLanguageTest.class.getMethod("twice", int.class));
+        StaticMethodCaller half = new StaticMethodCaller(CambridgeExpressionLanguageTest.class.getMethod("half", double.class));
+        StaticMethodCaller describe = new StaticMethodCaller(CambridgeExpressionLanguageTest.class.getMethod("describe", String.class, Object.class));
+        StaticMethodCaller broken = new StaticMethodCaller(CambridgeExpressionLanguageTest.class.getMethod("broken", int.class));
+        StaticMethodCaller sum = new StaticMethodCaller(CambridgeExpressionLanguageTest.class.getMethod("sum", int[].class));
+        Cambridge.getInstance().registerFunction("testTwice", twice);
+        Cambridge.getInstance().registerFunction("testHalf", half);
+        Cambridge.getInstance().registerFunction("testDescribe", describe);
+        Cambridge.getInstance().registerFunction("testBroken", broken);
+        Cambridge.getInstance().registerFunction("testGeneratedSum", sum);
+
+        ExpressionContext context = expressionLanguage.createNewContext();
+        context.put("sample", sample);
+        context.put("big", 3L);
+
+        StaticMethodCaller.setCompileThreshold(2);
+        try
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                assertStaticMethodCalls(context);
+            }
+            assertTrue(BackgroundCompiler.await(60000));
+
+            assertTrue(twice.isGenerated());
+            assertTrue(half.isGenerated());
+            assertTrue(describe.isGenerated());
+            assertTrue(broken.isGenerated());
+            assertFalse(sum.isGenerated());
+
+            assertStaticMethodCalls(context);
+        }
+        finally
+        {
+            StaticMethodCaller.setCompileThreshold(0);
+        }
+    }
+
+    private void assertStaticMethodCalls(ExpressionContext context) throws Exception
+    {
+        assertEquals(42, expressionLanguage.parse("testTwice(21)", 1, 1).eval(context));
+        assertEquals(200, expressionLanguage.parse("testTwice(sample.id)", 1, 1).eval(context));
+        // The Integer is widened to a double through reflection
+        assertEquals(50.0, expressionLanguage.parse("testHalf(sample.id)", 1, 1).eval(context));
+        assertEquals("Cambridge:null", expressionLanguage.parse("testDescribe(sample.name, nothing)", 1, 1).eval(context));
+        assertEquals(6, expressionLanguage.parse("testGeneratedSum(1, 2, 3)", 1, 1).eval(context));
+
+        try
+        {
+            expressionLanguage.parse("testTwice(big)", 1, 1).eval(context);
+            fail("Expected an evaluation exception");
+        }
+        catch (ExpressionEvaluationException e)
+        {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        try
+        {
+            expressionLanguage.parse("testBroken(1)", 1, 1).eval(context);
+            fail("Expected an evaluation exception");
+        }
+        catch (ExpressionEvaluationException e)
+        {
+            assertTrue(e.getCause() instanceof InvocationTargetException);
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+    }
+
+    public static class CountingFunction extends FunctionRunner
+    {
+        int calls;
+
+        @Override
+        public Object eval(ExpressionContext context, CambridgeExpression[] params) throws ExpressionEvaluationException
+        {
+            calls++;
+            return params[0].asInt(context) * 2;
+        }
+    }
+
+    @Test
+    public void testPureFunctions() throws Exception
+    {
+        CountingFunction function = new CountingFunction();
+        Cambridge.getInstance().registerPureFunction("testDouble", function);
+
+        Expression e = expressionLanguage.parse("testDouble(sample.id) + testDouble(sample.id)", 1, 1);
+        Expression constant = expressionLanguage.parse("testDouble(21)", 1, 1);
+
+        ExpressionContext context = expressionLanguage.createNewContext();
+        context.put("sample", sample);
+
+        // Not memoized outside of a render that turns it on
+        assertEquals(400, e.eval(context));
+        assertEquals(2, function.calls);
+
+        FunctionResults previous = FunctionResults.begin();
+        try
+        {
+            assertEquals(400, e.eval(context));
+            assertEquals(400, e.eval(context));
+            assertEquals(3, function.calls);
+
+            sample.id = 5;
+            assertEquals(20, e.eval(context));
+            assertEquals(4, function.calls);
+
+            assertEquals(42, constant.eval(context));
+            assertEquals(42, constant.eval(context));
+            assertEquals(5, function.calls);
+        }
+        finally
+        {
+            FunctionResults.end(previous);
+        }
+
+        previous = FunctionResults.begin();
+        try
+        {
+            assertEquals(42, constant.eval(context));
+            assertEquals(6, function.calls);
+        }
+        finally
+        {
+            FunctionResults.end(previous);
+        }
+        assertEquals(42, constant.eval(context));
+        assertEquals(7, function.calls);
+        assertFalse(context.has("___FUNCTION_RESULTS___"));
+    }
+
+    @Test
+    public void testPureFunctionsInTemplates() throws Exception
+    {
+        CountingFunction function = new CountingFunction();
+        Cambridge.getInstance().registerPureFunction("testTemplateDouble", function);
+
+        TemplateFactory factory = new ClassPathTemplateLoader().parseAndCreateTemplateFactory(
+            "${testTemplateDouble(testTemplateDouble(x))}-${testTemplateDouble(testTemplateDouble(x))}", expressionLanguage);
+
+        Template t = factory.createTemplate();
+        t.setProperty("x", 3);
+        assertEquals("12-12", t.asString());
+        assertEquals(4, function.calls);
+
+        factory.setMemoizePureFunctions(true);
+        t = factory.createTemplate();
+        t.setProperty("x", 3);
+        assertEquals("12-12", t.asString());
+        assertEquals(6, function.calls);
+
+        t.setProperty("x", 4);
+        assertEquals("16-16", t.asString());
+        assertEquals(8, function.calls);
+    }
 }
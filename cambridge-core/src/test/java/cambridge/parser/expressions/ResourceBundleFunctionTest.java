@@ -0,0 +1,97 @@
+package cambridge.parser.expressions;
+
+import cambridge.runtime.ExpressionContext;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResourceBundleFunctionTest {
+   private final CambridgeExpressionLanguage expressionLanguage = new CambridgeExpressionLanguage();
+
+   private Object text(ResourceBundleFunction function, Locale locale, CambridgeExpression... params) throws Exception {
+      ExpressionContext context = expressionLanguage.createNewContext(locale);
+      context.put("name", "Erdinc");
+      return function.eval(context, params);
+   }
+
+   @Test
+   public void testMessages() throws Exception {
+      ResourceBundleFunction function = new ResourceBundleFunction("cambridge.messages");
+
+      for (int i = 0; i < 2; i++) {
+         assertEquals("Hello", text(function, Locale.ENGLISH, new StringLiteral("greeting")));
+         assertEquals("Merhaba", text(function, new Locale("tr"), new StringLiteral("greeting")));
+         assertEquals("Welcome Erdinc, you have 3 messages", text(function, Locale.ENGLISH, new StringLiteral("welcome"), new VarExpression("name"), new IntLiteral(3)));
+         assertEquals("", text(function, Locale.ENGLISH, new StringLiteral("missing")));
+         assertEquals("", text(function, Locale.ENGLISH, new StringLiteral("missing"), new IntLiteral(3)));
+      }
+
+      function.clearCache();
+      assertEquals("Hello", text(function, Locale.ENGLISH, new StringLiteral("greeting")));
+   }
+
+   @Test
+   public void testClearCacheWithoutContextClassLoader() throws Exception {
+      ResourceBundleFunction function = new ResourceBundleFunction("cambridge.messages");
+      assertEquals("Hello", text(function, Locale.ENGLISH, new StringLiteral("greeting")));
+
+      Thread thread = Thread.currentThread();
+      ClassLoader contextLoader = thread.getContextClassLoader();
+      thread.setContextClassLoader(null);
+      try {
+         function.clearCache();
+      } finally {
+         thread.setContextClassLoader(contextLoader);
+      }
+      assertEquals("Hello", text(function, Locale.ENGLISH, new StringLiteral("greeting")));
+   }
+
+   @Test
+   public void testMissingBundle() throws Exception {
+      ResourceBundleFunction function = new ResourceBundleFunction("cambridge.nonexistent");
+      assertEquals("", text(function, Locale.ENGLISH, new StringLiteral("greeting")));
+      assertEquals("", text(function, null, new StringLiteral("greeting")));
+   }
+
+   @Test
+   public void testMissingKeys() throws Exception {
+      ResourceBundleFunction function = new ResourceBundleFunction("cambridge.messages");
+      for (int i = 0; i < ResourceBundleFunction.MaxMissingKeys + 10; i++) {
+         assertEquals("", text(function, Locale.ENGLISH, new StringLiteral("missing" + i)));
+      }
+      assertEquals("Hello", text(function, Locale.ENGLISH, new StringLiteral("greeting")));
+   }
+
+   @Test
+   public void testConcurrentFormatting() throws Exception {
+      final ResourceBundleFunction function = new ResourceBundleFunction("cambridge.messages");
+      final AtomicInteger failures = new AtomicInteger();
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+         final int count = t;
+         threads[t] = new Thread() {
+            @Override
+            public void run() {
+               try {
+                  for (int i = 0; i < 1000; i++) {
+                     Object s = text(function, Locale.ENGLISH, new StringLiteral("welcome"), new VarExpression("name"), new IntLiteral(count));
+                     if (!("Welcome Erdinc, you have " + count + " messages").equals(s)) {
+                        failures.incrementAndGet();
+                     }
+                  }
+               } catch (Exception e) {
+                  failures.incrementAndGet();
+               }
+            }
+         };
+         threads[t].start();
+      }
+      for (Thread t : threads) {
+         t.join();
+      }
+      assertEquals(0, failures.get());
+   }
+}
@@ -0,0 +1,92 @@
+package cambridge.parser.expressions;
+
+import cambridge.runtime.ExpressionContext;
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SimplePathParserTest {
+   private static CambridgeExpression parseWithAntlr(String source) throws Exception {
+      ExpressionParser parser = new ExpressionParser(new CommonTokenStream(new ExpressionLexer(new ANTLRStringStream(source))));
+      return parser.compilationUnit();
+   }
+
+   @Test
+   public void testSimplePaths() throws Exception {
+      CambridgeExpressionLanguageTest.Sample sample = new CambridgeExpressionLanguageTest.Sample();
+      sample.setName("Cambridge");
+
+      Map<String, Object> map = new HashMap<String, Object>();
+      map.put("key", sample);
+      map.put("list", Arrays.asList("a", "b", sample));
+
+      ExpressionContext context = new CambridgeExpressionLanguage().createNewContext();
+      context.put("sample", sample);
+      context.put("map", map);
+      context.put("self", map);
+      context.put("$_x1", "dollar");
+
+      String[] paths = {
+         "sample",
+         " sample.name ",
+         "map['key'].name",
+         "map[\"key\"].name",
+         "map.list[2].name",
+         "self.list[0]",
+         "map.list[1].length",
+         "$_x1",
+         "map['']"
+      };
+
+      for (String path : paths) {
+         VarExpression e = SimplePathParser.parse(path);
+         assertNotNull(path, e);
+
+         VarExpression expected = (VarExpression) parseWithAntlr(path);
+         assertEquals(path, expected.getVarName(), e.getVarName());
+         List<VarProperty> properties = expected.getProperties();
+         assertEquals(path, properties == null ? 0 : properties.size(), e.getProperties() == null ? 0 : e.getProperties().size());
+         assertEquals(path, expected.eval(context), e.eval(context));
+      }
+   }
+
+   @Test
+   public void testOtherExpressions() {
+      String[] expressions = {
+         "",
+         "a + b",
+         "a .b",
+         "a.b()",
+         "f(a)",
+         "a.super",
+         "a.iter",
+         "true",
+         "null",
+         "super.x",
+         "a[b]",
+         "a[01]",
+         "a[1234567890]",
+         "a['x\\ny']",
+         "a['x",
+         "a[1",
+         "a.",
+         "1",
+         "'x'",
+         "\u00e7ay.x",
+         "a.b\u00e7"
+      };
+
+      for (String expression : expressions) {
+         assertNull(expression, SimplePathParser.parse(expression));
+      }
+   }
+}
@@ -0,0 +1,69 @@
+package cambridge.runtime;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class ByteWriterTest {
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   @Test
+   public void testMixedWrites() throws Exception {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteWriter writer = new ByteWriter(out, UTF8, 16);
+
+      writer.writeBytes("<div>".getBytes(UTF8));
+      writer.write("\u00c7a\u011fr\u0131 \u011f\u00fc\u015fi\u00f6\u00e7");
+      writer.writeBytes("</div>\n<p>This is a longer static text</p>".getBytes(UTF8));
+      writer.write('!');
+      writer.flush();
+
+      assertEquals("<div>\u00c7a\u011fr\u0131 \u011f\u00fc\u015fi\u00f6\u00e7</div>\n<p>This is a longer static text</p>!", new String(out.toByteArray(), UTF8));
+   }
+
+   @Test
+   public void testSplitSurrogatePair() throws Exception {
+      String s = "a\ud83d\ude00b";
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteWriter writer = new ByteWriter(out, UTF8);
+
+      writer.write(s, 0, 2);
+      writer.write(s, 2, 2);
+      writer.flush();
+
+      assertEquals(s, new String(out.toByteArray(), UTF8));
+   }
+
+   @Test
+   public void testSurrogatePairSplitByFlush() throws Exception {
+      String s = "a\ud83d\ude00b";
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteWriter writer = new ByteWriter(out, UTF8);
+
+      writer.write(s, 0, 2);
+      writer.flush();
+      writer.write(s, 2, 2);
+      writer.close();
+
+      assertEquals(s, new String(out.toByteArray(), UTF8));
+   }
+
+   @Test
+   public void testStatefulCharset() throws Exception {
+      Charset charset = Charset.forName("ISO-2022-JP");
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteWriter writer = new ByteWriter(out, charset, 16);
+
+      writer.write("\u65e5\u672c");
+      writer.writeBytes("<b>".getBytes(charset));
+      writer.write("\u8a9e");
+      writer.flush();
+
+      byte[] bytes = out.toByteArray();
+      assertEquals("\u65e5\u672c<b>\u8a9e", new String(bytes, charset));
+      assertEquals("\u8a9e".getBytes(charset).length, bytes.length - "\u65e5\u672c".getBytes(charset).length - 3);
+   }
+}
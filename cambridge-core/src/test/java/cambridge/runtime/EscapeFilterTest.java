@@ -0,0 +1,64 @@
+package cambridge.runtime;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class EscapeFilterTest {
+   private enum Color {
+      RED,
+      GREEN {
+         @Override
+         public String toString() {
+            return "<green>";
+         }
+      }
+   }
+
+   private String escape(Object value) throws Exception {
+      StringWriter out = new StringWriter();
+      EscapeFilter.escape(value, out);
+      return out.toString();
+   }
+
+   @Test
+   public void testEscape() throws Exception {
+      assertEquals("", escape(""));
+      assertEquals("plain text", escape("plain text"));
+      assertEquals("&lt;a href=&quot;x&quot;&gt;Tom &amp; Jerry&lt;/a&gt;", escape("<a href=\"x\">Tom & Jerry</a>"));
+      assertEquals("a &nbsp; &nbsp; b<br/>c", escape("a     b\nc"));
+      assertEquals("&#231;&#287;&#8364;&#65535;", escape("\u00e7\u011f\u20ac\uffff"));
+      assertEquals("&amp;", escape("&"));
+      assertEquals("x&gt;", escape("x>"));
+   }
+
+   @Test
+   public void testFastPaths() throws Exception {
+      assertEquals("42", escape(42));
+      assertEquals("-3.5", escape(-3.5d));
+      assertEquals("true", escape(Boolean.TRUE));
+      assertEquals("RED", escape(Color.RED));
+      assertEquals("&lt;green&gt;", escape(Color.GREEN));
+      assertEquals("&lt;b&gt;", escape(new StringBuilder("<b>")));
+   }
+
+   private String escape(HtmlEscaper escaper, String value) throws Exception {
+      StringWriter out = new StringWriter();
+      escaper.escape(value, out);
+      return out.toString();
+   }
+
+   @Test
+   public void testCharsetEscaper() throws Exception {
+      HtmlEscaper utf8 = EscapingMode.CHARSET.getEscaper(Charset.forName("UTF-8"));
+      assertEquals("\u00e7\u011f  a\n&lt;&#39;&quot;&gt; \ud83d\ude00", escape(utf8, "\u00e7\u011f  a\n<'\"> \ud83d\ude00"));
+
+      HtmlEscaper latin1 = EscapingMode.CHARSET.getEscaper(Charset.forName("ISO-8859-1"));
+      assertEquals("\u00e7&#287; &amp; &#128512;!", escape(latin1, "\u00e7\u011f & \ud83d\ude00!"));
+
+      assertEquals(HtmlEscaper.Legacy, EscapingMode.LEGACY.getEscaper(Charset.forName("UTF-8")));
+   }
+}
@@ -0,0 +1,95 @@
+package cambridge.runtime;
+
+import cambridge.Expressions;
+import cambridge.model.Fragment;
+import cambridge.model.TemplateDocument;
+import cambridge.parser.TemplateParser;
+import cambridge.parser.TemplateTokenizer;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FilterPipelineTest {
+   private final Date date = new GregorianCalendar(2013, Calendar.FEBRUARY, 6).getTime();
+
+   private String write(FilterPipeline pipeline, Object value, Locale locale, HtmlEscaper escaper) throws Exception {
+      StringWriter out = new StringWriter();
+      pipeline.write(value, locale, escaper, out);
+      return out.toString();
+   }
+
+   @Test
+   public void testFormatFilters() throws Exception {
+      FilterPipeline dates = FilterPipeline.create(Arrays.asList("dateformat:d MMMM yyyy"), 1, 1);
+      assertEquals("6 February 2013", write(dates, date, Locale.ENGLISH, null));
+      assertEquals("6 f\u00e9vrier 2013", write(dates, date, Locale.FRENCH, null));
+      assertEquals("6 f&#233;vrier 2013", write(dates, date, Locale.FRENCH, HtmlEscaper.Legacy));
+      assertEquals("6 February 2013", write(dates, date, Locale.ENGLISH, null));
+      assertEquals("text", write(dates, "text", Locale.ENGLISH, null));
+
+      FilterPipeline numbers = FilterPipeline.create(Arrays.asList("numberformat:#,##0.00"), 1, 1);
+      assertEquals("1,234.50", write(numbers, 1234.5, Locale.ENGLISH, null));
+      assertEquals("1.234,50", write(numbers, 1234.5, Locale.GERMAN, null));
+
+      assertNull(FilterPipeline.create(Arrays.<String>asList(), 1, 1));
+   }
+
+   @Test
+   public void testChainedFilters() throws Exception {
+      FilterPipeline pipeline = FilterPipeline.create(Arrays.asList("dateformat:MMM yyyy", "upper"), 1, 1);
+      assertEquals("FEB 2013", pipeline.apply(date, Locale.ENGLISH));
+      assertEquals("FEB 2013", write(pipeline, date, Locale.ENGLISH, HtmlEscaper.Legacy));
+
+      TemplateParser parser = new TemplateParser(new TemplateTokenizer(new StringReader("<b>${date}(dateformat:MMM yyyy|upper)</b>")), Expressions.cambridgeExpressionLanguage);
+      TemplateDocument document = parser.parse();
+
+      ExpressionContext context = Expressions.cambridgeExpressionLanguage.createNewContext(Locale.ENGLISH);
+      context.put("date", date);
+      StringWriter out = new StringWriter();
+      for (Fragment f : document.normalize()) {
+         f.eval(context, out);
+      }
+      assertEquals("<b>FEB 2013</b>", out.toString());
+   }
+
+   @Test
+   public void testConcurrentFormatting() throws Exception {
+      final FilterPipeline dates = FilterPipeline.create(Arrays.asList("dateformat:yyyy-MM-dd"), 1, 1);
+      final AtomicInteger failures = new AtomicInteger();
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+         final int day = t + 1;
+         threads[t] = new Thread() {
+            @Override
+            public void run() {
+               Date d = new GregorianCalendar(2013, Calendar.FEBRUARY, day).getTime();
+               String expected = "2013-02-0" + day;
+               try {
+                  for (int i = 0; i < 2000; i++) {
+                     if (!expected.equals(write(dates, d, Locale.ENGLISH, HtmlEscaper.Legacy)) || !expected.equals(dates.apply(d, Locale.ENGLISH))) {
+                        failures.incrementAndGet();
+                     }
+                  }
+               } catch (Exception e) {
+                  failures.incrementAndGet();
+               }
+            }
+         };
+         threads[t].start();
+      }
+      for (Thread t : threads) {
+         t.join();
+      }
+      assertEquals(0, failures.get());
+   }
+}
@@ -0,0 +1,165 @@
+package cambridge.runtime;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class PropertyUtilsTest {
+   public static class Bean {
+      public final String field = "field";
+
+      public String getName() {
+         return "name";
+      }
+
+      public boolean isActive() {
+         return true;
+      }
+
+      public String upper() {
+         return "UPPER";
+      }
+   }
+
+   public static class Counter {
+      public int getCount() {
+         return 42;
+      }
+
+      public String getBroken() {
+         throw new IllegalStateException("broken");
+      }
+   }
+
+   static class Hidden {
+      public String getName() {
+         return "hidden";
+      }
+   }
+
+   @Test
+   public void testBeanProperties() throws Exception {
+      PropertyUtils utils = PropertyUtils.instance();
+      Bean bean = new Bean();
+
+      assertEquals("name", utils.getBeanProperty(bean, "name"));
+      assertEquals(Boolean.TRUE, utils.getBeanProperty(bean, "active"));
+      assertEquals("UPPER", utils.getBeanProperty(bean, "upper"));
+      assertEquals("field", utils.getBeanProperty(bean, "field"));
+      assertNull(utils.getBeanProperty(bean, "missing"));
+      assertNull(utils.getBeanProperty(null, "name"));
+   }
+
+   @Test
+   public void testAccessorIsCached() throws Exception {
+      PropertyUtils utils = PropertyUtils.instance();
+      PropertyAccessor accessor = utils.getAccessor(Bean.class, "name");
+      assertSame(accessor, utils.getAccessor(Bean.class, "name"));
+      assertEquals("name", accessor.getName());
+      assertEquals("name", accessor.get(new Bean()));
+   }
+
+   @Test
+   public void testPublicMethodOfNonPublicClass() throws Exception {
+      List<String> list = Collections.unmodifiableList(new ArrayList<String>());
+      assertEquals(Boolean.TRUE, PropertyUtils.instance().getBeanProperty(list, "empty"));
+   }
+
+   @Test
+   public void testMissingPropertyIsCached() throws Exception {
+      PropertyUtils utils = PropertyUtils.instance();
+      PropertyAccessor accessor = utils.getAccessor(Bean.class, "missing");
+      assertSame(accessor, utils.getAccessor(Bean.class, "missing"));
+      assertNull(accessor.get(new Bean()));
+   }
+
+   @Test
+   public void testMapProperties() throws Exception {
+      PropertyUtils utils = PropertyUtils.instance();
+      Map<String, Object> map = new HashMap<String, Object>();
+      map.put("key", "value");
+      map.put("nothing", null);
+
+      assertEquals("value", utils.getBeanProperty(map, "key"));
+      assertNull(utils.getBeanProperty(map, "nothing"));
+      assertNull(utils.getBeanProperty(map, "other"));
+      assertEquals(Boolean.FALSE, utils.getBeanProperty(map, "empty"));
+
+      map.put("empty", "yes");
+      assertEquals("yes", utils.getBeanProperty(map, "empty"));
+   }
+
+   @Test
+   public void testListAndArrayProperties() throws Exception {
+      PropertyUtils utils = PropertyUtils.instance();
+      List<String> list = Arrays.asList("a", "b");
+      assertEquals("b", utils.getBeanProperty(list, "1"));
+      assertNull(utils.getBeanProperty(list, "2"));
+      assertEquals(2, utils.getBeanProperty(list, "size"));
+
+      String[] array = {"a", "b", "c"};
+      assertEquals(3, utils.getBeanProperty(array, "length"));
+      assertEquals("c", utils.getBeanProperty(array, "2"));
+      assertNull(utils.getBeanProperty(array, "3"));
+
+      int[] ints = {4, 5};
+      assertEquals(2, utils.getBeanProperty(ints, "length"));
+      assertEquals(5, utils.getBeanProperty(ints, "1"));
+      assertTrue(utils.getAccessor(int[].class, "name") instanceof PropertyAccessor.MissingAccessor);
+   }
+
+   @Test
+   public void testGeneratedAccessors() throws Exception {
+      assumeTrue(JavaSourceCompiler.isAvailable());
+
+      PropertyUtils utils = PropertyUtils.instance();
+      utils.setCompileThreshold(2);
+      try {
+         PropertyAccessor.MethodAccessor count = (PropertyAccessor.MethodAccessor) utils.getAccessor(Counter.class, "count");
+         PropertyAccessor.MethodAccessor broken = (PropertyAccessor.MethodAccessor) utils.getAccessor(Counter.class, "broken");
+         PropertyAccessor.MethodAccessor hidden = (PropertyAccessor.MethodAccessor) utils.getAccessor(Hidden.class, "name");
+
+         for (int i = 0; i < 2; i++) {
+            assertEquals(42, count.get(new Counter()));
+            assertBroken(broken);
+            assertEquals("hidden", hidden.get(new Hidden()));
+         }
+         assertTrue(BackgroundCompiler.await(30000));
+
+         assertTrue(count.isGenerated());
+         assertTrue(broken.isGenerated());
+         assertFalse(hidden.isGenerated());
+
+         assertEquals(42, count.get(new Counter()));
+         assertBroken(broken);
+         assertEquals("hidden", hidden.get(new Hidden()));
+      } finally {
+         utils.setCompileThreshold(0);
+      }
+   }
+
+   private static void assertBroken(PropertyAccessor accessor) {
+      try {
+         accessor.get(new Counter());
+         fail();
+      } catch (PropertyAccessException e) {
+         assertEquals("broken", e.getProperty());
+         assertTrue(e.getCause() instanceof InvocationTargetException);
+         assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+      }
+   }
+}
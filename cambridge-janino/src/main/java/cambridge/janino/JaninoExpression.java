@@ -1,14 +1,15 @@
 package cambridge.janino;
 
-import java.util.Map;
+import java.io.StringReader;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import cambridge.ExpressionParsingException;
 import cambridge.runtime.ExpressionContext;
-import org.codehaus.janino.CompileException;
 import org.codehaus.janino.ExpressionEvaluator;
 
 import cambridge.ExpressionEvaluationException;
 import cambridge.model.Expression;
-import org.codehaus.janino.Parser;
 import org.codehaus.janino.Scanner;
 
 /**
@@ -16,39 +17,133 @@ import org.codehaus.janino.Scanner;
  *
  *         See http://docs.codehaus.org/display/JANINO/Basic#Basic-
  *         expressionevaluator
+ *
+ *         The variables referenced by the expression are found when the
+ *         expression is parsed, and only those are passed to the compiled
+ *         expression. The expression is compiled for the declared types of
+ *         the variables (see {@link JaninoExpressionLanguage#declareVariable})
+ *         or the classes of the values seen while rendering. Values of
+ *         other classes make it compile another variant, up to
+ *         {@link #MaxVariants} variants. After that the expression is
+ *         compiled once more for the closest common super types of the
+ *         values seen, and this generic variant is used for all the other
+ *         values. It is widened when a value it doesn't accept is seen. If
+ *         the expression can not be compiled for the common types, the
+ *         values that no variant accepts are evaluated with an evaluator
+ *         that is compiled for them and not kept. A value that doesn't
+ *         match the declared type of its variable is reported as an error.
+ *         Compiled variants are immutable, so an expression can be
+ *         evaluated by many threads.
  */
 public class JaninoExpression implements Expression {
-	private static final boolean PRINT_ERRORS = false;
+	static final int MaxVariants = 8;
+
 	final String expression;
 	final int line;
 	final int col;
-	ExpressionEvaluator expressionEvaluator;
-	private String[] parameterNames;
-	private Class<?>[] parameterTypes;
-	private Boolean isValue;
+	private final JaninoExpressionLanguage language;
+
+	/**
+	 * Names of the variables referenced by the expression
+	 */
+	private final String[] parameterNames;
+
+	/**
+	 * True if the expression is a single variable name, which is read from the
+	 * context without compiling anything
+	 */
+	private final boolean isValue;
+
+	private volatile Variant[] variants = new Variant[0];
+
+	/**
+	 * Compiled for the common super types of the values once there are
+	 * {@link #MaxVariants} variants
+	 */
+	private volatile Variant generic;
+
+	/**
+	 * Set when the expression can not be compiled for the common super types
+	 */
+	private volatile boolean genericFailed;
+
+	private final AtomicInteger compilations = new AtomicInteger();
+
+	/**
+	 * An expression compiled for specific parameter types
+	 */
+	private static final class Variant {
+		final Class<?>[] parameterTypes;
+		final ExpressionEvaluator evaluator;
+
+		Variant(Class<?>[] parameterTypes, ExpressionEvaluator evaluator) {
+			this.parameterTypes = parameterTypes;
+			this.evaluator = evaluator;
+		}
+
+		boolean accepts(Object[] arguments) {
+			for (int i = 0; i < arguments.length; i++) {
+				if (!isAssignable(parameterTypes[i], arguments[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
 
 	public JaninoExpression(String expression, int line, int col) {
+		this(expression, line, col, null);
+	}
+
+	JaninoExpression(String expression, int line, int col, JaninoExpressionLanguage language) {
 		this.expression = expression;
 		this.line = line;
 		this.col = col;
+		this.language = language;
+
+		String name = expression.trim();
+		isValue = isVariableName(name);
+		if (isValue) {
+			parameterNames = new String[]{name};
+		} else {
+			try {
+				parameterNames = ExpressionEvaluator.guessParameterNames(new Scanner(null, new StringReader(expression)));
+			} catch (Exception e) {
+				throw new ExpressionParsingException(line, col, expression, e);
+			}
+		}
 	}
 
 	public Object eval(ExpressionContext context)
 			throws ExpressionEvaluationException {
-		try {
-			if (expressionEvaluator == null && isValue == null)
-				compileExpressionEvaluator(context);
-
-			// don't bother compiling expressions when returning values
-			if (isValue)
-				return context.get(expression);
+		// don't bother compiling expressions when returning values
+		if (isValue)
+			return context.get(parameterNames[0]);
 
-			return expressionEvaluator.evaluate(getArguments(context));
+		Object[] arguments = getArguments(context);
+		try {
+			return getVariant(arguments).evaluator.evaluate(arguments);
+		} catch (ExpressionEvaluationException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new ExpressionEvaluationException(getErrorMsg(), e);
 		}
 	}
 
+	/**
+	 * @return Number of compiled variants of this expression
+	 */
+	int getVariantCount() {
+		return variants.length;
+	}
+
+	/**
+	 * @return Number of times this expression has been compiled
+	 */
+	int getCompilationCount() {
+		return compilations.get();
+	}
+
 	private String getErrorMsg() {
 		return "Error evaluating exception on line: " + line + ", column: "
 				+ col + ", expression: " + expression;
@@ -57,65 +152,220 @@ public class JaninoExpression implements Expression {
 	private Object[] getArguments(ExpressionContext context) {
 		Object[] arguments = new Object[parameterNames.length];
 		for (int i = 0; i < parameterNames.length; i++) {
-			String name = parameterNames[i];
-			Object argument = context.get(name);
-			if (argument != null) {
-				if (!parameterTypes[i].isAssignableFrom(argument.getClass())) {
-					if (PRINT_ERRORS) System.err.println("Wrong argument type passed for "
-							+ parameterNames[i] + ".  Expecting "
-							+ parameterTypes[i].getName() + " but got "
-							+ argument.getClass().getName());
+			arguments[i] = context.get(parameterNames[i]);
+		}
+		return arguments;
+	}
+
+	private Variant getVariant(Object[] arguments) throws Exception {
+		for (Variant v : variants) {
+			if (v.accepts(arguments)) {
+				return v;
+			}
+		}
+
+		Variant g = generic;
+		if (g != null && g.accepts(arguments)) {
+			return g;
+		}
+
+		Variant v = compile(arguments);
+		if (v == null) {
+			// Not kept, compiled without holding the lock
+			v = newVariant(getParameterTypes(arguments));
+		}
+		return v;
+	}
+
+	/**
+	 * @return The variant for the arguments, null if the generic variant can
+	 *         not be compiled and the arguments need a variant of their own
+	 */
+	private synchronized Variant compile(Object[] arguments) throws Exception {
+		Variant[] current = variants;
+		for (Variant v : current) {
+			if (v.accepts(arguments)) {
+				return v;
+			}
+		}
+
+		Class<?>[] parameterTypes = getParameterTypes(arguments);
+		if (current.length < MaxVariants) {
+			Variant variant = newVariant(parameterTypes);
+			Variant[] updated = new Variant[current.length + 1];
+			System.arraycopy(current, 0, updated, 0, current.length);
+			updated[current.length] = variant;
+			variants = updated;
+			return variant;
+		}
+
+		Variant g = generic;
+		if (g != null && g.accepts(arguments)) {
+			return g;
+		}
+		if (genericFailed) {
+			return null;
+		}
+
+		Class<?>[] commonTypes = g == null ? getCommonTypes(current, parameterTypes) : getCommonTypes(g.parameterTypes, parameterTypes);
+		try {
+			generic = newVariant(commonTypes);
+		} catch (Exception e) {
+			genericFailed = true;
+			return null;
+		}
+		return generic;
+	}
+
+	/**
+	 * @return The closest common super types of the parameter types of the
+	 *         variants and the given parameter types
+	 */
+	private static Class<?>[] getCommonTypes(Variant[] variants, Class<?>[] parameterTypes) {
+		Class<?>[] commonTypes = parameterTypes.clone();
+		for (Variant v : variants) {
+			commonTypes = getCommonTypes(v.parameterTypes, commonTypes);
+		}
+		return commonTypes;
+	}
+
+	private static Class<?>[] getCommonTypes(Class<?>[] a, Class<?>[] b) {
+		Class<?>[] commonTypes = new Class[a.length];
+		for (int i = 0; i < a.length; i++) {
+			commonTypes[i] = getCommonType(a[i], b[i]);
+		}
+		return commonTypes;
+	}
+
+	/**
+	 * @return The closest public super class of the two classes, or a public
+	 *         interface implemented by both if the only common super class is
+	 *         Object
+	 */
+	private static Class<?> getCommonType(Class<?> a, Class<?> b) {
+		if (a.isAssignableFrom(b)) {
+			return a;
+		}
+		if (b.isAssignableFrom(a)) {
+			return b;
+		}
+
+		for (Class<?> c = a.getSuperclass(); c != null && c != Object.class; c = c.getSuperclass()) {
+			if (Modifier.isPublic(c.getModifiers()) && c.isAssignableFrom(b)) {
+				return c;
+			}
+		}
+
+		for (Class<?> c = a; c != null; c = c.getSuperclass()) {
+			for (Class<?> i : c.getInterfaces()) {
+				if (Modifier.isPublic(i.getModifiers()) && i.isAssignableFrom(b)) {
+					return i;
 				}
 			}
-			arguments[i] = argument;
 		}
-		return arguments;
+		return Object.class;
 	}
 
-	private void compileExpressionEvaluator(ExpressionContext context)
-			throws Scanner.ScanException, CompileException, Parser.ParseException {
-
-		if (context.has(expression)) {
-			isValue=true;
-		}
-		else {
-			isValue=false;
-
-			/**
-			 * FIXME: is it possible to figure out a return type? Does it
-			 * matter? Only possible issue I can see is performance hit from
-			 * Autoboxing primitives. The fix would be to create an
-			 * expressionEvaluator for each of the asX methods below. Note that
-			 * this might make the ExpressionEvaluator more brittle, eg, error
-			 * when you return 1 and it wanted a double (eg, 1.0) - the use of
-			 * (Number).doubleValue() avoids this
-			 */
-			Class<?> expressionType = Object.class;
-
-			/**
-			 * TODO: is there an optimization to check the expression and avoid
-			 * passing names that are not in the expression?
-			 */
-            Map<String, Object> globals = context.asMap();
-            parameterNames = new String[globals.size()];
-			parameterTypes = new Class[globals.size()];
-			int i = 0;
-			for (String name : globals.keySet()) {
-				parameterNames[i] = name;
-				Object object = globals.get(name);
-				if (object != null)
-					parameterTypes[i] = object.getClass();
-				else {
-					if (PRINT_ERRORS) System.err
-							.println(getErrorMsg()
-									+ " - null value passed as argument, cannot detect class so using Object.class");
-					parameterTypes[i] = Object.class;
+	private Class<?>[] getParameterTypes(Object[] arguments) throws ExpressionEvaluationException {
+		Class<?>[] parameterTypes = new Class[parameterNames.length];
+		for (int i = 0; i < parameterNames.length; i++) {
+			Class<?> declared = language == null ? null : language.getVariableType(parameterNames[i]);
+			if (declared != null) {
+				if (!isAssignable(declared, arguments[i])) {
+					throw new ExpressionEvaluationException(getErrorMsg() + ", variable " + parameterNames[i]
+							+ " is declared as " + declared.getName() + " but its value is "
+							+ (arguments[i] == null ? "null" : "a " + arguments[i].getClass().getName()));
 				}
-				i++;
+				parameterTypes[i] = declared;
+			} else if (arguments[i] != null) {
+				parameterTypes[i] = getPublicClass(arguments[i].getClass());
+			} else {
+				parameterTypes[i] = Object.class;
+			}
+		}
+		return parameterTypes;
+	}
+
+	private Variant newVariant(Class<?>[] parameterTypes) throws Exception {
+		compilations.incrementAndGet();
+
+		/**
+		 * FIXME: is it possible to figure out a return type? Does it
+		 * matter? Only possible issue I can see is performance hit from
+		 * Autoboxing primitives. The fix would be to create an
+		 * expressionEvaluator for each of the asX methods below. Note that
+		 * this might make the ExpressionEvaluator more brittle, eg, error
+		 * when you return 1 and it wanted a double (eg, 1.0) - the use of
+		 * (Number).doubleValue() avoids this
+		 */
+		Class<?> expressionType = Object.class;
+
+		return new Variant(parameterTypes, new ExpressionEvaluator(expression,
+				expressionType, parameterNames, parameterTypes));
+	}
+
+	/**
+	 * @return true if the value can be passed to a parameter of the given type,
+	 *         primitive types accept the values of their wrapper classes
+	 */
+	private static boolean isAssignable(Class<?> type, Object value) {
+		if (value == null) {
+			return !type.isPrimitive();
+		}
+		if (type.isPrimitive()) {
+			return getWrapperClass(type) == value.getClass();
+		}
+		return type.isInstance(value);
+	}
+
+	private static Class<?> getWrapperClass(Class<?> c) {
+		if (c == int.class) {
+			return Integer.class;
+		}
+		if (c == long.class) {
+			return Long.class;
+		}
+		if (c == double.class) {
+			return Double.class;
+		}
+		if (c == boolean.class) {
+			return Boolean.class;
+		}
+		if (c == float.class) {
+			return Float.class;
+		}
+		if (c == char.class) {
+			return Character.class;
+		}
+		if (c == short.class) {
+			return Short.class;
+		}
+		if (c == byte.class) {
+			return Byte.class;
+		}
+		return Void.class;
+	}
+
+	/**
+	 * The compiled expression can only access the members of public classes
+	 */
+	private static Class<?> getPublicClass(Class<?> c) {
+		while (c != null && !Modifier.isPublic(c.getModifiers())) {
+			c = c.getSuperclass();
+		}
+		return c == null ? Object.class : c;
+	}
+
+	private static boolean isVariableName(String s) {
+		if (s.length() == 0 || !Character.isJavaIdentifierStart(s.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < s.length(); i++) {
+			if (!Character.isJavaIdentifierPart(s.charAt(i))) {
+				return false;
 			}
-			expressionEvaluator = new ExpressionEvaluator(expression,
-					expressionType, parameterNames, parameterTypes);
 		}
+		return !"true".equals(s) && !"false".equals(s) && !"null".equals(s) && !"this".equals(s);
 	}
 
 	public boolean asBoolean(ExpressionContext context)
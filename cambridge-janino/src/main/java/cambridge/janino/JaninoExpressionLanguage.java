@@ -9,6 +9,7 @@ import cambridge.parser.expressions.MapExpressionContext;
 import cambridge.runtime.ExpressionContext;
 
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Tom Carchrae
@@ -17,13 +18,34 @@ import java.util.Locale;
  * 
  */
 public class JaninoExpressionLanguage implements ExpressionLanguage {
+    private final ConcurrentHashMap<String, Class<?>> variableTypes = new ConcurrentHashMap<String, Class<?>>();
 	
     public static void register() {
         Expressions.registerExpressionLanguage("janino", JaninoExpressionLanguage.class);
     }
 
     public Expression parse(String expressionString, int line, int column) throws ExpressionParsingException {
-        return new JaninoExpression(expressionString, line, column);
+        return new JaninoExpression(expressionString, line, column, this);
+    }
+
+    /**
+     * Declares the type of a template variable. Expressions referencing the
+     * variable are compiled for the declared type instead of the class of the
+     * first value they see.
+     *
+     * @param name Variable name
+     * @param type Type of the variable
+     */
+    public void declareVariable(String name, Class<?> type) {
+        variableTypes.put(name, type);
+    }
+
+    /**
+     * @param name Variable name
+     * @return The declared type of the variable, or null if it was not declared
+     */
+    public Class<?> getVariableType(String name) {
+        return variableTypes.get(name);
     }
 
     public String wrapExpressionAsList(String expr) {
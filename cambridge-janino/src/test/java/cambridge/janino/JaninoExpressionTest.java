@@ -0,0 +1,209 @@
+package cambridge.janino;
+
+import cambridge.ExpressionEvaluationException;
+import cambridge.runtime.ExpressionContext;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JaninoExpressionTest {
+	JaninoExpressionLanguage expressionLanguage = new JaninoExpressionLanguage();
+
+	@Test
+	public void testDeclaredPrimitiveType() throws Exception {
+		expressionLanguage.declareVariable("count", int.class);
+		JaninoExpression e = (JaninoExpression) expressionLanguage.parse("count * 2", 1, 1);
+
+		ExpressionContext context = expressionLanguage.createNewContext();
+		context.put("count", 2);
+		assertEquals(4, e.asInt(context));
+		context.put("count", 5);
+		assertEquals(10, e.asInt(context));
+		assertEquals(1, e.getVariantCount());
+	}
+
+	@Test
+	public void testDeclaredTypeMismatch() throws Exception {
+		expressionLanguage.declareVariable("count", int.class);
+		JaninoExpression e = (JaninoExpression) expressionLanguage.parse("count + 1", 1, 1);
+
+		ExpressionContext context = expressionLanguage.createNewContext();
+		context.put("count", 1);
+		assertEquals(2, e.asInt(context));
+
+		context.put("count", 1L);
+		try {
+			e.eval(context);
+			fail();
+		} catch (ExpressionEvaluationException ex) {
+			assertTrue(ex.getMessage().contains("declared as int"));
+		}
+
+		context.put("count", null);
+		try {
+			e.eval(context);
+			fail();
+		} catch (ExpressionEvaluationException ex) {
+			assertTrue(ex.getMessage().contains("null"));
+		}
+		assertEquals(1, e.getVariantCount());
+	}
+
+	@Test
+	public void testVariantsPerType() throws Exception {
+		JaninoExpression e = (JaninoExpression) expressionLanguage.parse("value.toString().length()", 1, 1);
+
+		ExpressionContext context = expressionLanguage.createNewContext();
+		context.put("value", "abc");
+		assertEquals(3, e.asInt(context));
+		context.put("value", "abcd");
+		assertEquals(4, e.asInt(context));
+		assertEquals(1, e.getVariantCount());
+
+		context.put("value", 12345);
+		assertEquals(5, e.asInt(context));
+		assertEquals(2, e.getVariantCount());
+	}
+
+	public static class Item {
+		private final int value;
+
+		Item(int value) {
+			this.value = value;
+		}
+
+		public int getValue() {
+			return value;
+		}
+	}
+
+	public static class Item0 extends Item {
+		public Item0() {
+			super(0);
+		}
+	}
+
+	public static class Item1 extends Item {
+		public Item1() {
+			super(1);
+		}
+	}
+
+	public static class Item2 extends Item {
+		public Item2() {
+			super(2);
+		}
+	}
+
+	public static class Item3 extends Item {
+		public Item3() {
+			super(3);
+		}
+	}
+
+	public static class Item4 extends Item {
+		public Item4() {
+			super(4);
+		}
+	}
+
+	public static class Item5 extends Item {
+		public Item5() {
+			super(5);
+		}
+	}
+
+	public static class Item6 extends Item {
+		public Item6() {
+			super(6);
+		}
+	}
+
+	public static class Item7 extends Item {
+		public Item7() {
+			super(7);
+		}
+	}
+
+	public static class Item8 extends Item {
+		public Item8() {
+			super(8);
+		}
+	}
+
+	public static class Item9 extends Item {
+		public Item9() {
+			super(9);
+		}
+	}
+
+	private static Item[] newItems() {
+		return new Item[]{new Item0(), new Item1(), new Item2(), new Item3(), new Item4(),
+				new Item5(), new Item6(), new Item7(), new Item8(), new Item9()};
+	}
+
+	@Test
+	public void testGenericVariant() throws Exception {
+		JaninoExpression e = (JaninoExpression) expressionLanguage.parse("item.getValue() + 1", 1, 1);
+		ExpressionContext context = expressionLanguage.createNewContext();
+
+		Item[] items = newItems();
+		for (Item item : items) {
+			context.put("item", item);
+			assertEquals(item.getValue() + 1, e.asInt(context));
+		}
+		assertEquals(JaninoExpression.MaxVariants, e.getVariantCount());
+		int compilations = e.getCompilationCount();
+		assertEquals(JaninoExpression.MaxVariants + 1, compilations);
+
+		for (int i = 0; i < 3; i++) {
+			for (Item item : items) {
+				context.put("item", item);
+				assertEquals(item.getValue() + 1, e.asInt(context));
+			}
+		}
+		assertEquals(JaninoExpression.MaxVariants, e.getVariantCount());
+		assertEquals(compilations, e.getCompilationCount());
+	}
+
+	@Test
+	public void testGenericVariantWidening() throws Exception {
+		JaninoExpression e = (JaninoExpression) expressionLanguage.parse("value.intValue() + 1", 1, 1);
+		ExpressionContext context = expressionLanguage.createNewContext();
+
+		// The generic variant is compiled for Number
+		Object[] values = {1, 2L, 3.0, 4f, (short) 5, (byte) 6, new java.math.BigInteger("7"),
+				new java.math.BigDecimal("8"), new java.util.concurrent.atomic.AtomicInteger(9)};
+		for (Object value : values) {
+			context.put("value", value);
+			assertEquals(((Number) value).intValue() + 1, e.asInt(context));
+		}
+		assertEquals(JaninoExpression.MaxVariants, e.getVariantCount());
+		int compilations = e.getCompilationCount();
+		for (Object value : values) {
+			context.put("value", value);
+			assertEquals(((Number) value).intValue() + 1, e.asInt(context));
+		}
+		assertEquals(compilations, e.getCompilationCount());
+
+		// Widening to the common type of Number and String fails, so does
+		// compiling an evaluator for the String alone
+		context.put("value", "10");
+		try {
+			e.eval(context);
+			fail();
+		} catch (ExpressionEvaluationException ex) {
+			// String has no intValue()
+		}
+		assertEquals(JaninoExpression.MaxVariants, e.getVariantCount());
+
+		compilations = e.getCompilationCount();
+		for (Object value : values) {
+			context.put("value", value);
+			assertEquals(((Number) value).intValue() + 1, e.asInt(context));
+		}
+		assertEquals(compilations, e.getCompilationCount());
+	}
+}
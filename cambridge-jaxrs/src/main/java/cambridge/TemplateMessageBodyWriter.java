@@ -5,12 +5,11 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
 
 /**
  * @author Erdinc YILMAZEL
@@ -27,8 +26,24 @@ public class TemplateMessageBodyWriter implements MessageBodyWriter<Template> {
    }
 
    public void writeTo(Template template, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
-      BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(entityStream));
-      template.printTo(writer);
-      writer.flush();
+      template.printTo(entityStream, getCharset(mediaType));
+   }
+
+   /**
+    * @return The charset parameter of the media type, or the default charset if there is none
+    * @throws WebApplicationException If the charset parameter is not supported, since the
+    *                                 body would not match the announced Content-Type
+    */
+   private Charset getCharset(MediaType mediaType) {
+      String charset = mediaType == null ? null : mediaType.getParameters().get("charset");
+      if (charset != null) {
+         try {
+            return Charset.forName(charset);
+         } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e);
+         }
+      }
+
+      return Charset.defaultCharset();
    }
 }
@@ -0,0 +1,230 @@
+package cambridge;
+
+import cambridge.parser.expressions.CambridgeExpressionLanguage;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.Variant;
+import javax.ws.rs.ext.RuntimeDelegate;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TemplateMessageBodyWriterTest {
+   private static TemplateFactory factory;
+
+   @BeforeClass
+   public static void setUp() throws Exception {
+      // There is no JAX-RS implementation on the test class path to create media
+      // types and to build the response of a WebApplicationException
+      RuntimeDelegate.setInstance(new StubRuntimeDelegate());
+      factory = new ClassPathTemplateLoader().parseAndCreateTemplateFactory("<p>caf\u00e9 ${text}</p>", new CambridgeExpressionLanguage());
+   }
+
+   @AfterClass
+   public static void tearDown() {
+      RuntimeDelegate.setInstance(null);
+   }
+
+   private static byte[] write(MediaType mediaType) throws Exception {
+      Template template = factory.createTemplate();
+      template.setProperty("text", "au lait");
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new TemplateMessageBodyWriter().writeTo(template, Template.class, Template.class, new java.lang.annotation.Annotation[0], mediaType, null, out);
+      return out.toByteArray();
+   }
+
+   private static MediaType html(String charset) {
+      return new MediaType("text", "html", Collections.singletonMap("charset", charset));
+   }
+
+   @Test
+   public void testCharsetOfMediaType() throws Exception {
+      Charset latin1 = Charset.forName("ISO-8859-1");
+      Charset utf8 = Charset.forName("UTF-8");
+      String page = "<p>caf\u00e9 au lait</p>";
+
+      assertArrayEquals(page.getBytes(latin1), write(html("ISO-8859-1")));
+      assertArrayEquals(page.getBytes(utf8), write(html("UTF-8")));
+      assertArrayEquals(page.getBytes(Charset.defaultCharset()), write(new MediaType("text", "html")));
+      assertArrayEquals(page.getBytes(Charset.defaultCharset()), write(null));
+   }
+
+   @Test
+   public void testUnsupportedCharset() throws Exception {
+      try {
+         write(html("no-such-charset"));
+         fail();
+      } catch (WebApplicationException e) {
+         assertEquals(500, e.getResponse().getStatus());
+      }
+   }
+
+   private static class StubRuntimeDelegate extends RuntimeDelegate {
+      @Override
+      public UriBuilder createUriBuilder() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Response.ResponseBuilder createResponseBuilder() {
+         return new StubResponseBuilder();
+      }
+
+      @Override
+      public Variant.VariantListBuilder createVariantListBuilder() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public <T> T createEndpoint(Application application, Class<T> endpointType) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public <T> HeaderDelegate<T> createHeaderDelegate(Class<T> type) {
+         // Looked up when MediaType is initialized, the headers are never parsed
+         return null;
+      }
+   }
+
+   /**
+    * Only keeps the status of the response
+    */
+   private static class StubResponseBuilder extends Response.ResponseBuilder {
+      private int status;
+
+      @Override
+      public Response build() {
+         final int s = status;
+         return new Response() {
+            @Override
+            public Object getEntity() {
+               return null;
+            }
+
+            @Override
+            public int getStatus() {
+               return s;
+            }
+
+            @Override
+            public MultivaluedMap<String, Object> getMetadata() {
+               return null;
+            }
+         };
+      }
+
+      @Override
+      public Response.ResponseBuilder clone() {
+         StubResponseBuilder b = new StubResponseBuilder();
+         b.status = status;
+         return b;
+      }
+
+      @Override
+      public Response.ResponseBuilder status(int status) {
+         this.status = status;
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder entity(Object entity) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder type(MediaType type) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder type(String type) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder variant(Variant variant) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder variants(List<Variant> variants) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder language(String language) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder language(Locale language) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder location(URI location) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder contentLocation(URI location) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder tag(EntityTag tag) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder tag(String tag) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder lastModified(Date lastModified) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder cacheControl(CacheControl cacheControl) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder expires(Date expires) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder header(String name, Object value) {
+         return this;
+      }
+
+      @Override
+      public Response.ResponseBuilder cookie(NewCookie... cookies) {
+         return this;
+      }
+   }
+}
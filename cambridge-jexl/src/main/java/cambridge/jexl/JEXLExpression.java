@@ -1,13 +1,15 @@
 package cambridge.jexl;
 
 import cambridge.runtime.ExpressionContext;
-import org.apache.commons.jexl2.JexlContext;
-import org.apache.commons.jexl2.MapContext;
 
 import cambridge.ExpressionEvaluationException;
 import cambridge.model.Expression;
 
 /**
+ * A JEXL expression. Any ExpressionContext can be used to evaluate it, contexts that
+ * are not a JexlContext are read through a {@link JexlContextAdapter} instead of
+ * being copied.
+ *
  * @author Jon Scott Stevens
  */
 public class JEXLExpression implements Expression {
@@ -25,7 +27,7 @@ public class JEXLExpression implements Expression {
 
     public Object eval(ExpressionContext context) throws ExpressionEvaluationException {
         try {
-        	return this.compiledExpression.evaluate((JexlContext) context);
+            return this.compiledExpression.evaluate(JexlContextAdapter.of(context));
         } catch (Exception e) {
             throw new ExpressionEvaluationException("Error evaluating exception on line: " + line + ", column: " + col + ", expression: " + expression, e);
         }
@@ -0,0 +1,94 @@
+package cambridge.jexl;
+
+import cambridge.runtime.ExpressionContext;
+import org.apache.commons.jexl2.JexlContext;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A JexlContext that reads and writes the variables of a Cambridge ExpressionContext
+ * directly, without copying them into a map. Loop variables are set in the
+ * ExpressionContext by the template behaviors, so they are read the same way.
+ *
+ * <p>The adapter is an ExpressionContext itself, {@link JexlExpressionLanguage} creates
+ * its template contexts as adapters over a map backed context.</p>
+ */
+public class JexlContextAdapter implements JexlContext, ExpressionContext
+{
+    private final ExpressionContext context;
+
+    public JexlContextAdapter(ExpressionContext context)
+    {
+        this.context = context;
+    }
+
+    /**
+     * Returns a JexlContext for the given ExpressionContext, the context itself if it
+     * already implements JexlContext.
+     *
+     * @param context Template context
+     * @return JexlContext view of the context
+     */
+    public static JexlContext of(ExpressionContext context)
+    {
+        if (context instanceof JexlContext)
+        {
+            return (JexlContext) context;
+        }
+        return new JexlContextAdapter(context);
+    }
+
+    public ExpressionContext getExpressionContext()
+    {
+        return context;
+    }
+
+    @Override
+    public Object get(String name)
+    {
+        return context.get(name);
+    }
+
+    @Override
+    public void set(String name, Object value)
+    {
+        context.put(name, value);
+    }
+
+    @Override
+    public boolean has(String name)
+    {
+        return context.has(name);
+    }
+
+    @Override
+    public Object put(String name, Object value)
+    {
+        return context.put(name, value);
+    }
+
+    @Override
+    public Object remove(String name)
+    {
+        return context.remove(name);
+    }
+
+    @Override
+    public void setVariables(Map<String, Object> variables)
+    {
+        context.setVariables(variables);
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        return context.getLocale();
+    }
+
+    @Override
+    public Map<String, Object> asMap()
+    {
+        return context.asMap();
+    }
+}
@@ -1,5 +1,6 @@
 package cambridge.jexl;
 
+import cambridge.parser.expressions.MapExpressionContext;
 import cambridge.runtime.ExpressionContext;
 import org.apache.commons.jexl2.DebugInfo;
 import org.apache.commons.jexl2.JexlEngine;
@@ -13,24 +14,74 @@ import cambridge.model.Expression;
 import java.util.Locale;
 
 /**
+ * JEXL expression language. The parsed expressions are cached by the JexlEngine, and
+ * the cache is shared by all the templates using this language. Several instances
+ * can share a single engine and its cache through {@link #JexlExpressionLanguage(JexlEngine)}.
+ *
  * @author Jon Scott Stevens
  */
 public class JexlExpressionLanguage implements ExpressionLanguage {
+    public static final int DefaultCacheSize = 1024;
+
     public static void register() {
         Expressions.registerExpressionLanguage("jexl", JexlExpressionLanguage.class);
     }
 
-    private JexlEngine engine = new JexlEngine();
+    private final JexlEngine engine;
+    private int cacheSize;
 
     public JexlExpressionLanguage() {
+        this(DefaultCacheSize);
+    }
+
+    /**
+     * @param cacheSize Number of parsed expressions and scripts to cache, 0 to disable caching
+     */
+    public JexlExpressionLanguage(int cacheSize) {
+        engine = new JexlEngine();
         engine.setLenient(true);
         engine.setSilent(false);
+        setCacheSize(cacheSize);
+    }
+
+    /**
+     * Creates an expression language that uses the given engine as it is, including
+     * its cache settings.
+     *
+     * @param engine JexlEngine to use
+     */
+    public JexlExpressionLanguage(JexlEngine engine) {
+        this.engine = engine;
+        cacheSize = -1;
     }
 
     public JexlEngine getEngine() {
         return engine;
     }
 
+    /**
+     * Sets the size of the engine cache. The cache holds the parsed form of the
+     * expressions and scripts keyed by their text, so the same expression used in
+     * many templates, or in templates that are reloaded, is parsed once. Changing
+     * the size clears the cache.
+     *
+     * @param cacheSize Number of entries to cache, 0 to disable caching
+     */
+    public synchronized void setCacheSize(int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Cache size can not be negative: " + cacheSize);
+        }
+        engine.setCache(cacheSize);
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @return The size of the engine cache, -1 if the engine was configured externally
+     */
+    public synchronized int getCacheSize() {
+        return cacheSize;
+    }
+
     public Expression parse(String expressionString, int line, int column) throws ExpressionParsingException {
         org.apache.commons.jexl2.Expression compiledExpression;
         try {
@@ -50,12 +101,12 @@ public class JexlExpressionLanguage implements ExpressionLanguage {
     @Override
     public ExpressionContext createNewContext(Locale locale)
     {
-        return new JexlExpressionContext(locale);
+        return new JexlContextAdapter(new MapExpressionContext(locale));
     }
 
     @Override
     public ExpressionContext createNewContext()
     {
-        return new JexlExpressionContext();
+        return new JexlContextAdapter(new MapExpressionContext());
     }
 }
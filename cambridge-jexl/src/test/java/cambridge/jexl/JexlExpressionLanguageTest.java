@@ -0,0 +1,59 @@
+package cambridge.jexl;
+
+import cambridge.ClassPathTemplateLoader;
+import cambridge.Template;
+import cambridge.TemplateFactory;
+import cambridge.model.Expression;
+import cambridge.parser.expressions.ArrayExpressionContext;
+import cambridge.runtime.ExpressionContext;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JexlExpressionLanguageTest
+{
+    JexlExpressionLanguage expressionLanguage = new JexlExpressionLanguage();
+
+    @Test
+    public void testCreatedContext() throws Exception
+    {
+        ExpressionContext context = expressionLanguage.createNewContext(Locale.FRENCH);
+        assertTrue(context instanceof JexlContextAdapter);
+        assertSame(context, JexlContextAdapter.of(context));
+        assertEquals(Locale.FRENCH, context.getLocale());
+
+        context.put("a", 2);
+        Expression e = expressionLanguage.parse("b = a * 3", 1, 1);
+        assertEquals(6, e.asInt(context));
+        assertEquals(6, context.get("b"));
+        assertTrue(context.asMap().containsKey("b"));
+    }
+
+    @Test
+    public void testOtherContexts() throws Exception
+    {
+        ExpressionContext context = new ArrayExpressionContext();
+        context.put("a", 2);
+
+        Expression e = expressionLanguage.parse("b = a + 1", 1, 1);
+        assertEquals(3, e.asInt(context));
+        assertEquals(3, context.get("b"));
+    }
+
+    @Test
+    public void testLoopVariables() throws Exception
+    {
+        TemplateFactory factory = new ClassPathTemplateLoader().parseAndCreateTemplateFactory(
+            "<ul><li a:foreach=\"items\">${iter.row}=${self}</li></ul>${self}", expressionLanguage);
+
+        Template t = factory.createTemplate();
+        t.setProperty("items", Arrays.asList("x", "y"));
+        t.setProperty("self", "top");
+        assertEquals("<ul><li>1=x</li><li>2=y</li></ul>top", t.asString());
+    }
+}
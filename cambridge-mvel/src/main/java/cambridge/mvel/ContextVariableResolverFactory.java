@@ -0,0 +1,130 @@
+package cambridge.mvel;
+
+import cambridge.runtime.ExpressionContext;
+import org.mvel2.UnresolveablePropertyException;
+import org.mvel2.integration.VariableResolver;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.integration.impl.BaseVariableResolverFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A VariableResolverFactory that reads and writes the variables of an
+ * {@link ExpressionContext} directly, without converting the context to a map.
+ *
+ * <p>A factory is bound to a single context. The factory of an {@link MvelExpressionContext}
+ * is kept by the context and reused by all the expressions evaluated with it, see
+ * {@link #get(ExpressionContext)}.</p>
+ */
+public class ContextVariableResolverFactory extends BaseVariableResolverFactory {
+    private final ExpressionContext context;
+
+    public ContextVariableResolverFactory(ExpressionContext context) {
+        this.context = context;
+        variableResolvers = new HashMap<String, VariableResolver>();
+    }
+
+    /**
+     * Returns the factory of the given context. The factory of an MvelExpressionContext
+     * is reused, other contexts get a new factory.
+     *
+     * @param context Expression context
+     * @return A factory for the context
+     */
+    public static ContextVariableResolverFactory get(ExpressionContext context) {
+        if (context instanceof MvelExpressionContext) {
+            return ((MvelExpressionContext) context).getVariableResolverFactory();
+        }
+        return new ContextVariableResolverFactory(context);
+    }
+
+    public ExpressionContext getContext() {
+        return context;
+    }
+
+    private VariableResolver getResolver(String name) {
+        VariableResolver resolver = variableResolvers.get(name);
+        if (resolver == null) {
+            resolver = new ContextVariableResolver(context, name);
+            variableResolvers.put(name, resolver);
+        }
+        return resolver;
+    }
+
+    public VariableResolver createVariable(String name, Object value) {
+        VariableResolver resolver = getResolver(name);
+        resolver.setValue(value);
+        return resolver;
+    }
+
+    public VariableResolver createVariable(String name, Object value, Class<?> type) {
+        return createVariable(name, value);
+    }
+
+    @Override
+    public VariableResolver getVariableResolver(String name) {
+        if (isTarget(name)) {
+            return getResolver(name);
+        }
+        if (nextFactory != null) {
+            return nextFactory.getVariableResolver(name);
+        }
+        throw new UnresolveablePropertyException("unable to resolve variable '" + name + "'");
+    }
+
+    public boolean isTarget(String name) {
+        return name != null && context.has(name);
+    }
+
+    public boolean isResolveable(String name) {
+        return isTarget(name) || isNextResolveable(name);
+    }
+
+    @Override
+    public Set<String> getKnownVariables() {
+        Set<String> variables = new HashSet<String>(context.asMap().keySet());
+        VariableResolverFactory next = nextFactory;
+        if (next != null) {
+            variables.addAll(next.getKnownVariables());
+        }
+        return variables;
+    }
+
+    /**
+     * Reads and writes a single variable of the context
+     */
+    private static class ContextVariableResolver implements VariableResolver {
+        private final ExpressionContext context;
+        private final String name;
+
+        ContextVariableResolver(ExpressionContext context, String name) {
+            this.context = context;
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Class getType() {
+            return Object.class;
+        }
+
+        public void setStaticType(Class type) {
+        }
+
+        public int getFlags() {
+            return 0;
+        }
+
+        public Object getValue() {
+            return context.get(name);
+        }
+
+        public void setValue(Object value) {
+            context.put(name, value);
+        }
+    }
+}
@@ -25,9 +25,8 @@ public class MVELExpression implements Expression {
     }
 
     public Object eval(ExpressionContext context) throws ExpressionEvaluationException {
-        //VariableResolverFactory factory = new MapVariableResolverFactory(globals);
         try {
-            return MVEL.executeExpression(compiledExpression, context.asMap());
+            return MVEL.executeExpression(compiledExpression, ContextVariableResolverFactory.get(context));
         } catch (Exception e) {
             throw new ExpressionEvaluationException("Error evaluating exception on line: " + line + ", column: " + col + ", expression: " + expression, e);
         }
@@ -0,0 +1,32 @@
+package cambridge.mvel;
+
+import cambridge.parser.expressions.MapExpressionContext;
+
+import java.util.Locale;
+
+/**
+ * The template context created by {@link MvelExpressionLanguage}. It keeps the
+ * variable resolver factory that the expressions are evaluated with, so that the
+ * factory and its resolvers are created once for each template context.
+ */
+public class MvelExpressionContext extends MapExpressionContext {
+    private ContextVariableResolverFactory variableResolverFactory;
+
+    public MvelExpressionContext() {
+    }
+
+    public MvelExpressionContext(Locale locale) {
+        super(locale);
+    }
+
+    ContextVariableResolverFactory getVariableResolverFactory() {
+        ContextVariableResolverFactory factory = variableResolverFactory;
+        if (factory == null) {
+            factory = new ContextVariableResolverFactory(this);
+            variableResolverFactory = factory;
+        } else {
+            factory.setTiltFlag(false);
+        }
+        return factory;
+    }
+}
@@ -3,11 +3,11 @@ package cambridge.mvel;
 import java.io.Serializable;
 import java.util.Locale;
 
-import cambridge.parser.expressions.MapExpressionContext;
 import cambridge.runtime.ExpressionContext;
 import org.mvel2.MVEL;
 import org.mvel2.ParserConfiguration;
 import org.mvel2.ParserContext;
+import org.mvel2.optimizers.OptimizerFactory;
 
 import cambridge.ExpressionLanguage;
 import cambridge.ExpressionParsingException;
@@ -23,8 +23,31 @@ public class MvelExpressionLanguage implements ExpressionLanguage {
         Expressions.registerExpressionLanguage("mvel", MvelExpressionLanguage.class);
     }
 
+    /**
+     * Optimizer that generates bytecode for property accessors
+     */
+    public static final String AsmOptimizer = "ASM";
+
+    /**
+     * Optimizer that uses reflection for property accessors
+     */
+    public static final String ReflectiveOptimizer = "reflective";
+
     ParserConfiguration configuration = new ParserConfiguration();
 
+    /**
+     * Selects the optimizer MVEL uses to compile property accessors, either
+     * {@link #AsmOptimizer} or {@link #ReflectiveOptimizer}. The ASM optimizer is
+     * faster once warmed up, the reflective optimizer avoids generating classes
+     * and works where bytecode generation is not permitted. MVEL keeps this setting
+     * globally, so it applies to all the MVEL expressions in the JVM.
+     *
+     * @param optimizer Name of the optimizer
+     */
+    public static void setOptimizer(String optimizer) {
+        OptimizerFactory.setDefaultOptimizer(optimizer);
+    }
+
     public ParserConfiguration getParserConfiguration() {
         return configuration;
     }
@@ -44,12 +67,12 @@ public class MvelExpressionLanguage implements ExpressionLanguage {
     @Override
     public ExpressionContext createNewContext(Locale locale)
     {
-        return new MapExpressionContext(locale);
+        return new MvelExpressionContext(locale);
     }
 
     @Override
     public ExpressionContext createNewContext()
     {
-        return new MapExpressionContext();
+        return new MvelExpressionContext();
     }
 }
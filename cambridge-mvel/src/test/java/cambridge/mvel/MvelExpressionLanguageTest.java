@@ -9,6 +9,8 @@ import org.junit.Test;
 import java.util.Date;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -217,4 +219,47 @@ public class MvelExpressionLanguageTest
         assertEquals("Testing bean id", 100, expressionLanguage.parse("sample.id", 1, 1).eval(context));
         assertEquals("Testing property chain", "x", expressionLanguage.parse("sample.sample2.x", 1, 1).eval(context));
     }
+
+    @Test
+    public void testContextVariables() throws Exception
+    {
+        ExpressionContext context = new cambridge.parser.expressions.CambridgeExpressionLanguage().createNewContext();
+        context.put("sample", sample);
+        context.put("count", 2);
+
+        assertEquals(102, expressionLanguage.parse("sample.id + count", 1, 1).eval(context));
+        assertEquals(5, expressionLanguage.parse("count = count + 3", 1, 1).eval(context));
+        assertEquals(5, context.get("count"));
+        assertEquals("Cambridge", expressionLanguage.parse("x = sample.name; x", 1, 1).eval(context));
+        assertEquals("Cambridge", context.get("x"));
+
+        MvelExpressionLanguage.setOptimizer(MvelExpressionLanguage.ReflectiveOptimizer);
+        try
+        {
+            assertEquals(105, expressionLanguage.parse("sample.id + count", 1, 1).eval(context));
+        }
+        finally
+        {
+            MvelExpressionLanguage.setOptimizer(MvelExpressionLanguage.AsmOptimizer);
+        }
+    }
+
+    @Test
+    public void testResolverFactoryPerContext() throws Exception
+    {
+        ExpressionContext context = expressionLanguage.createNewContext();
+        context.put("count", 2);
+        assertSame(ContextVariableResolverFactory.get(context), ContextVariableResolverFactory.get(context));
+
+        ExpressionContext other = expressionLanguage.createNewContext();
+        other.put("count", 3);
+        assertNotSame(ContextVariableResolverFactory.get(context), ContextVariableResolverFactory.get(other));
+
+        Expression e = expressionLanguage.parse("count = count + 1", 1, 1);
+        assertEquals(3, e.eval(context));
+        assertEquals(4, e.eval(other));
+        assertEquals(4, e.eval(context));
+        assertEquals(4, context.get("count"));
+        assertEquals(4, other.get("count"));
+    }
 }
@@ -3,12 +3,28 @@ package cambridge.ognl;
 import cambridge.ExpressionEvaluationException;
 import cambridge.model.Expression;
 import cambridge.runtime.ExpressionContext;
+import ognl.Node;
 import ognl.Ognl;
+import ognl.OgnlContext;
 import ognl.OgnlException;
+import ognl.OgnlOps;
+import ognl.enhance.ExpressionAccessor;
 
 import java.util.Map;
 
 /**
+ * An OGNL expression. The expression is interpreted the first time it is
+ * evaluated, and compiled to bytecode with {@link Ognl#compileExpression} using
+ * the types of that evaluation. If the compiled accessor sees types that are
+ * different from the ones it was compiled for, the evaluation is repeated by the
+ * interpreter and the expression is interpreted from then on. Other failures of
+ * the compiled accessor, like a null property in the path, are reported as they
+ * are.
+ *
+ * <p>The OgnlContext is kept by the {@link OgnlExpressionContext} and reused by
+ * all the expressions evaluated with it. Other template contexts get a new
+ * OgnlContext for each evaluation.</p>
+ *
  * @author Erdinc YILMAZEL
  * @since 2/1/11
  */
@@ -16,19 +32,64 @@ public class OgnlExpression implements Expression
 {
     final Object parsedExpression;
     final String expression;
+    private final boolean compile;
+
+    private volatile ExpressionAccessor accessor;
+    private volatile boolean interpretOnly;
 
     public OgnlExpression(Object parsedExpression, String expression)
+    {
+        this(parsedExpression, expression, true);
+    }
+
+    public OgnlExpression(Object parsedExpression, String expression, boolean compile)
     {
         this.parsedExpression = parsedExpression;
         this.expression = expression;
+        this.compile = compile;
+        interpretOnly = !compile;
     }
 
     public Object eval(ExpressionContext context) throws ExpressionEvaluationException
     {
+        Map<String, Object> root = context.asMap();
+        OgnlContext ognlContext;
+        if (context instanceof OgnlExpressionContext)
+        {
+            ognlContext = ((OgnlExpressionContext) context).getOgnlContext();
+        }
+        else
+        {
+            ognlContext = OgnlExpressionContext.newOgnlContext(root);
+        }
+
+        ExpressionAccessor a = accessor;
+        if (a != null)
+        {
+            try
+            {
+                return a.get(ognlContext, root);
+            }
+            catch (ClassCastException e)
+            {
+                // The compiled accessor was generated for other types
+                interpretOnly = true;
+                accessor = null;
+                ognlContext.setRoot(root);
+            }
+            catch (RuntimeException e)
+            {
+                throw new ExpressionEvaluationException("Error evaluating expression: " + expression, e);
+            }
+        }
+        else if (!interpretOnly)
+        {
+            return compileAndEval(ognlContext, root);
+        }
+
         try
         {
-            Map<String, Object> globals = context.asMap();
-            return Ognl.getValue(parsedExpression, globals, globals);
+            return Ognl.getValue(parsedExpression, ognlContext, root);
         }
         catch (OgnlException e)
         {
@@ -36,66 +97,113 @@ public class OgnlExpression implements Expression
         }
     }
 
-    public boolean asBoolean(ExpressionContext context) throws ExpressionEvaluationException
+    /**
+     * @return true if the expression is evaluated by a compiled accessor
+     */
+    boolean isCompiled()
+    {
+        return accessor != null;
+    }
+
+    /**
+     * Replaces the compiled accessor, null to interpret the expression
+     */
+    void setAccessor(ExpressionAccessor accessor)
     {
+        this.accessor = accessor;
+        interpretOnly = accessor == null;
+    }
+
+    private synchronized Object compileAndEval(OgnlContext ognlContext, Map<String, Object> root) throws ExpressionEvaluationException
+    {
+        Object value;
         try
         {
-            Map<String, Object> globals = context.asMap();
-            return (Boolean) Ognl.getValue(parsedExpression, globals, globals, Boolean.class);
+            value = Ognl.getValue(parsedExpression, ognlContext, root);
         }
         catch (OgnlException e)
         {
             throw new ExpressionEvaluationException("Error evaluating expression: " + expression, e);
         }
+
+        if (accessor == null && !interpretOnly)
+        {
+            try
+            {
+                Node node = Ognl.compileExpression(ognlContext, root, expression);
+                accessor = node.getAccessor();
+            }
+            catch (Exception e)
+            {
+                // Not every expression can be compiled
+            }
+            catch (LinkageError e)
+            {
+                // Bytecode generation is not available
+            }
+            interpretOnly = accessor == null;
+        }
+
+        return value;
     }
 
-    public int asInt(ExpressionContext context) throws ExpressionEvaluationException
+    public boolean asBoolean(ExpressionContext context) throws ExpressionEvaluationException
     {
-        try
+        Object o = eval(context);
+        if (o instanceof Boolean)
         {
-            Map<String, Object> globals = context.asMap();
-            return (Integer) Ognl.getValue(parsedExpression, globals, globals, Integer.class);
+            return (Boolean) o;
         }
-        catch (OgnlException e)
+        return OgnlOps.booleanValue(o);
+    }
+
+    public int asInt(ExpressionContext context) throws ExpressionEvaluationException
+    {
+        Object o = eval(context);
+        if (o instanceof Number)
         {
-            throw new ExpressionEvaluationException("Error evaluating expression: " + expression, e);
+            return ((Number) o).intValue();
         }
+        return (Integer) convert(o, int.class);
     }
 
     public float asFloat(ExpressionContext context) throws ExpressionEvaluationException
     {
-        try
-        {
-            Map<String, Object> globals = context.asMap();
-            return (Float) Ognl.getValue(parsedExpression, globals, globals, Float.class);
-        }
-        catch (OgnlException e)
+        Object o = eval(context);
+        if (o instanceof Number)
         {
-            throw new ExpressionEvaluationException("Error evaluating expression: " + expression, e);
+            return ((Number) o).floatValue();
         }
+        return (Float) convert(o, float.class);
     }
 
     public double asDouble(ExpressionContext context) throws ExpressionEvaluationException
     {
-        try
+        Object o = eval(context);
+        if (o instanceof Number)
         {
-            Map<String, Object> globals = context.asMap();
-            return (Double) Ognl.getValue(parsedExpression, globals, globals, Double.class);
+            return ((Number) o).doubleValue();
         }
-        catch (OgnlException e)
+        return (Double) convert(o, double.class);
+    }
+
+    public long asLong(ExpressionContext context) throws ExpressionEvaluationException
+    {
+        Object o = eval(context);
+        if (o instanceof Number)
         {
-            throw new ExpressionEvaluationException("Error evaluating expression: " + expression, e);
+            return ((Number) o).longValue();
         }
+        return (Long) convert(o, long.class);
     }
 
-    public long asLong(ExpressionContext context) throws ExpressionEvaluationException
+    private Object convert(Object o, Class<?> type) throws ExpressionEvaluationException
     {
         try
         {
-            Map<String, Object> globals = context.asMap();
-            return (Long) Ognl.getValue(parsedExpression, globals, globals, Long.class);
+            return OgnlOps.convertValue(o, type);
         }
-        catch (OgnlException e)
+        catch (RuntimeException e)
         {
             throw new ExpressionEvaluationException("Error evaluating expression: " + expression, e);
         }
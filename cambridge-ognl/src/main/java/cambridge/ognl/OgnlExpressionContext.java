@@ -0,0 +1,43 @@
+package cambridge.ognl;
+
+import cambridge.parser.expressions.MapExpressionContext;
+import ognl.OgnlContext;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The template context created by {@link OgnlExpressionLanguage}. It keeps the
+ * OgnlContext that the expressions are evaluated with, so that it is created once
+ * for each template context instead of once for each evaluation.
+ */
+public class OgnlExpressionContext extends MapExpressionContext
+{
+    private OgnlContext ognlContext;
+
+    public OgnlExpressionContext()
+    {
+    }
+
+    public OgnlExpressionContext(Locale locale)
+    {
+        super(locale);
+    }
+
+    OgnlContext getOgnlContext()
+    {
+        if (ognlContext == null)
+        {
+            ognlContext = newOgnlContext(this);
+        }
+        ognlContext.setRoot(this);
+        return ognlContext;
+    }
+
+    static OgnlContext newOgnlContext(Map<String, Object> root)
+    {
+        OgnlContext context = new OgnlContext(null, null, null, root);
+        context.setRoot(root);
+        return context;
+    }
+}
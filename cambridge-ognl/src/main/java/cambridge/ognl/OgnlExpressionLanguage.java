@@ -4,7 +4,6 @@ import cambridge.ExpressionLanguage;
 import cambridge.ExpressionParsingException;
 import cambridge.Expressions;
 import cambridge.model.Expression;
-import cambridge.parser.expressions.MapExpressionContext;
 import cambridge.runtime.ExpressionContext;
 import ognl.Ognl;
 import ognl.OgnlException;
@@ -16,6 +15,7 @@ import java.util.Locale;
  * @since 2/1/11
  */
 public class OgnlExpressionLanguage implements ExpressionLanguage {
+    private volatile boolean compile = true;
 
     public static void register() {
         Expressions.registerExpressionLanguage("ognl", OgnlExpressionLanguage.class);
@@ -24,12 +24,27 @@ public class OgnlExpressionLanguage implements ExpressionLanguage {
     public Expression parse(String expressionString, int line, int col) throws ExpressionParsingException {
 
         try {
-            return new OgnlExpression(Ognl.parseExpression(expressionString), expressionString);
+            return new OgnlExpression(Ognl.parseExpression(expressionString), expressionString, compile);
         } catch (OgnlException e) {
             throw new ExpressionParsingException(line, col, "Error parsing expression on line: " + line + ", column: " + col + ", expression: " + expressionString, e);
         }
     }
 
+    public boolean isCompile() {
+        return compile;
+    }
+
+    /**
+     * Sets whether the expressions parsed from now on are compiled to bytecode
+     * after their first evaluation. Compilation is enabled by default, expressions
+     * that can not be compiled are interpreted.
+     *
+     * @param compile true to compile expressions
+     */
+    public void setCompile(boolean compile) {
+        this.compile = compile;
+    }
+
     public String wrapExpressionAsList(String expr) {
         return "{" + expr + "}";
     }
@@ -37,12 +52,12 @@ public class OgnlExpressionLanguage implements ExpressionLanguage {
     @Override
     public ExpressionContext createNewContext(Locale locale)
     {
-        return new MapExpressionContext(locale);
+        return new OgnlExpressionContext(locale);
     }
 
     @Override
     public ExpressionContext createNewContext()
     {
-        return new MapExpressionContext();
+        return new OgnlExpressionContext();
     }
 }
@@ -0,0 +1,155 @@
+package cambridge.ognl;
+
+import cambridge.ExpressionEvaluationException;
+import cambridge.parser.expressions.MapExpressionContext;
+import cambridge.runtime.ExpressionContext;
+import ognl.Node;
+import ognl.OgnlContext;
+import ognl.enhance.ExpressionAccessor;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class OgnlExpressionTest
+{
+    OgnlExpressionLanguage expressionLanguage = new OgnlExpressionLanguage();
+
+    public static class User
+    {
+        private final String name;
+
+        public User(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    public static class Admin
+    {
+        public String getName()
+        {
+            return "admin";
+        }
+    }
+
+    public static class Session
+    {
+        int reads;
+        User user;
+
+        public User getUser()
+        {
+            reads++;
+            return user;
+        }
+    }
+
+    /**
+     * Does what the accessor compiled for session.user.name does
+     */
+    static class SessionUserNameAccessor implements ExpressionAccessor
+    {
+        public Object get(OgnlContext context, Object target)
+        {
+            return ((Session) ((Map) target).get("session")).getUser().getName();
+        }
+
+        public void set(OgnlContext context, Object target, Object value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void setExpression(Node expression)
+        {
+        }
+    }
+
+    @Test
+    public void testCompiledExpression() throws Exception
+    {
+        OgnlExpression e = (OgnlExpression) expressionLanguage.parse("user.name", 1, 1);
+        ExpressionContext context = expressionLanguage.createNewContext();
+        context.put("user", new User("erdinc"));
+
+        assertEquals("erdinc", e.eval(context));
+        // Bytecode generation might not be available on this JVM
+        assumeTrue(e.isCompiled());
+
+        context.put("user", new User("cambridge"));
+        assertEquals("cambridge", e.eval(context));
+        assertEquals("cambridge", e.asString(context));
+    }
+
+    @Test
+    public void testNullPropertyIsReported() throws Exception
+    {
+        OgnlExpression e = (OgnlExpression) expressionLanguage.parse("session.user.name", 1, 1);
+        e.setAccessor(new SessionUserNameAccessor());
+
+        ExpressionContext context = expressionLanguage.createNewContext();
+        Session session = new Session();
+        session.user = new User("erdinc");
+        context.put("session", session);
+        assertEquals("erdinc", e.eval(context));
+
+        session.user = null;
+        session.reads = 0;
+        try
+        {
+            e.eval(context);
+            fail();
+        }
+        catch (ExpressionEvaluationException ex)
+        {
+            // The expression is not evaluated again by the interpreter
+            assertEquals(1, session.reads);
+        }
+        assertTrue(e.isCompiled());
+    }
+
+    @Test
+    public void testChangedTypesAreInterpreted() throws Exception
+    {
+        OgnlExpression e = (OgnlExpression) expressionLanguage.parse("session.user.name", 1, 1);
+        e.setAccessor(new SessionUserNameAccessor());
+
+        ExpressionContext context = expressionLanguage.createNewContext();
+        Session session = new Session();
+        session.user = new User("erdinc");
+        context.put("session", session);
+        assertEquals("erdinc", e.eval(context));
+
+        Map<String, Object> other = new HashMap<String, Object>();
+        other.put("user", new Admin());
+        context.put("session", other);
+        assertEquals("admin", e.eval(context));
+        assertFalse(e.isCompiled());
+
+        context.put("session", session);
+        assertEquals("erdinc", e.eval(context));
+    }
+
+    @Test
+    public void testOtherContexts() throws Exception
+    {
+        OgnlExpression e = (OgnlExpression) expressionLanguage.parse("a + b", 1, 1);
+        ExpressionContext context = new MapExpressionContext();
+        context.put("a", 1);
+        context.put("b", 2);
+
+        assertEquals(3, e.asInt(context));
+        assertEquals(3, e.asInt(context));
+    }
+}
@@ -5,14 +5,37 @@ import cambridge.ExpressionLanguage;
 import cambridge.Expressions;
 import cambridge.TemplateFactory;
 import cambridge.TemplateLoader;
+import cambridge.TemplateLoadingException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.web.context.ServletContextAware;
 
 import javax.servlet.ServletContext;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Configures the Cambridge views of a Spring MVC application.
+ *
+ * <p>Templates are loaded the first time they are requested, and each template is loaded
+ * once even if several requests ask for it at the same time: the other requests wait for
+ * the load in progress. If warm up is turned on with {@link #setWarmUp(boolean)}, all the
+ * templates under the template path are loaded in parallel in the background when the
+ * configurer is initialized, and {@link #isReady()} returns false until they are loaded.
+ * The templates that fail to load are reported by {@link #getWarmUpFailures()}, and keep
+ * the configurer from being ready until they are loaded successfully.</p>
+ *
  * @author Erdinc Yilmazel (eyilmazel@tripadvisor.com)
  * @since 6/13/13
  */
@@ -25,15 +48,173 @@ public class CambridgeConfigurer implements CambridgeConfig, InitializingBean, S
     private String expressionLanguage = "spel";
     private ServletContext servletContext;
     private TemplateLoader templateLoader;
-    private ConcurrentHashMap<String, TemplateFactory> cachedTemplates = new ConcurrentHashMap<String, TemplateFactory>();
+    private boolean warmUp;
+    private int warmUpThreads = Runtime.getRuntime().availableProcessors();
+    private ConcurrentHashMap<String, FutureTask<TemplateFactory>> cachedTemplates = new ConcurrentHashMap<String, FutureTask<TemplateFactory>>();
     private ExpressionLanguage exp;
+    private volatile CountDownLatch pendingTemplates = new CountDownLatch(0);
+    private final ConcurrentHashMap<String, RuntimeException> warmUpFailures = new ConcurrentHashMap<String, RuntimeException>();
 
     @Override
     public void afterPropertiesSet() throws Exception
     {
         Expressions.registerExpressionLanguage(expressionLanguage, SpringExpressionLanguage.class);
-        templateLoader = new DirectoryTemplateLoader(new File(servletContext.getRealPath(templatePath)), templateEncoding, changeDetectionInterval);
+        File templateDirectory = new File(servletContext.getRealPath(templatePath));
+        templateLoader = new DirectoryTemplateLoader(templateDirectory, templateEncoding, changeDetectionInterval);
         exp = Expressions.getExpressionLanguageByName(expressionLanguage);
+
+        if (warmUp)
+        {
+            warmUp(templateDirectory);
+        }
+    }
+
+    /**
+     * Loads all the templates in the template directory and its sub directories with a
+     * thread pool that is shut down when they are loaded.
+     */
+    private void warmUp(File templateDirectory)
+    {
+        ArrayList<String> templates = new ArrayList<String>();
+        findTemplates(templateDirectory, "", templates);
+        if (templates.isEmpty())
+        {
+            return;
+        }
+
+        final CountDownLatch pending = new CountDownLatch(templates.size());
+        pendingTemplates = pending;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(warmUpThreads, templates.size())), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "cambridge-warm-up-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        for (final String template : templates)
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        getTemplateFactory(template);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // The template is loaded again when it is requested
+                        warmUpFailures.put(template, e);
+                    }
+                    finally
+                    {
+                        pending.countDown();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    private void findTemplates(File directory, String path, ArrayList<String> templates)
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+
+        String suffix = "." + templateExtension;
+        for (File f : files)
+        {
+            if (f.isDirectory())
+            {
+                findTemplates(f, path + f.getName() + "/", templates);
+            }
+            else if (f.getName().endsWith(suffix))
+            {
+                templates.add(path + f.getName());
+            }
+        }
+    }
+
+    /**
+     * @return false if the templates are still being loaded by the warm up, or if some of
+     *         them failed to load and haven't been loaded since, true otherwise
+     */
+    public boolean isReady()
+    {
+        return pendingTemplates.getCount() == 0 && warmUpFailures.isEmpty();
+    }
+
+    /**
+     * @return The templates that failed to load during the warm up, mapped to the errors.
+     *         A template is removed when it is loaded successfully later.
+     */
+    public Map<String, RuntimeException> getWarmUpFailures()
+    {
+        return Collections.unmodifiableMap(warmUpFailures);
+    }
+
+    /**
+     * @return true if the template has been loaded, or is being loaded
+     */
+    boolean isCached(String template)
+    {
+        return cachedTemplates.containsKey(template);
+    }
+
+    /**
+     * Waits until the warm up is over.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit    Unit of the timeout
+     * @return true if the warm up is over, false if the timeout elapsed first. The templates
+     *         that failed to load are reported by {@link #getWarmUpFailures()}
+     * @throws InterruptedException If the current thread is interrupted while waiting
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return pendingTemplates.await(timeout, unit);
+    }
+
+    public boolean isWarmUp()
+    {
+        return warmUp;
+    }
+
+    /**
+     * Sets whether all the templates under the template path are loaded when the configurer
+     * is initialized, so that the first requests don't wait for the templates to be parsed.
+     * Disabled by default.
+     *
+     * @param warmUp true to load the templates at startup
+     */
+    public void setWarmUp(boolean warmUp)
+    {
+        this.warmUp = warmUp;
+    }
+
+    public int getWarmUpThreads()
+    {
+        return warmUpThreads;
+    }
+
+    /**
+     * @param warmUpThreads Number of threads loading the templates during the warm up,
+     *                      the number of processors by default
+     */
+    public void setWarmUpThreads(int warmUpThreads)
+    {
+        this.warmUpThreads = warmUpThreads;
     }
 
     @Override
@@ -104,17 +285,57 @@ public class CambridgeConfigurer implements CambridgeConfig, InitializingBean, S
     }
 
     @Override
-    public TemplateFactory getTemplateFactory(String template)
+    public TemplateFactory getTemplateFactory(final String template)
     {
-        TemplateFactory templateFactory = cachedTemplates.get(template);
-        if (templateFactory != null)
+        FutureTask<TemplateFactory> task = cachedTemplates.get(template);
+        if (task == null)
         {
-            return templateFactory;
+            FutureTask<TemplateFactory> newTask = new FutureTask<TemplateFactory>(new Callable<TemplateFactory>()
+            {
+                @Override
+                public TemplateFactory call() throws Exception
+                {
+                    return templateLoader.newTemplateFactory(template, exp);
+                }
+            });
+
+            task = cachedTemplates.putIfAbsent(template, newTask);
+            if (task == null)
+            {
+                task = newTask;
+                task.run();
+            }
         }
 
-        templateFactory = templateLoader.newTemplateFactory(template, exp);
+        try
+        {
+            TemplateFactory factory = task.get();
+            if (!warmUpFailures.isEmpty())
+            {
+                warmUpFailures.remove(template);
+            }
+            return factory;
+        }
+        catch (ExecutionException e)
+        {
+            // Don't cache the failure, the template might be fixed later
+            cachedTemplates.remove(template, task);
 
-        cachedTemplates.putIfAbsent(template, templateFactory);
-        return templateFactory;
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new TemplateLoadingException(cause);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new TemplateLoadingException("Interrupted while waiting for template " + template, e);
+        }
     }
 }
@@ -14,16 +14,27 @@ import org.springframework.web.servlet.view.AbstractTemplateView;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.Locale;
 import java.util.Map;
 
 /**
+ * Renders a Cambridge template. The output is encoded with the character encoding of
+ * the response into a pooled buffer. Pages that fit into the buffer are sent with their
+ * Content-Length in a single write, larger pages are sent in chunks of the buffer size.
+ * If the writer of the response is already in use, the template is rendered to the
+ * writer instead.
+ *
  * @author Erdinc Yilmazel (eyilmazel@tripadvisor.com)
  * @since 6/13/13
  */
 public class CambridgeView extends AbstractTemplateView
 {
+    public static final int DefaultBufferSize = 32 * 1024;
+
     CambridgeConfig cambridgeConfig;
+    private int bufferSize = DefaultBufferSize;
 
     public CambridgeConfig getCambridgeConfig()
     {
@@ -35,6 +46,26 @@ public class CambridgeView extends AbstractTemplateView
         this.cambridgeConfig = cambridgeConfig;
     }
 
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * Sets the size of the buffer that the templates are rendered to. If the size is 0
+     * the templates are rendered directly to the writer of the response.
+     *
+     * @param bufferSize Buffer size in bytes
+     */
+    public void setBufferSize(int bufferSize)
+    {
+        if (bufferSize < 0)
+        {
+            throw new IllegalArgumentException("Buffer size can not be negative: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
     @Override
     protected void renderMergedTemplateModel(Map<String, Object> model, HttpServletRequest request, HttpServletResponse response) throws Exception
     {
@@ -50,11 +81,47 @@ public class CambridgeView extends AbstractTemplateView
 
         TemplateFactory templateFactory = cambridgeConfig.getTemplateFactory(url);
         ExpressionLanguage expressionLanguage = cambridgeConfig.getExpressionLanguageImplementation();
-        ExpressionContext context = expressionLanguage.createNewContext(locale);
-        context.setVariables(model);
-        Template template = templateFactory.createTemplate(locale);
+        ExpressionContext context;
+        if (expressionLanguage instanceof SpringExpressionLanguage)
+        {
+            context = ((SpringExpressionLanguage) expressionLanguage).createNewContext(locale, model);
+        }
+        else
+        {
+            context = expressionLanguage.createNewContext(locale);
+            context.setVariables(model);
+        }
+        Template template = templateFactory.createTemplate(context);
 
-        template.printTo(response.getWriter());
+        if (bufferSize == 0)
+        {
+            template.printTo(response.getWriter());
+            return;
+        }
+
+        OutputStream out;
+        try
+        {
+            out = response.getOutputStream();
+        }
+        catch (IllegalStateException e)
+        {
+            // getWriter() has already been called on the response
+            template.printTo(response.getWriter());
+            return;
+        }
+
+        Charset charset = Charset.forName(response.getCharacterEncoding());
+        ResponseBuffer buffer = ResponseBuffer.acquire(response, out, bufferSize);
+        try
+        {
+            template.printTo(buffer, charset);
+            buffer.finish();
+        }
+        finally
+        {
+            buffer.release();
+        }
     }
 
     @Override
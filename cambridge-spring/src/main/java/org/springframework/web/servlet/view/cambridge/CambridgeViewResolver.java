@@ -1,6 +1,7 @@
 package org.springframework.web.servlet.view.cambridge;
 
 import org.springframework.web.servlet.view.AbstractTemplateViewResolver;
+import org.springframework.web.servlet.view.AbstractUrlBasedView;
 
 /**
  * @author Erdinc Yilmazel (eyilmazel@tripadvisor.com)
@@ -8,6 +9,8 @@ import org.springframework.web.servlet.view.AbstractTemplateViewResolver;
  */
 public class CambridgeViewResolver extends AbstractTemplateViewResolver
 {
+    private int bufferSize = CambridgeView.DefaultBufferSize;
+
     public CambridgeViewResolver()
     {
         setViewClass(requiredViewClass());
@@ -18,4 +21,28 @@ public class CambridgeViewResolver extends AbstractTemplateViewResolver
     {
         return CambridgeView.class;
     }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * Sets the output buffer size of the views created by this resolver.
+     *
+     * @param bufferSize Buffer size in bytes, 0 to render directly to the response writer
+     * @see CambridgeView#setBufferSize(int)
+     */
+    public void setBufferSize(int bufferSize)
+    {
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    protected AbstractUrlBasedView buildView(String viewName) throws Exception
+    {
+        CambridgeView view = (CambridgeView) super.buildView(viewName);
+        view.setBufferSize(bufferSize);
+        return view;
+    }
 }
@@ -0,0 +1,124 @@
+package org.springframework.web.servlet.view.cambridge;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A byte buffer that CambridgeView renders the templates to. If the whole page fits
+ * in the buffer, it is sent to the response in a single write with its Content-Length
+ * set. Otherwise the buffer is sent each time it fills up, so the response is written
+ * in chunks of the buffer size.
+ *
+ * <p>A buffer is bound to a response by {@link #acquire(HttpServletResponse, OutputStream, int)}
+ * and must be released with {@link #release()} when the render is over. Released
+ * buffers are kept in a small pool shared by all the threads, up to {@link #MaxPooledBuffers}
+ * of them.</p>
+ */
+class ResponseBuffer extends OutputStream
+{
+    static final int MaxPooledBuffers = 16;
+
+    private static final ArrayBlockingQueue<ResponseBuffer> pool = new ArrayBlockingQueue<ResponseBuffer>(MaxPooledBuffers);
+
+    private final byte[] buffer;
+    private int count;
+    private HttpServletResponse response;
+    private OutputStream out;
+
+    /**
+     * True if a part of the buffer has been sent before the render ended
+     */
+    private boolean sent;
+
+    private ResponseBuffer(int size)
+    {
+        buffer = new byte[size];
+    }
+
+    /**
+     * Returns a buffer from the pool, or a new buffer if there is no pooled buffer of
+     * the given size.
+     *
+     * @param response The response that the buffer is written to
+     * @param out      The output stream of the response
+     * @param size     Buffer size
+     * @return A buffer bound to the response
+     */
+    static ResponseBuffer acquire(HttpServletResponse response, OutputStream out, int size)
+    {
+        ResponseBuffer b = pool.poll();
+        if (b == null || b.buffer.length != size)
+        {
+            b = new ResponseBuffer(size);
+        }
+        b.response = response;
+        b.out = out;
+        return b;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (count == buffer.length)
+        {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (len > buffer.length - count)
+        {
+            drain();
+            if (len >= buffer.length)
+            {
+                out.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    private void drain() throws IOException
+    {
+        if (count != 0)
+        {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+        sent = true;
+    }
+
+    /**
+     * Sends the remaining contents of the buffer to the response. If nothing has been
+     * sent yet, the Content-Length of the response is set first.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    void finish() throws IOException
+    {
+        if (!sent)
+        {
+            response.setContentLength(count);
+        }
+        drain();
+    }
+
+    /**
+     * Discards the contents of the buffer, unbinds it from the response and returns it
+     * to the pool. The buffer must not be used after it is released.
+     */
+    void release()
+    {
+        count = 0;
+        sent = false;
+        out = null;
+        response = null;
+        pool.offer(this);
+    }
+}
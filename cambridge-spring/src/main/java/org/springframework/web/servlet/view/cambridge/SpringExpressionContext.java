@@ -1,27 +1,159 @@
 package org.springframework.web.servlet.view.cambridge;
 
 import cambridge.runtime.ExpressionContext;
+import org.springframework.expression.BeanResolver;
+import org.springframework.expression.ConstructorResolver;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.MethodResolver;
+import org.springframework.expression.OperatorOverloader;
+import org.springframework.expression.PropertyAccessor;
+import org.springframework.expression.TypeComparator;
+import org.springframework.expression.TypeConverter;
+import org.springframework.expression.TypeLocator;
+import org.springframework.expression.TypedValue;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
 /**
-* @author Erdinc Yilmazel (eyilmazel@tripadvisor.com)
-* @since 6/15/13
-*/
-public class SpringExpressionContext extends StandardEvaluationContext implements ExpressionContext
+ * A lightweight EvaluationContext that is created for each render. It only holds the
+ * variables and the root object of the template, the resolvers, accessors and
+ * converters come from a shared StandardEvaluationContext, so their caches survive
+ * across requests. Variables that are not defined in this context, such as the
+ * functions registered to the shared context, are looked up in the shared context.
+ *
+ * <p>A context can be created over a model map, in which case the variables of the
+ * model are read from the map directly. The model map is never modified: variables
+ * put into the context hide the model variables with the same name, and only the
+ * variables put into the context can be removed.</p>
+ *
+ * @author Erdinc Yilmazel (eyilmazel@tripadvisor.com)
+ * @since 6/15/13
+ */
+public class SpringExpressionContext implements EvaluationContext, ExpressionContext
 {
-    Locale locale;
+    final StandardEvaluationContext shared;
+    final HashMap<String, Object> variables = new HashMap<String, Object>();
+    final Map<String, ?> model;
+    final Locale locale;
+    TypedValue rootObject = TypedValue.NULL;
 
     public SpringExpressionContext()
     {
+        this(null);
     }
 
     public SpringExpressionContext(Locale locale)
     {
+        this(SpringExpressionLanguage.createSharedContext(), locale);
+    }
+
+    /**
+     * @param shared The context that provides the resolvers and accessors, it is only read by this context
+     * @param locale Template locale
+     */
+    public SpringExpressionContext(StandardEvaluationContext shared, Locale locale)
+    {
+        this(shared, locale, null);
+    }
+
+    /**
+     * @param shared The context that provides the resolvers and accessors, it is only read by this context
+     * @param locale Template locale
+     * @param model  Variables that are read through, might be null
+     */
+    public SpringExpressionContext(StandardEvaluationContext shared, Locale locale, Map<String, ?> model)
+    {
+        this.shared = shared;
         this.locale = locale;
+        this.model = model;
+    }
+
+    public void setRootObject(Object rootObject)
+    {
+        this.rootObject = rootObject == null ? TypedValue.NULL : new TypedValue(rootObject);
+    }
+
+    @Override
+    public TypedValue getRootObject()
+    {
+        return rootObject;
+    }
+
+    @Override
+    public List<ConstructorResolver> getConstructorResolvers()
+    {
+        return shared.getConstructorResolvers();
+    }
+
+    @Override
+    public List<MethodResolver> getMethodResolvers()
+    {
+        return shared.getMethodResolvers();
+    }
+
+    @Override
+    public List<PropertyAccessor> getPropertyAccessors()
+    {
+        return shared.getPropertyAccessors();
+    }
+
+    @Override
+    public TypeLocator getTypeLocator()
+    {
+        return shared.getTypeLocator();
+    }
+
+    @Override
+    public TypeConverter getTypeConverter()
+    {
+        return shared.getTypeConverter();
+    }
+
+    @Override
+    public TypeComparator getTypeComparator()
+    {
+        return shared.getTypeComparator();
+    }
+
+    @Override
+    public OperatorOverloader getOperatorOverloader()
+    {
+        return shared.getOperatorOverloader();
+    }
+
+    @Override
+    public BeanResolver getBeanResolver()
+    {
+        return shared.getBeanResolver();
+    }
+
+    @Override
+    public void setVariable(String name, Object value)
+    {
+        variables.put(name, value);
+    }
+
+    @Override
+    public Object lookupVariable(String name)
+    {
+        Object value = variables.get(name);
+        if (value != null || variables.containsKey(name))
+        {
+            return value;
+        }
+        if (model != null)
+        {
+            value = model.get(name);
+            if (value != null || model.containsKey(name))
+            {
+                return value;
+            }
+        }
+        return shared.lookupVariable(name);
     }
 
     @Override
@@ -33,16 +165,20 @@ public class SpringExpressionContext extends StandardEvaluationContext implement
     @Override
     public Object put(String name, Object value)
     {
-        setVariable(name, value);
+        variables.put(name, value);
         return value;
     }
 
     @Override
     public Object remove(String name)
     {
-        Object existing = lookupVariable(name);
-        setVariable(name, null);
-        return existing;
+        return variables.remove(name);
+    }
+
+    @Override
+    public void setVariables(Map<String, Object> variables)
+    {
+        this.variables.putAll(variables);
     }
 
     @Override
@@ -54,12 +190,22 @@ public class SpringExpressionContext extends StandardEvaluationContext implement
     @Override
     public boolean has(String name)
     {
-        return lookupVariable(name) != null;
+        return variables.containsKey(name) || model != null && model.containsKey(name);
     }
 
+    /**
+     * @return The variables of the context, if the context has a model this is a copy
+     * that merges the model and the variables
+     */
     @Override
     public Map<String, Object> asMap()
     {
-        return Collections.emptyMap();
+        if (model == null)
+        {
+            return variables;
+        }
+        HashMap<String, Object> map = new HashMap<String, Object>(model);
+        map.putAll(variables);
+        return map;
     }
 }
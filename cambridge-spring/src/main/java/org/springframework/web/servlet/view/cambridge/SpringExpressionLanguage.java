@@ -6,17 +6,77 @@ import cambridge.model.Expression;
 import cambridge.parser.expressions.CambridgeExpressionParsingException;
 import cambridge.runtime.ExpressionContext;
 import org.springframework.expression.ParseException;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
 
 import java.util.Locale;
+import java.util.Map;
 
 /**
+ * Spring expression language (SpEL) support.
+ *
+ * <p>The contexts created by this language share the property accessors, method and
+ * constructor resolvers, type locator and converter of a single StandardEvaluationContext,
+ * which can be customized through {@link #getEvaluationContext()} before the templates
+ * are rendered. The reflective accessors cache what they look up, so sharing them means
+ * a property is resolved once for the application instead of once for each request.</p>
+ *
  * @author Erdinc Yilmazel (eyilmazel@tripadvisor.com)
  * @since 6/14/13
  */
 public class SpringExpressionLanguage implements ExpressionLanguage
 {
-    SpelExpressionParser parser = new SpelExpressionParser();
+    final SpelExpressionParser parser;
+    final StandardEvaluationContext sharedContext;
+
+    public SpringExpressionLanguage()
+    {
+        this(new SpelExpressionParser());
+    }
+
+    /**
+     * @param configuration Configuration of the SpEL parser
+     */
+    public SpringExpressionLanguage(SpelParserConfiguration configuration)
+    {
+        this(new SpelExpressionParser(configuration));
+    }
+
+    private SpringExpressionLanguage(SpelExpressionParser parser)
+    {
+        this.parser = parser;
+        sharedContext = createSharedContext();
+    }
+
+    /**
+     * Creates a StandardEvaluationContext whose resolvers are initialized eagerly, so
+     * that it can be read by several threads.
+     *
+     * @return A new evaluation context
+     */
+    static StandardEvaluationContext createSharedContext()
+    {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.getPropertyAccessors();
+        context.getMethodResolvers();
+        context.getConstructorResolvers();
+        context.getTypeLocator();
+        context.getTypeConverter();
+        return context;
+    }
+
+    /**
+     * Returns the evaluation context shared by the contexts of all the templates. It should
+     * only be modified, for example to add property accessors, register functions or set a
+     * bean resolver, before the templates are rendered.
+     *
+     * @return The shared evaluation context
+     */
+    public StandardEvaluationContext getEvaluationContext()
+    {
+        return sharedContext;
+    }
 
     @Override
     public Expression parse(String expressionString, int line, int column) throws ExpressionParsingException
@@ -42,12 +102,25 @@ public class SpringExpressionLanguage implements ExpressionLanguage
     @Override
     public ExpressionContext createNewContext(Locale locale)
     {
-        return new SpringExpressionContext(locale);
+        return new SpringExpressionContext(sharedContext, locale);
+    }
+
+    /**
+     * Creates a context that reads the variables of the given model directly instead of
+     * copying them.
+     *
+     * @param locale The locale that the template should be rendered in
+     * @param model  Template model
+     * @return Returns the newly created expression context
+     */
+    public ExpressionContext createNewContext(Locale locale, Map<String, ?> model)
+    {
+        return new SpringExpressionContext(sharedContext, locale, model);
     }
 
     @Override
     public ExpressionContext createNewContext()
     {
-        return new SpringExpressionContext(null);
+        return new SpringExpressionContext(sharedContext, null);
     }
 }
@@ -0,0 +1,153 @@
+package org.springframework.web.servlet.view.cambridge;
+
+import cambridge.TemplateFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CambridgeConfigurerTest
+{
+    File directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = File.createTempFile("cambridge", "");
+        directory.delete();
+        new File(directory, "sub").mkdirs();
+        write("index.html", "<div>index</div>");
+        write("sub/page.html", "<div>page</div>");
+        write("notes.txt", "not a template");
+    }
+
+    @After
+    public void tearDown()
+    {
+        new File(directory, "index.html").delete();
+        new File(directory, "sub/page.html").delete();
+        new File(directory, "notes.txt").delete();
+        new File(directory, "sub").delete();
+        directory.delete();
+    }
+
+    private void write(String name, String contents) throws IOException
+    {
+        FileWriter writer = new FileWriter(new File(directory, name));
+        writer.write(contents);
+        writer.close();
+    }
+
+    private CambridgeConfigurer createConfigurer(boolean warmUp) throws Exception
+    {
+        ServletContext servletContext = (ServletContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[]{ServletContext.class}, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if (method.getName().equals("getRealPath"))
+                {
+                    return new File(directory, (String) args[0]).getPath();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        CambridgeConfigurer configurer = new CambridgeConfigurer();
+        configurer.setServletContext(servletContext);
+        configurer.setTemplatePath("/");
+        configurer.setWarmUp(warmUp);
+        configurer.afterPropertiesSet();
+        return configurer;
+    }
+
+    @Test
+    public void testWarmUp() throws Exception
+    {
+        CambridgeConfigurer configurer = createConfigurer(true);
+        assertTrue(configurer.awaitReady(10, TimeUnit.SECONDS));
+        assertTrue(configurer.isReady());
+        assertTrue(configurer.getWarmUpFailures().isEmpty());
+
+        // Loaded by the warm up before being requested
+        assertTrue(configurer.isCached("index.html"));
+        assertTrue(configurer.isCached("sub/page.html"));
+        assertFalse(configurer.isCached("notes.txt"));
+
+        TemplateFactory factory = configurer.getTemplateFactory("sub/page.html");
+        assertSame(factory, configurer.getTemplateFactory("sub/page.html"));
+        assertEquals("<div>page</div>", factory.createTemplate().asString());
+        assertEquals("<div>index</div>", configurer.getTemplateFactory("index.html").createTemplate().asString());
+    }
+
+    @Test
+    public void testWarmUpFailure() throws Exception
+    {
+        write("broken.html", "<div>${1 +}</div>");
+        try
+        {
+            CambridgeConfigurer configurer = createConfigurer(true);
+            configurer.awaitReady(10, TimeUnit.SECONDS);
+            assertFalse(configurer.isReady());
+            assertEquals(Collections.singleton("broken.html"), configurer.getWarmUpFailures().keySet());
+            assertTrue(configurer.isCached("index.html"));
+
+            write("broken.html", "<div>fixed</div>");
+            assertEquals("<div>fixed</div>", configurer.getTemplateFactory("broken.html").createTemplate().asString());
+            assertTrue(configurer.isReady());
+        }
+        finally
+        {
+            new File(directory, "broken.html").delete();
+        }
+    }
+
+    @Test
+    public void testSingleLoad() throws Exception
+    {
+        final CambridgeConfigurer configurer = createConfigurer(false);
+        assertTrue(configurer.isReady());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            Callable<TemplateFactory> load = new Callable<TemplateFactory>()
+            {
+                @Override
+                public TemplateFactory call() throws Exception
+                {
+                    return configurer.getTemplateFactory("index.html");
+                }
+            };
+
+            Future<TemplateFactory> first = executor.submit(load);
+            for (int i = 0; i < 8; i++)
+            {
+                assertSame(first.get(), executor.submit(load).get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
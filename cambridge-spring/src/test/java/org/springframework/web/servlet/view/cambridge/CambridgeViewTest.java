@@ -0,0 +1,155 @@
+package org.springframework.web.servlet.view.cambridge;
+
+import cambridge.ClassPathTemplateLoader;
+import cambridge.ExpressionLanguage;
+import cambridge.parser.expressions.CambridgeExpressionLanguage;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class CambridgeViewTest
+{
+    static class Response implements InvocationHandler
+    {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final StringWriter text = new StringWriter();
+        final PrintWriter writer = new PrintWriter(text);
+        boolean writerUsed;
+        int contentLength = -1;
+
+        final ServletOutputStream stream = new ServletOutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                body.write(b);
+            }
+        };
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            if (name.equals("getOutputStream"))
+            {
+                if (writerUsed)
+                {
+                    throw new IllegalStateException("getWriter() has already been called");
+                }
+                return stream;
+            }
+            if (name.equals("getWriter"))
+            {
+                writerUsed = true;
+                return writer;
+            }
+            if (name.equals("getCharacterEncoding"))
+            {
+                return "UTF-8";
+            }
+            if (name.equals("setContentLength"))
+            {
+                contentLength = (Integer) args[0];
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(CambridgeViewTest.class.getClassLoader(), new Class[]{type}, handler));
+    }
+
+    private CambridgeView createView() throws Exception
+    {
+        final ExpressionLanguage expressionLanguage = new CambridgeExpressionLanguage();
+        final ClassPathTemplateLoader loader = new ClassPathTemplateLoader();
+        CambridgeConfig config = proxy(CambridgeConfig.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                String name = method.getName();
+                if (name.equals("getTemplateExtension"))
+                {
+                    return "html";
+                }
+                if (name.equals("getExpressionLanguageImplementation"))
+                {
+                    return expressionLanguage;
+                }
+                if (name.equals("getTemplateFactory"))
+                {
+                    return loader.parseAndCreateTemplateFactory("<div>${name}</div>", expressionLanguage);
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+
+        CambridgeView view = new CambridgeView();
+        view.setUrl("index");
+        view.setCambridgeConfig(config);
+        return view;
+    }
+
+    private HttpServletRequest request()
+    {
+        return proxy(HttpServletRequest.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if (method.getName().equals("getLocale"))
+                {
+                    return Locale.US;
+                }
+                if (method.getName().equals("getAttribute"))
+                {
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @Test
+    public void testBufferedOutput() throws Exception
+    {
+        Map<String, Object> model = Collections.<String, Object>singletonMap("name", "page");
+        Response response = new Response();
+        createView().renderMergedTemplateModel(model, request(), proxy(HttpServletResponse.class, response));
+
+        assertEquals("<div>page</div>", response.body.toString("UTF-8"));
+        assertEquals(response.body.size(), response.contentLength);
+    }
+
+    @Test
+    public void testWriterInUse() throws Exception
+    {
+        Map<String, Object> model = Collections.<String, Object>singletonMap("name", "cambridge");
+        Response response = new Response();
+        HttpServletResponse servletResponse = proxy(HttpServletResponse.class, response);
+        servletResponse.getWriter().write("<p>");
+
+        createView().renderMergedTemplateModel(model, request(), servletResponse);
+        response.writer.flush();
+
+        assertEquals("<p><div>cambridge</div>", response.text.toString());
+        assertEquals(0, response.body.size());
+    }
+}
@@ -0,0 +1,140 @@
+package org.springframework.web.servlet.view.cambridge;
+
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ResponseBufferTest
+{
+    static class Response implements InvocationHandler
+    {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int contentLength = -1;
+        int writes;
+
+        final ServletOutputStream stream = new ServletOutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                writes++;
+                body.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                writes++;
+                body.write(b, off, len);
+            }
+        };
+
+        HttpServletResponse proxy()
+        {
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{HttpServletResponse.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            if (method.getName().equals("getOutputStream"))
+            {
+                return stream;
+            }
+            if (method.getName().equals("setContentLength"))
+            {
+                contentLength = (Integer) args[0];
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private static byte[] bytes(int length)
+    {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            b[i] = (byte) i;
+        }
+        return b;
+    }
+
+    @Test
+    public void testContentLength() throws Exception
+    {
+        Response response = new Response();
+        ResponseBuffer buffer = ResponseBuffer.acquire(response.proxy(), response.stream, 64);
+        try
+        {
+            buffer.write(bytes(40));
+            buffer.write('x');
+            buffer.finish();
+        }
+        finally
+        {
+            buffer.release();
+        }
+
+        assertEquals(41, response.contentLength);
+        assertEquals(1, response.writes);
+        assertEquals(41, response.body.size());
+    }
+
+    @Test
+    public void testChunks() throws Exception
+    {
+        Response response = new Response();
+        ResponseBuffer buffer = ResponseBuffer.acquire(response.proxy(), response.stream, 64);
+        byte[] data = bytes(200);
+        try
+        {
+            buffer.write(data, 0, 50);
+            buffer.write(data, 50, 30);
+            buffer.write(data, 80, 100);
+            buffer.write(data, 180, 20);
+            buffer.finish();
+        }
+        finally
+        {
+            buffer.release();
+        }
+
+        assertEquals(-1, response.contentLength);
+        assertEquals(4, response.writes);
+        assertArrayEquals(data, response.body.toByteArray());
+    }
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        Response response = new Response();
+        ResponseBuffer buffer = ResponseBuffer.acquire(response.proxy(), response.stream, 64);
+        buffer.write(bytes(10));
+        buffer.release();
+
+        ResponseBuffer reused = ResponseBuffer.acquire(response.proxy(), response.stream, 64);
+        ResponseBuffer nested = ResponseBuffer.acquire(response.proxy(), response.stream, 64);
+        assertSame(buffer, reused);
+        assertNotSame(reused, nested);
+
+        reused.write('x');
+        reused.finish();
+        assertEquals(1, response.contentLength);
+        assertEquals(1, response.body.size());
+        nested.release();
+        reused.release();
+    }
+}
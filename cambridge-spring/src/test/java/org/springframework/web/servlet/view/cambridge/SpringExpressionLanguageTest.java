@@ -4,7 +4,13 @@ import cambridge.model.Expression;
 import cambridge.runtime.ExpressionContext;
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Erdinc Yilmazel (eyilmazel@tripadvisor.com)
@@ -34,4 +40,50 @@ public class SpringExpressionLanguageTest
         String name = expression.asString(context);
         assertEquals(name, "Cambridge");
     }
+
+    public static String upper(String s)
+    {
+        return s.toUpperCase();
+    }
+
+    @Test
+    public void testSharedContext() throws Exception
+    {
+        SpringExpressionLanguage language = new SpringExpressionLanguage();
+        language.getEvaluationContext().registerFunction("upper",
+            SpringExpressionLanguageTest.class.getMethod("upper", String.class));
+        Expression expression = language.parse("#upper(#name) + #name.length()", 1, 1);
+
+        ExpressionContext first = language.createNewContext();
+        first.put("name", "Cambridge");
+        ExpressionContext second = language.createNewContext();
+        second.put("name", "Spring");
+
+        assertEquals("CAMBRIDGE9", expression.asString(first));
+        assertEquals("SPRING6", expression.asString(second));
+        assertSame(((SpringExpressionContext) first).getPropertyAccessors(),
+            ((SpringExpressionContext) second).getPropertyAccessors());
+        assertFalse(second.has("upper"));
+    }
+
+    @Test
+    public void testModelContext() throws Exception
+    {
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("name", "Cambridge");
+        ExpressionContext context = language.createNewContext(null, model);
+        Expression expression = language.parse("#name", 1, 1);
+
+        assertEquals("Cambridge", expression.asString(context));
+        model.put("name", "Model");
+        assertEquals("Model", expression.asString(context));
+
+        context.put("name", "Local");
+        assertEquals("Local", expression.asString(context));
+        assertEquals("Model", model.get("name"));
+
+        context.remove("name");
+        assertEquals("Model", expression.asString(context));
+        assertTrue(context.has("name"));
+    }
 }